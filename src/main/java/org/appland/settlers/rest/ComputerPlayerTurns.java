@@ -0,0 +1,151 @@
+package org.appland.settlers.rest;
+
+import org.appland.settlers.computer.CompositePlayer;
+import org.appland.settlers.computer.ComputerPlayer;
+import org.appland.settlers.utils.Stats;
+import org.appland.settlers.utils.Variable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The turns of a game's computer players that are waiting to be taken in the gaps between ticks.
+ *
+ * A turn can't be cut short once it has started, so the budget is enforced before it starts instead. A turn only
+ * starts if there is at least the budget left until the next tick, and the turns that don't fit wait for the next
+ * gap. A turn that takes longer than the budget is an overrun. Overruns are counted, and a player that keeps
+ * overrunning is reported.
+ */
+class ComputerPlayerTurns {
+
+    static final String TURN_BUDGET_PROPERTY = "settlers.computerPlayer.turnBudget";
+
+    static final long TURN_BUDGET = Long.getLong(TURN_BUDGET_PROPERTY, 50);
+    static final int OVERRUNS_BEFORE_REPORT = 3;
+
+    private static final String TURNS = "ComputerPlayerTurns";
+    private static final String OVERRUNS = "ComputerPlayerTurnOverruns";
+    private static final String REPEATED_OVERRUNS = "ComputerPlayerRepeatedOverruns";
+    private static final String DEFERRED_TURNS = "ComputerPlayerTurnsDeferred";
+
+    private final Object lock;
+    private final long budget;
+    private final Stats stats;
+    private final Deque<ComputerPlayer> turnsDue;
+    private final Map<ComputerPlayer, Integer> overrunsInARow;
+
+    /* The lock is held during each turn, i.e. the game's map */
+    ComputerPlayerTurns(Object lock, long budgetMs, Stats stats) {
+        this.lock = lock;
+        this.stats = stats;
+
+        budget = TimeUnit.MILLISECONDS.toNanos(budgetMs);
+        turnsDue = new ArrayDeque<>();
+        overrunsInARow = new HashMap<>();
+    }
+
+    /* A player whose previous turn hasn't been taken yet is not queued twice */
+    void queue(ComputerPlayer computerPlayer) {
+        if (!turnsDue.contains(computerPlayer)) {
+            turnsDue.addLast(computerPlayer);
+        }
+    }
+
+    int getNumberOfTurnsDue() {
+        return turnsDue.size();
+    }
+
+    int getOverrunsInARow(ComputerPlayer computerPlayer) {
+        return overrunsInARow.getOrDefault(computerPlayer, 0);
+    }
+
+    /* Takes the turns that fit before the next tick, given in System.nanoTime() */
+    void runBefore(long nextTick) {
+        while (!turnsDue.isEmpty() && nextTick - System.nanoTime() >= budget) {
+            runTurn(turnsDue.pollFirst());
+        }
+
+        reportDeferred();
+    }
+
+    /* A game that runs as fast as it can has no next tick to keep, so one turn is taken between each tick */
+    void runOne() {
+        if (!turnsDue.isEmpty()) {
+            runTurn(turnsDue.pollFirst());
+        }
+
+        reportDeferred();
+    }
+
+    private void runTurn(ComputerPlayer computerPlayer) {
+        long start = System.nanoTime();
+
+        /* The turn reads and modifies the game. Only REST calls can wait for it, the tick runs on this thread */
+        synchronized (lock) {
+            try {
+                computerPlayer.turn();
+            } catch (Throwable e) {
+                System.out.println("Exception during computer player turn");
+                e.printStackTrace();
+            }
+        }
+
+        long turnTime = System.nanoTime() - start;
+
+        if (turnTime > budget) {
+            overrunsInARow.merge(computerPlayer, 1, Integer::sum);
+        } else {
+            overrunsInARow.remove(computerPlayer);
+        }
+
+        try {
+            stats.addIncrementingVariableIfAbsent(TURNS).reportValue(1);
+
+            if (turnTime > budget) {
+                stats.addIncrementingVariableIfAbsent(OVERRUNS).reportValue(1);
+
+                int overruns = overrunsInARow.get(computerPlayer);
+
+                if (overruns % OVERRUNS_BEFORE_REPORT == 0) {
+                    stats.addIncrementingVariableIfAbsent(REPEATED_OVERRUNS).reportValue(1);
+
+                    System.out.println("\nComputer player has gone over its turn budget of " +
+                            TimeUnit.NANOSECONDS.toMillis(budget) + " (ms) " + overruns + " turns in a row, last turn took " +
+                            TimeUnit.NANOSECONDS.toMillis(turnTime) + " (ms)");
+                }
+            }
+
+            if (computerPlayer instanceof CompositePlayer) {
+                Stats computerPlayerStats = ((CompositePlayer) computerPlayer).getStats();
+
+                Variable totalTurn = computerPlayerStats.getVariable("CompositePlayer.turn.total");
+
+                if (totalTurn.isLatestValueHighest()) {
+                    System.out.println("\nNew highest time for computer players: " + totalTurn.getHighestValue() + " (ms)");
+
+                    stats.printVariablesAsTable();
+                    computerPlayerStats.printVariablesAsTable();
+                }
+            }
+        } catch (Throwable t) {
+            System.out.println(t);
+            t.printStackTrace();
+        }
+    }
+
+    private void reportDeferred() {
+        if (turnsDue.isEmpty()) {
+            return;
+        }
+
+        try {
+            stats.addIncrementingVariableIfAbsent(DEFERRED_TURNS).reportValue(turnsDue.size());
+        } catch (Throwable t) {
+            System.out.println(t);
+            t.printStackTrace();
+        }
+    }
+}
@@ -16,6 +16,8 @@ import java.util.List;
 @WebListener
 class DeploymentListener implements ServletContextListener {
 
+    private static final String GAME_TICKER_MODE_PROPERTY = "settlers.gameTicker.mode";
+
     private final List<MapFile> mapFiles;
 
     DeploymentListener() {
@@ -27,7 +29,19 @@ class DeploymentListener implements ServletContextListener {
         System.out.println("Context initialized event.");
 
         /* Add a game ticker to the servlet context that drives the game loop for each game */
-        GameTicker gameTicker = new GameTicker();
+        String tickerModeProperty = System.getProperty(GAME_TICKER_MODE_PROPERTY, GameTickerMode.POOLED.name());
+        GameTickerMode tickerMode = GameTickerMode.fromProperty(tickerModeProperty);
+
+        /* A misspelled mode should not stop the webapp from deploying */
+        if (tickerMode == null) {
+            System.out.println("Unknown game ticker mode '" + tickerModeProperty + "', using " + GameTickerMode.POOLED);
+
+            tickerMode = GameTickerMode.POOLED;
+        }
+
+        GameTicker gameTicker = new GameTicker(tickerMode);
+
+        System.out.println("Game ticker mode: " + tickerMode);
 
         servletContextEvent.getServletContext().setAttribute(SettlersAPI.GAME_TICKER, gameTicker);
 
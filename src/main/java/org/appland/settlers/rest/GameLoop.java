@@ -0,0 +1,231 @@
+package org.appland.settlers.rest;
+
+import org.appland.settlers.computer.ComputerPlayer;
+import org.appland.settlers.model.GameMap;
+import org.appland.settlers.rest.resource.GameResource;
+import org.appland.settlers.utils.CumulativeDuration;
+import org.appland.settlers.utils.Group;
+import org.appland.settlers.utils.Stats;
+import org.appland.settlers.utils.Variable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives the time for a single game. Each game gets its own loop so that a slow game only delays itself.
+ *
+ * The computer players take their turns on the same thread, in the time between two ticks, so a turn and a tick never
+ * wait for each other's lock. A turn only starts if its budget fits before the next tick, turns are never skipped but
+ * the ones that don't fit are moved to the next gap.
+ */
+class GameLoop implements Runnable {
+
+    private static final int COMPUTER_PLAYER_FREQUENCY = 100;
+    private static final String FULL_TICK_TIME = "GameTicker.tick.total";
+    private static final String TICK_LAG = "GameTicker.tick.lag";
+    private static final String DROPPED_TICKS = "GameTicker.tick.dropped";
+    private static final long TICK_PERIOD = 200;
+
+    /* Pause between ticks at max speed so requests that read the game get a chance to take the map */
+    private static final long UNLIMITED_SPEED_PAUSE = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final GameResource game;
+    private final Stats stats;
+    private final ComputerPlayerTurns computerPlayerTurns;
+    private final TickGovernor tickGovernor;
+    private int counter;
+    private volatile boolean stopped;
+
+    GameLoop(GameResource game) {
+        this.game = game;
+
+        counter = 0;
+
+        stats = new Stats();
+
+        computerPlayerTurns = new ComputerPlayerTurns(game.getMap(), ComputerPlayerTurns.TURN_BUDGET, new Stats());
+
+        tickGovernor = new TickGovernor();
+
+        stopped = false;
+
+        stats.setUpperThreshold(FULL_TICK_TIME, 150);
+    }
+
+    GameResource getGame() {
+        return game;
+    }
+
+    Stats getStats() {
+        return stats;
+    }
+
+    void stop() {
+        stopped = true;
+    }
+
+    boolean isStopped() {
+        return stopped;
+    }
+
+    long getTickPeriod() {
+        return TimeUnit.MILLISECONDS.toNanos(game.getSpeed().scalePeriod(TICK_PERIOD));
+    }
+
+    /* Returns the delay in nanoseconds until the first tick */
+    long start() {
+        long period = getTickPeriod();
+
+        tickGovernor.start(System.nanoTime(), period);
+
+        return period;
+    }
+
+    /* Runs the ticks that are due according to the game's tick policy and returns the delay in nanoseconds until the next tick */
+    long runDueTicks() {
+        long period = getTickPeriod();
+
+        int ticks = tickGovernor.ticksToRun(System.nanoTime(), period, game.getTickPolicy());
+
+        reportTickGovernance();
+
+        for (int i = 0; i < ticks && !stopped; i++) {
+            run();
+        }
+
+        if (period == 0) {
+            if (!stopped) {
+                computerPlayerTurns.runOne();
+            }
+
+            return UNLIMITED_SPEED_PAUSE;
+        }
+
+        if (!stopped) {
+            computerPlayerTurns.runBefore(tickGovernor.getNextTick());
+        }
+
+        return Math.max(0, tickGovernor.getNextTick() - System.nanoTime());
+    }
+
+    private void reportTickGovernance() {
+        try {
+            Variable tickLag = stats.addVariableIfAbsent(TICK_LAG);
+
+            tickLag.reportValue(TimeUnit.NANOSECONDS.toMillis(tickGovernor.getLag()));
+
+            if (tickGovernor.getDroppedTicks() > 0) {
+                Variable droppedTicks = stats.addIncrementingVariableIfAbsent(DROPPED_TICKS);
+
+                droppedTicks.reportValue(tickGovernor.getDroppedTicks());
+            }
+
+            if (tickLag.isLatestValueHighest() && tickLag.getHighestValue() > game.getSpeed().scalePeriod(TICK_PERIOD)) {
+                System.out.println("\nNew highest tick lag: " + tickLag.getHighestValue() + " (ms) with policy " + game.getTickPolicy());
+            }
+        } catch (Throwable t) {
+            System.out.println(t);
+            t.printStackTrace();
+        }
+    }
+
+    @Override
+    public void run() {
+
+        /* Never let an exception escape, it would silently cancel the schedule for this game */
+        try {
+            tick();
+        } catch (Throwable t) {
+            System.out.println("Exception in game loop: " + t);
+            t.printStackTrace();
+        }
+    }
+
+    private void tick() {
+        boolean runComputers = false;
+
+        Group group = null;
+        CumulativeDuration duration = null;
+
+        try {
+            group = stats.createVariableGroupIfAbsent("GameTickGroup");
+            duration = stats.measureCumulativeDuration("GameTicker.tick", group);
+        } catch (Throwable e) {
+            System.out.println(e);
+            e.printStackTrace();
+        }
+
+        if (counter == COMPUTER_PLAYER_FREQUENCY) {
+            runComputers = true;
+        }
+
+        GameMap map = game.getMap();
+
+        synchronized (map) {
+
+            try {
+                map.stepTime();
+            } catch (Throwable e) {
+                System.out.println("Exception during game loop: " + e);
+                e.printStackTrace();
+                System.out.println(e.getCause());
+                System.out.println(map);
+            }
+
+            duration.after("Map.stepTime");
+        }
+
+        /* The computer players take their turns after the tick, before the next one is due */
+        if (runComputers) {
+            for (ComputerPlayer computerPlayer : game.getComputerPlayers()) {
+                computerPlayerTurns.queue(computerPlayer);
+            }
+        }
+
+        try {
+            duration.report();
+
+            group.collectionPeriodDone();
+
+            boolean printStats = false;
+
+            Variable mapStepTime = stats.getVariable("GameTicker.tick.Map.stepTime");
+            Variable fullTick = stats.getVariable(FULL_TICK_TIME);
+
+            if (mapStepTime.isLatestValueHighest()) {
+                System.out.println("\nNew highest time for map.stepTime(): " + mapStepTime.getHighestValue() + " (ms)");
+
+                System.out.println("Upper threshold is: " + mapStepTime.getUpperThreshold());
+
+                printStats = true;
+            }
+
+            if (fullTick.isLatestValueHighest()) {
+                System.out.println("\nNew highest time for full tick: " + fullTick.getHighestValue() + " (ms)");
+
+                System.out.println("Average: " + fullTick.getAverage() + " (ms)");
+
+                printStats = true;
+            }
+
+            if (fullTick.isUpperThresholdExceeded()) {
+                System.out.println("\nMap step time exceeded threshold");
+
+                printStats = true;
+            }
+
+            if (printStats) {
+                stats.printVariablesAsTable();
+                map.getStats().printVariablesAsTable();
+            }
+        } catch (Throwable t) {
+            System.out.println(t);
+            t.printStackTrace();
+        }
+
+        if (runComputers) {
+            counter = 0;
+        } else {
+            counter = counter + 1;
+        }
+    }
+}
@@ -1,186 +1,152 @@
 package org.appland.settlers.rest;
 
-import org.appland.settlers.computer.CompositePlayer;
-import org.appland.settlers.computer.ComputerPlayer;
 import org.appland.settlers.model.Building;
 import org.appland.settlers.model.GameMap;
 import org.appland.settlers.model.Headquarter;
 import org.appland.settlers.model.Scout;
 import org.appland.settlers.rest.resource.GameResource;
-import org.appland.settlers.utils.CumulativeDuration;
-import org.appland.settlers.utils.Group;
-import org.appland.settlers.utils.Stats;
-import org.appland.settlers.utils.Variable;
-
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 public class GameTicker {
 
-    private static final int COMPUTER_PLAYER_FREQUENCY = 100;
-    private static final String FULL_TICK_TIME = "GameTicker.tick.total";
-
+    private final GameTickerMode mode;
     private final ScheduledExecutorService scheduler;
-    private final Set<GameResource> games;
-    private final Stats stats;
-    ScheduledFuture<?> handle;
-    private int counter;
+    private final ExecutorService gameLoopThreads;
+    private final Map<GameResource, GameLoop> gameLoops;
+    private volatile boolean active;
 
     GameTicker() {
-        games = new HashSet<>();
-
-        scheduler = Executors.newScheduledThreadPool(2);
-
-        counter = 0;
-
-        stats = new Stats();
-
-        stats.setUpperThreshold(FULL_TICK_TIME, 150);
+        this(GameTickerMode.POOLED);
     }
 
-    void deactivate() {
-        scheduler.shutdown();
-    }
-
-    void activate() {
-        handle = scheduler.scheduleAtFixedRate(() -> {
-            boolean runComputers = false;
-
-            Group group = null;
-            CumulativeDuration duration = null;
-            Variable computerPlayerTurns = null;
-
-            try {
-                group = stats.createVariableGroupIfAbsent("GameTickGroup");
-                duration = stats.measureCumulativeDuration("GameTicker.tick", group);
-                computerPlayerTurns = stats.addIncrementingVariableIfAbsent("ComputerPlayerTurns");
-            } catch (Throwable e) {
-                System.out.println(e);
-                e.printStackTrace();
-            }
-
-            if (counter == COMPUTER_PLAYER_FREQUENCY) {
-                runComputers = true;
-            }
-
-            for (GameResource game : games) {
+    GameTicker(GameTickerMode mode) {
+        this.mode = mode;
 
-                GameMap map = game.getMap();
+        gameLoops = new ConcurrentHashMap<>();
 
-                List<ComputerPlayer> computerPlayers = game.getComputerPlayers();
+        if (mode == GameTickerMode.VIRTUAL_THREADS) {
 
-                synchronized (map) {
+            /* Each game gets its own (virtual) thread that sleeps until its next tick */
+            scheduler = null;
+            gameLoopThreads = Executors.newCachedThreadPool(createVirtualThreadFactory());
+        } else {
 
-                    try {
-                        map.stepTime();
-                    } catch (Throwable e) {
-                        System.out.println("Exception during game loop: " + e);
-                        e.printStackTrace();
-                        System.out.println(e.getCause());
-                        System.out.println(map);
-                    }
-
-                    duration.after("Map.stepTime");
-
-                    if (runComputers) {
-                        for (ComputerPlayer computerPlayer : computerPlayers) {
-                            synchronized (map) {
-
-                                try {
-                                    computerPlayer.turn();
-
-                                    Stats computerPlayerStats = ((CompositePlayer)computerPlayer).getStats();
-
-                                    computerPlayerTurns.reportValue(1);
+            /* Size the pool after the machine so independent games can be ticked in parallel */
+            scheduler = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
+            gameLoopThreads = null;
+        }
 
-                                    Variable totalTurn = computerPlayerStats.getVariable("CompositePlayer.turn.total");
+        active = false;
+    }
 
-                                    if (totalTurn.isLatestValueHighest()) {
-                                        stats.printVariablesAsTable();
-                                        computerPlayerStats.printVariablesAsTable();
-                                    }
+    GameTickerMode getMode() {
+        return mode;
+    }
 
-                                } catch (Throwable e) {
-                                    System.out.println("Exception during computer player turn");
-                                    e.printStackTrace();
-                                }
-                            }
+    synchronized void deactivate() {
+        active = false;
 
-                            duration.after("ComputerPlayer.turn");
-                        }
-                    }
-                }
+        /* The games end with the ticker so let go of what is kept for them */
+        for (GameLoop gameLoop : gameLoops.values()) {
+            gameLoop.stop();
 
-                try {
-                    duration.report();
+            gameLoop.getGame().release();
+        }
 
-                    group.collectionPeriodDone();
+        gameLoops.clear();
 
-                    boolean printStats = false;
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
 
-                    Variable mapStepTime = stats.getVariable("GameTicker.tick.Map.stepTime");
-                    Variable computerPlayerTurn = stats.getVariable("GameTicker.tick.ComputerPlayer.turn");
-                    Variable fullTick = stats.getVariable("GameTicker.tick.total");
+        if (gameLoopThreads != null) {
+            gameLoopThreads.shutdownNow();
+        }
+    }
 
-                    if (mapStepTime.isLatestValueHighest()) {
-                        System.out.println("\nNew highest time for map.stepTime(): " + mapStepTime.getHighestValue() + " (ms)");
+    synchronized void activate() {
+        active = true;
 
-                        System.out.println("Upper threshold is: " + mapStepTime.getUpperThreshold());
+        /* Start the loops for any games that were added before the ticker was activated */
+        for (GameLoop gameLoop : gameLoops.values()) {
+            schedule(gameLoop);
+        }
+    }
 
-                        printStats = true;
+    private void schedule(GameLoop gameLoop) {
+        long delay = gameLoop.start();
 
-                    }
+        if (mode == GameTickerMode.VIRTUAL_THREADS) {
+            gameLoopThreads.execute(() -> runOnOwnThread(gameLoop, delay));
+        } else {
+            scheduleNextTicks(gameLoop, delay);
+        }
+    }
 
-                    if (runComputers && computerPlayerTurn != null && computerPlayerTurn.isLatestValueHighest()) {
-                        System.out.println("\nNew highest time for computer players: " + computerPlayerTurn.getHighestValue() + " (ms)");
+    private void scheduleNextTicks(GameLoop gameLoop, long delay) {
+        if (!active || gameLoop.isStopped()) {
+            return;
+        }
 
-                        System.out.println("Average: " + computerPlayerTurn.getAverage() + " (ms)");
+        /* Each game reschedules itself so the tick governor decides how late ticks are handled */
+        try {
+            scheduler.schedule(() -> scheduleNextTicks(gameLoop, gameLoop.runDueTicks()), delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            System.out.println("Not scheduling more ticks, the game ticker is shutting down");
+        }
+    }
 
+    private void runOnOwnThread(GameLoop gameLoop, long firstDelay) {
+        long delay = firstDelay;
 
+        try {
+            while (active && !gameLoop.isStopped() && !Thread.currentThread().isInterrupted()) {
+                if (delay > 0) {
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                }
 
-                        printStats = true;
-                    }
+                delay = gameLoop.runDueTicks();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-                    if (fullTick.isLatestValueHighest()) {
-                        System.out.println("\nNew highest time for full tick: " + fullTick.getHighestValue() + " (ms)");
+    private static ThreadFactory createVirtualThreadFactory() {
 
-                        System.out.println("Average: " + fullTick.getAverage() + " (ms)");
+        /* Virtual threads are looked up reflectively so the server still builds and runs on older JVMs */
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
 
-                        printStats = true;
-                    }
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "game-loop-", 0L);
 
-                    if (fullTick.isUpperThresholdExceeded()) {
-                        System.out.println("\nMap step time exceeded threshold");
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads are not available, falling back to platform threads for game loops");
 
-                        printStats = true;
-                    }
+            return runnable -> {
+                Thread thread = new Thread(runnable);
 
-                    if (printStats) {
-                        stats.printVariablesAsTable();
-                        map.getStats().printVariablesAsTable();
-                    }
-                } catch (Throwable t) {
-                    System.out.println(t);
-                    t.printStackTrace();
-                }
-            }
+                thread.setDaemon(true);
 
-            if (runComputers) {
-                counter = 0;
-            } else {
-                counter = counter + 1;
-            }
-        },
-        200,200, TimeUnit.MILLISECONDS);
+                return thread;
+            };
+        }
     }
 
-    public void startGame(GameResource gameResource) {
-        games.add(gameResource);
+    public synchronized void startGame(GameResource gameResource) {
+        GameLoop gameLoop = new GameLoop(gameResource);
+
+        gameLoops.put(gameResource, gameLoop);
 
         GameMap map = gameResource.getMap();
 
@@ -204,5 +170,19 @@ public class GameTicker {
                 headquarter.depositWorker(new Scout(headquarter.getPlayer(), map));
             }
         }
+
+        if (active) {
+            schedule(gameLoop);
+        }
+    }
+
+    public synchronized void stopGame(GameResource gameResource) {
+        GameLoop gameLoop = gameLoops.remove(gameResource);
+
+        if (gameLoop != null) {
+            gameLoop.stop();
+        }
+
+        gameResource.release();
     }
 }
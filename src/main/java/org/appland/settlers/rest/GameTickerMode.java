@@ -0,0 +1,20 @@
+package org.appland.settlers.rest;
+
+public enum GameTickerMode {
+    POOLED, VIRTUAL_THREADS;
+
+    /* Ignores case. Returns null if there is no mode with the name */
+    public static GameTickerMode fromProperty(String mode) {
+        if (mode == null) {
+            return null;
+        }
+
+        for (GameTickerMode tickerMode : values()) {
+            if (tickerMode.name().equalsIgnoreCase(mode.trim())) {
+                return tickerMode;
+            }
+        }
+
+        return null;
+    }
+}
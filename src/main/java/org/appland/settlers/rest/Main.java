@@ -1,14 +1,15 @@
 package org.appland.settlers.rest;
 
+import org.appland.settlers.rest.resource.MeteredPerMessageDeflateExtension;
 import org.appland.settlers.rest.resource.WebsocketMonitor;
+import org.appland.settlers.rest.resource.WebsocketSpectator;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.websocket.jsr356.server.ServerContainer;
 import org.eclipse.jetty.websocket.jsr356.server.deploy.WebSocketServerContainerInitializer;
 import org.jboss.resteasy.plugins.server.servlet.HttpServletDispatcher;
 
-import javax.websocket.server.ServerContainer;
-
 public class Main {
 
     private static final String APPLICATION_PATH = "/settlers/api/*";
@@ -34,9 +35,15 @@ public class Main {
         // Add javax.websocket support
         ServerContainer container = WebSocketServerContainerInitializer.configureContext(context);
 
+        // Compress websocket messages with the configured level and keep metrics for each game
+        MeteredPerMessageDeflateExtension.register(container);
+
         // Add echo endpoint to server container
         container.addEndpoint(WebsocketMonitor.class);
 
+        // Add the endpoint for spectators
+        container.addEndpoint(WebsocketSpectator.class);
+
         // Register the lifecycle listener
         context.addEventListener(new DeploymentListener());
 
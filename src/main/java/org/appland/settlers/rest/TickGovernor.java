@@ -0,0 +1,87 @@
+package org.appland.settlers.rest;
+
+import org.appland.settlers.rest.resource.TickPolicy;
+
+class TickGovernor {
+
+    static final int MAX_CATCH_UP_BURST = 5;
+
+    private long nextTick;
+    private long lag;
+    private long droppedTicks;
+
+    void start(long now, long period) {
+        nextTick = now + period;
+        lag = 0;
+        droppedTicks = 0;
+    }
+
+    long getNextTick() {
+        return nextTick;
+    }
+
+    long getLag() {
+        return lag;
+    }
+
+    long getDroppedTicks() {
+        return droppedTicks;
+    }
+
+    int ticksToRun(long now, long period, TickPolicy policy) {
+
+        /* A game without a period runs as fast as it can so it can never be late */
+        if (period == 0) {
+            lag = 0;
+            droppedTicks = 0;
+            nextTick = now;
+
+            return 1;
+        }
+
+        lag = Math.max(0, now - nextTick);
+
+        /* Number of whole periods that have passed since the tick that is due now */
+        long missedTicks = lag / period;
+
+        int ticks;
+
+        switch (policy) {
+            case SLOW_DOWN:
+
+                /* Run a single tick. Only a tick that is a whole period late restarts the schedule from now, i.e.
+                   lets the game time fall behind, so waking up a bit late doesn't add up */
+                ticks = 1;
+                droppedTicks = 0;
+
+                if (missedTicks > 0) {
+                    nextTick = now + period;
+                } else {
+                    nextTick = nextTick + period;
+                }
+
+                break;
+
+            case DROP_TICKS:
+
+                /* Run a single tick and skip the ticks that should already have happened */
+                ticks = 1;
+                droppedTicks = missedTicks;
+                nextTick = nextTick + (missedTicks + 1) * period;
+
+                break;
+
+            case CATCH_UP:
+            default:
+
+                /* Catch up with a bounded burst and drop whatever is still left after the burst */
+                long burst = Math.min(missedTicks, MAX_CATCH_UP_BURST);
+
+                ticks = 1 + (int) burst;
+                droppedTicks = missedTicks - burst;
+                nextTick = nextTick + (missedTicks + 1) * period;
+        }
+
+        return ticks;
+    }
+}
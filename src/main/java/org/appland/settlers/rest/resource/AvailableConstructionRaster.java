@@ -0,0 +1,231 @@
+package org.appland.settlers.rest.resource;
+
+import org.appland.settlers.model.GameChangesList;
+import org.appland.settlers.model.GameMap;
+import org.appland.settlers.model.Player;
+import org.appland.settlers.model.PlayerGameViewMonitor;
+import org.appland.settlers.model.Point;
+import org.appland.settlers.model.Size;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What each player can build at every point of the map, as one byte per point. It's filled in from the game once and
+ * then only the points the game reports as changed are looked up again, so the view doesn't need to ask the game
+ * for everything the player can build.
+ *
+ * A player's raster is only filled in when the player's view is read, and is let go again when nobody has read it
+ * for a while, so players that nobody looks at cost nothing on each tick.
+ *
+ * The points are laid out the same way as the discovered land, y * columns + x / 2.
+ */
+class AvailableConstructionRaster implements PlayerGameViewMonitor {
+
+    /* The value of the availableConstruction query parameter that asks for the raster as bytes */
+    static final String BYTES_FORMAT = "bytes";
+
+    static final int FLAG = 1;
+    static final int SMALL_HOUSE = 2;
+    static final int MEDIUM_HOUSE = 4;
+    static final int LARGE_HOUSE = 8;
+    static final int MINE = 16;
+
+    private static final Map<GameMap, AvailableConstructionRaster> rasters = new ConcurrentHashMap<>();
+
+    private static final long MAX_IDLE = TimeUnit.SECONDS.toNanos(60);
+
+    private final GameMap map;
+    private final int columns;
+    private final int rows;
+
+    /* Guarded by this */
+    private final Map<Player, PlayerRaster> playerRasters;
+
+    private AvailableConstructionRaster(GameMap map) {
+        this.map = map;
+
+        columns = map.getWidth() / 2 + 1;
+        rows = map.getHeight() + 1;
+
+        playerRasters = new HashMap<>();
+    }
+
+    static AvailableConstructionRaster getRaster(GameMap map) {
+        return rasters.computeIfAbsent(map, AvailableConstructionRaster::new);
+    }
+
+    static void removeRaster(GameMap map) {
+        rasters.remove(map);
+    }
+
+    /* Looks up what can be built at the point in the game */
+    static int availableAt(GameMap map, Player player, Point point) {
+        int available = 0;
+
+        if (map.isAvailableFlagPoint(player, point)) {
+            available |= FLAG;
+        }
+
+        available |= sizeToBit(map.isAvailableHousePoint(player, point));
+
+        if (map.isAvailableMinePoint(player, point)) {
+            available |= MINE;
+        }
+
+        return available;
+    }
+
+    int getColumns() {
+        return columns;
+    }
+
+    int getRows() {
+        return rows;
+    }
+
+    /* The changes for a time can be looked up here once the raster has been updated with them */
+    synchronized boolean isUpToDate(Player player, long time) {
+        PlayerRaster playerRaster = playerRasters.get(player);
+
+        if (playerRaster == null || playerRaster.time < time) {
+            return false;
+        }
+
+        playerRaster.lastReadAt = System.nanoTime();
+
+        return true;
+    }
+
+    synchronized int get(Player player, Point point) {
+        PlayerRaster playerRaster = playerRasters.get(player);
+        int index = indexOf(point);
+
+        if (playerRaster == null || index < 0) {
+            return 0;
+        }
+
+        return playerRaster.available[index];
+    }
+
+    /* Must be called, and the bytes used, while holding the map. The raster follows the player from now on */
+    synchronized byte[] getBytes(Player player) {
+        PlayerRaster playerRaster = playerRasters.get(player);
+
+        /* Holding the map means nothing changes between filling in the raster and following the changes */
+        if (playerRaster == null) {
+            playerRaster = fill(player);
+
+            GameChangesFeed.getFeed(map).addMonitor(player, this);
+        }
+
+        playerRaster.lastReadAt = System.nanoTime();
+
+        return playerRaster.available;
+    }
+
+    int indexOf(Point point) {
+        if (point.x < 0 || point.y < 0 || point.x / 2 >= columns || point.y >= rows) {
+            return -1;
+        }
+
+        return point.y * columns + point.x / 2;
+    }
+
+    Point pointAt(int index) {
+        int y = index / columns;
+
+        return new Point((index % columns) * 2 + (y & 1), y);
+    }
+
+    @Override
+    public synchronized void onViewChangesForPlayer(Player player, GameChangesList gameChangesList) {
+        PlayerRaster playerRaster = playerRasters.get(player);
+
+        if (playerRaster == null) {
+            return;
+        }
+
+        /* It's filled in again the next time it's read */
+        if (System.nanoTime() - playerRaster.lastReadAt > MAX_IDLE) {
+            playerRasters.remove(player);
+
+            GameChangesFeed.getFeed(map).removeMonitor(player, this);
+
+            return;
+        }
+
+        for (Point point : gameChangesList.getChangedAvailableConstruction()) {
+            int index = indexOf(point);
+
+            if (index >= 0) {
+                playerRaster.available[index] = (byte) availableAt(map, player, point);
+            }
+        }
+
+        playerRaster.time = Math.max(playerRaster.time, gameChangesList.getTime());
+    }
+
+    /* Must be called while holding the map and this */
+    private PlayerRaster fill(Player player) {
+        PlayerRaster playerRaster = new PlayerRaster(columns * rows, map.getCurrentTime());
+
+        for (Point point : map.getAvailableFlagPoints(player)) {
+            set(playerRaster, point, FLAG);
+        }
+
+        for (Map.Entry<Point, Size> site : map.getAvailableHousePoints(player).entrySet()) {
+            set(playerRaster, site.getKey(), sizeToBit(site.getValue()));
+        }
+
+        for (Point point : map.getAvailableMinePoints(player)) {
+            set(playerRaster, point, MINE);
+        }
+
+        playerRasters.put(player, playerRaster);
+
+        return playerRaster;
+    }
+
+    private void set(PlayerRaster playerRaster, Point point, int bit) {
+        int index = indexOf(point);
+
+        if (index >= 0) {
+            playerRaster.available[index] |= bit;
+        }
+    }
+
+    private static int sizeToBit(Size size) {
+        if (size == null) {
+            return 0;
+        }
+
+        switch (size) {
+            case SMALL:
+                return SMALL_HOUSE;
+            case MEDIUM:
+                return MEDIUM_HOUSE;
+            case LARGE:
+                return LARGE_HOUSE;
+            default:
+                return 0;
+        }
+    }
+
+    private static class PlayerRaster {
+        private final byte[] available;
+
+        /* The time of the latest changes the raster is updated with */
+        private long time;
+        private long lastReadAt;
+
+        private PlayerRaster(int points, long time) {
+            this.available = new byte[points];
+            this.time = time;
+
+            lastReadAt = System.nanoTime();
+        }
+    }
+}
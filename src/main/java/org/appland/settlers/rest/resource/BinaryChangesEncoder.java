@@ -0,0 +1,408 @@
+package org.appland.settlers.rest.resource;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encodes changes in the binary protocol for a websocket session. It carries the same content as the json protocol
+ * but numbers are varints, ids are sent as numbers, lists of points are packed as pairs of varints and names are
+ * sent as indexes into a string table.
+ *
+ * Message: version (byte), kind (byte). A changes message continues with the string table entries the session has
+ * not received yet (varint count, then varint length and utf-8 bytes for each), the time (varint) and the sections
+ * (varint count, then for each its name as a string element, the number of elements and the elements).
+ *
+ * Element: a tag byte followed by its value, see the TAG constants. Signed numbers are zigzag encoded. Only the
+ * values of id fields, i.e. "id" and names ending with "Id" or "Ids", and the elements of the sections that list
+ * removed objects are sent as ids. Other strings are sent as strings even if they look like numbers.
+ *
+ * The string table belongs to the game so the elements that are encoded once for all sessions of the game mean the
+ * same for all of them. It's bounded so a session that joins late gets at most the whole table before its first
+ * changes.
+ */
+class BinaryChangesEncoder {
+
+    static final byte VERSION = 1;
+
+    static final byte KIND_CHANGES = 0;
+    static final byte KIND_RESYNC_REQUIRED = 1;
+
+    static final byte TAG_NULL = 0;
+    static final byte TAG_FALSE = 1;
+    static final byte TAG_TRUE = 2;
+    static final byte TAG_INTEGER = 3;
+    static final byte TAG_DOUBLE = 4;
+    static final byte TAG_STRING = 5;
+    static final byte TAG_LITERAL = 6;
+    static final byte TAG_ID = 7;
+    static final byte TAG_ARRAY = 8;
+    static final byte TAG_OBJECT = 9;
+    static final byte TAG_POINT = 10;
+    static final byte TAG_POINTS = 11;
+
+    /* Sections whose elements are the ids of removed objects */
+    private static final Set<String> ID_SECTIONS = new HashSet<>(Arrays.asList(
+            "removedWorkers", "removedWildAnimals", "removedBuildings", "removedFlags", "removedRoads", "removedTrees",
+            "removedCrops", "harvestedCrops", "removedSigns"));
+
+    private final StringTable stringTable;
+
+    private int knownStrings;
+
+    BinaryChangesEncoder(StringTable stringTable) {
+        this.stringTable = stringTable;
+
+        knownStrings = 0;
+    }
+
+    static ByteBuffer resyncRequired() {
+        return ByteBuffer.wrap(new byte[] {VERSION, KIND_RESYNC_REQUIRED});
+    }
+
+    ByteBuffer encode(ChangesDelta delta) {
+        ByteWriter body = new ByteWriter(256);
+
+        body.writeVarint(delta.getTime());
+        body.writeVarint(delta.getSectionNames().size());
+
+        for (String sectionName : delta.getSectionNames()) {
+            Collection<Object> elements = delta.getElements(sectionName);
+            boolean ids = ID_SECTIONS.contains(sectionName);
+
+            writeString(body, sectionName, stringTable);
+            body.writeVarint(elements.size());
+
+            for (Object element : elements) {
+                writeValue(body, element, stringTable, ids);
+            }
+        }
+
+        ByteWriter message = new ByteWriter(body.size() + 64);
+
+        message.writeByte(VERSION);
+        message.writeByte(KIND_CHANGES);
+
+        knownStrings = stringTable.writeNewStrings(message, knownStrings);
+
+        message.writeBytes(body.getBytes(), 0, body.size());
+
+        return ByteBuffer.wrap(message.getBytes(), 0, message.size());
+    }
+
+    static void writeElement(ByteWriter writer, Object element, StringTable stringTable) {
+        writeValue(writer, element, stringTable, false);
+    }
+
+    /* The value is sent as an id, or a list of ids, if it's in a place where ids go */
+    private static void writeValue(ByteWriter writer, Object element, StringTable stringTable, boolean id) {
+        if (element == null) {
+            writer.writeByte(TAG_NULL);
+        } else if (element instanceof Boolean) {
+            writer.writeByte((Boolean) element ? TAG_TRUE : TAG_FALSE);
+        } else if (element instanceof Integer || element instanceof Long || element instanceof Short || element instanceof Byte) {
+            writer.writeByte(TAG_INTEGER);
+            writer.writeSignedVarint(((Number) element).longValue());
+        } else if (element instanceof Number) {
+            writer.writeByte(TAG_DOUBLE);
+            writer.writeLong(Double.doubleToLongBits(((Number) element).doubleValue()));
+        } else if (element instanceof String) {
+            if (id) {
+                writeId(writer, (String) element, stringTable);
+            } else {
+                writeString(writer, (String) element, stringTable);
+            }
+        } else if (element instanceof JSONObject) {
+            writeObject(writer, (JSONObject) element, stringTable);
+        } else if (element instanceof JSONArray) {
+            writeArray(writer, (JSONArray) element, stringTable, id);
+        } else if (element instanceof SharedElement) {
+            byte[] encoded = ((SharedElement) element).getBinary(stringTable);
+
+            writer.writeBytes(encoded, 0, encoded.length);
+        } else {
+            writeString(writer, element.toString(), stringTable);
+        }
+    }
+
+    private static void writeId(ByteWriter writer, String string, StringTable stringTable) {
+        long id = parseId(string);
+
+        /* Anything that isn't an id handed out by the IdManager is sent as it is */
+        if (id < 0) {
+            writeString(writer, string, stringTable);
+
+            return;
+        }
+
+        writer.writeByte(TAG_ID);
+        writer.writeVarint(id);
+    }
+
+    private static void writeString(ByteWriter writer, String string, StringTable stringTable) {
+        int index = stringTable.indexOf(string);
+
+        if (index >= 0) {
+            writer.writeByte(TAG_STRING);
+            writer.writeVarint(index);
+        } else {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+
+            writer.writeByte(TAG_LITERAL);
+            writer.writeVarint(bytes.length);
+            writer.writeBytes(bytes, 0, bytes.length);
+        }
+    }
+
+    private static void writeObject(ByteWriter writer, JSONObject jsonObject, StringTable stringTable) {
+        if (isPoint(jsonObject)) {
+            writer.writeByte(TAG_POINT);
+            writer.writeSignedVarint(((Number) jsonObject.get("x")).longValue());
+            writer.writeSignedVarint(((Number) jsonObject.get("y")).longValue());
+
+            return;
+        }
+
+        writer.writeByte(TAG_OBJECT);
+        writer.writeVarint(jsonObject.size());
+
+        for (Object entryObject : jsonObject.entrySet()) {
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) entryObject;
+            String name = entry.getKey().toString();
+
+            writeString(writer, name, stringTable);
+            writeValue(writer, entry.getValue(), stringTable, isIdField(name));
+        }
+    }
+
+    private static void writeArray(ByteWriter writer, JSONArray jsonArray, StringTable stringTable, boolean ids) {
+        boolean allPoints = !jsonArray.isEmpty();
+
+        for (Object element : jsonArray) {
+            if (!(element instanceof JSONObject) || !isPoint((JSONObject) element)) {
+                allPoints = false;
+
+                break;
+            }
+        }
+
+        if (allPoints) {
+            writer.writeByte(TAG_POINTS);
+            writer.writeVarint(jsonArray.size());
+
+            for (Object element : jsonArray) {
+                JSONObject point = (JSONObject) element;
+
+                writer.writeSignedVarint(((Number) point.get("x")).longValue());
+                writer.writeSignedVarint(((Number) point.get("y")).longValue());
+            }
+
+            return;
+        }
+
+        writer.writeByte(TAG_ARRAY);
+        writer.writeVarint(jsonArray.size());
+
+        for (Object element : jsonArray) {
+            writeValue(writer, element, stringTable, ids);
+        }
+    }
+
+    private static boolean isIdField(String name) {
+        return name.equals("id") || name.endsWith("Id") || name.endsWith("Ids");
+    }
+
+    private static boolean isPoint(JSONObject jsonObject) {
+        return jsonObject.size() == 2 && jsonObject.get("x") instanceof Number && jsonObject.get("y") instanceof Number;
+    }
+
+    /* Returns -1 unless the string is a number without leading zeros */
+    private static long parseId(String string) {
+        int length = string.length();
+
+        if (length == 0 || length > 18 || (length > 1 && string.charAt(0) == '0')) {
+            return -1;
+        }
+
+        long value = 0;
+
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+
+            value = value * 10 + (c - '0');
+        }
+
+        return value;
+    }
+
+    /**
+     * The strings that are sent as indexes for a game. Strings are only added, so an index means the same for every
+     * session of the game, until the table is full. After that new strings are sent as they are.
+     */
+    static class StringTable {
+
+        static final String MAX_SIZE_PROPERTY = "settlers.websocket.binary.maxStrings";
+
+        /* Only short strings go into the table, anything else is sent as it is */
+        private static final int MAX_STRING_LENGTH = 64;
+        private static final int MAX_SIZE = Integer.getInteger(MAX_SIZE_PROPERTY, 1024);
+
+        private final int maxSize;
+        private final Map<String, Integer> indexes;
+
+        /* Guarded by this */
+        private final List<byte[]> strings;
+
+        StringTable() {
+            this(MAX_SIZE);
+        }
+
+        StringTable(int maxSize) {
+            this.maxSize = maxSize;
+
+            indexes = new ConcurrentHashMap<>();
+            strings = new ArrayList<>();
+        }
+
+        synchronized int size() {
+            return strings.size();
+        }
+
+        /* Returns the index in the table, or -1 if the string is not kept in the table */
+        int indexOf(String string) {
+            Integer index = indexes.get(string);
+
+            if (index != null) {
+                return index;
+            }
+
+            if (string.length() > MAX_STRING_LENGTH) {
+                return -1;
+            }
+
+            synchronized (this) {
+                index = indexes.get(string);
+
+                if (index != null) {
+                    return index;
+                }
+
+                if (strings.size() >= maxSize) {
+                    return -1;
+                }
+
+                strings.add(string.getBytes(StandardCharsets.UTF_8));
+
+                index = strings.size() - 1;
+
+                indexes.put(string, index);
+
+                return index;
+            }
+        }
+
+        /* Writes the strings after the ones the session knows and returns how many it knows then */
+        synchronized int writeNewStrings(ByteWriter message, int knownStrings) {
+            int tableSize = strings.size();
+
+            message.writeVarint(tableSize - knownStrings);
+
+            for (int i = knownStrings; i < tableSize; i++) {
+                byte[] string = strings.get(i);
+
+                message.writeVarint(string.length);
+                message.writeBytes(string, 0, string.length);
+            }
+
+            return tableSize;
+        }
+    }
+
+    static class ByteWriter {
+        private byte[] bytes;
+        private int size;
+
+        ByteWriter(int capacity) {
+            bytes = new byte[capacity];
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] getBytes() {
+            return bytes;
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+
+            bytes[size] = (byte) value;
+
+            size++;
+        }
+
+        void writeBytes(byte[] source, int offset, int length) {
+            ensureCapacity(length);
+
+            System.arraycopy(source, offset, bytes, size, length);
+
+            size = size + length;
+        }
+
+        void writeVarint(long value) {
+            ensureCapacity(10);
+
+            while ((value & ~0x7FL) != 0) {
+                bytes[size] = (byte) ((value & 0x7F) | 0x80);
+
+                size++;
+
+                value = value >>> 7;
+            }
+
+            bytes[size] = (byte) value;
+
+            size++;
+        }
+
+        void writeSignedVarint(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeLong(long value) {
+            ensureCapacity(8);
+
+            for (int i = 7; i >= 0; i--) {
+                bytes[size] = (byte) (value >>> (i * 8));
+
+                size++;
+            }
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > bytes.length) {
+                byte[] grown = new byte[Math.max(bytes.length * 2, size + extra)];
+
+                System.arraycopy(bytes, 0, grown, 0, size);
+
+                bytes = grown;
+            }
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package org.appland.settlers.rest.resource;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The changes a client has not received yet. Consecutive change lists are merged so that only the latest state of
+ * each game object is sent, e.g. only the latest new target of a worker, and objects that are removed before the
+ * client hears about them are never sent at all.
+ *
+ * The sections are sent as a whole so the order between entries in different sections is lost. A delta therefore
+ * never has both an addition and a removal pending for the same object, only the latest of them is kept.
+ */
+class ChangesDelta {
+
+    /* Sections whose entries are cancelled by an entry with the same key in the removal section */
+    private static final Map<String, List<String>> SUPERSEDED_BY_REMOVAL = new HashMap<>();
+
+    /* Removal sections whose entries are cancelled by a later entry with the same key in one of the sections */
+    private static final Map<String, String> CANCELS_REMOVAL = new HashMap<>();
+
+    /* Sections whose entries update an entry in another section that the client hasn't received yet */
+    private static final Map<String, String> FOLDED_INTO = new HashMap<>();
+
+    static {
+        SUPERSEDED_BY_REMOVAL.put("removedWorkers", Arrays.asList("workersWithNewTargets", "workersWithStartedActions"));
+        SUPERSEDED_BY_REMOVAL.put("removedWildAnimals", Collections.singletonList("wildAnimalsWithNewTargets"));
+        SUPERSEDED_BY_REMOVAL.put("removedBuildings", Arrays.asList("newBuildings", "changedBuildings"));
+        SUPERSEDED_BY_REMOVAL.put("removedFlags", Arrays.asList("newFlags", "changedFlags"));
+        SUPERSEDED_BY_REMOVAL.put("removedRoads", Collections.singletonList("newRoads"));
+        SUPERSEDED_BY_REMOVAL.put("removedTrees", Collections.singletonList("newTrees"));
+        SUPERSEDED_BY_REMOVAL.put("removedCrops", Arrays.asList("newCrops", "harvestedCrops"));
+        SUPERSEDED_BY_REMOVAL.put("removedSigns", Collections.singletonList("newSigns"));
+        SUPERSEDED_BY_REMOVAL.put("removedStones", Collections.singletonList("newStones"));
+        SUPERSEDED_BY_REMOVAL.put("removedDecorations", Collections.singletonList("newDecorations"));
+        SUPERSEDED_BY_REMOVAL.put("removedDeadTrees", Collections.singletonList("discoveredTrees"));
+
+        for (Map.Entry<String, List<String>> removal : SUPERSEDED_BY_REMOVAL.entrySet()) {
+            for (String supersededSection : removal.getValue()) {
+                CANCELS_REMOVAL.put(supersededSection, removal.getKey());
+            }
+        }
+
+        FOLDED_INTO.put("changedBuildings", "newBuildings");
+        FOLDED_INTO.put("changedFlags", "newFlags");
+    }
+
+    private long time;
+    private final Map<String, Map<Object, Object>> sections;
+
+    ChangesDelta(long time) {
+        this.time = time;
+
+        sections = new LinkedHashMap<>();
+    }
+
+    /* Creates a delta from the json for a single change list */
+    static ChangesDelta fromJson(JSONObject jsonMonitoringEvents) {
+        Object jsonTime = jsonMonitoringEvents.get("time");
+
+        ChangesDelta delta = new ChangesDelta(jsonTime == null ? 0 : ((Number) jsonTime).longValue());
+
+        for (Object entryObject : jsonMonitoringEvents.entrySet()) {
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) entryObject;
+
+            if (!(entry.getValue() instanceof JSONArray)) {
+                continue;
+            }
+
+            for (Object element : (JSONArray) entry.getValue()) {
+                delta.add((String) entry.getKey(), element);
+            }
+        }
+
+        return delta;
+    }
+
+    long getTime() {
+        return time;
+    }
+
+    boolean isEmpty() {
+        return sections.isEmpty();
+    }
+
+    Set<String> getSectionNames() {
+        return sections.keySet();
+    }
+
+    Collection<Object> getElements(String sectionName) {
+        Map<Object, Object> section = sections.get(sectionName);
+
+        if (section == null) {
+            return Collections.emptyList();
+        }
+
+        return section.values();
+    }
+
+    int size() {
+        int size = 0;
+
+        for (Map<Object, Object> section : sections.values()) {
+            size = size + section.size();
+        }
+
+        return size;
+    }
+
+    /* Returns a delta that can be merged into without changing this one. The elements themselves are shared */
+    ChangesDelta copy() {
+        ChangesDelta copy = new ChangesDelta(time);
+
+        copy.merge(this);
+
+        return copy;
+    }
+
+    /* Returns a copy without the given sections */
+    ChangesDelta copyWithout(Collection<String> sectionNames) {
+        ChangesDelta copy = copy();
+
+        copy.sections.keySet().removeAll(sectionNames);
+
+        return copy;
+    }
+
+    /* Returns a copy without the changes to where things are going that happen outside of the viewport */
+    ChangesDelta copyInside(Viewport viewport) {
+        ChangesDelta copy = copy();
+
+        for (String sectionName : Viewport.POSITION_SECTIONS) {
+            Map<Object, Object> section = copy.sections.get(sectionName);
+
+            if (section == null) {
+                continue;
+            }
+
+            section.values().removeIf(element -> !viewport.containsElement(element));
+
+            if (section.isEmpty()) {
+                copy.sections.remove(sectionName);
+            }
+        }
+
+        return copy;
+    }
+
+    /* Adds a later delta on top of this one */
+    void merge(ChangesDelta later) {
+        time = Math.max(time, later.time);
+
+        for (Map.Entry<String, Map<Object, Object>> section : later.sections.entrySet()) {
+            for (Map.Entry<Object, Object> entry : section.getValue().entrySet()) {
+                add(section.getKey(), entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    void add(String sectionName, Object element) {
+        add(sectionName, keyOf(element), element);
+    }
+
+    private void add(String sectionName, Object key, Object element) {
+
+        /* Drop pending entries for objects that are now removed */
+        List<String> supersededSections = SUPERSEDED_BY_REMOVAL.get(sectionName);
+
+        if (supersededSections != null) {
+            for (String supersededSection : supersededSections) {
+                removeEntry(supersededSection, key);
+            }
+        }
+
+        /* An object that is back after being removed, e.g. a worker that leaves a building again, is not removed */
+        String cancelledRemoval = CANCELS_REMOVAL.get(sectionName);
+
+        if (cancelledRemoval != null) {
+            removeEntry(cancelledRemoval, key);
+        }
+
+        /* Keep an object that the client hasn't received yet as new, but with its latest state */
+        String foldedInto = FOLDED_INTO.get(sectionName);
+
+        if (foldedInto != null) {
+            Map<Object, Object> newEntries = sections.get(foldedInto);
+
+            if (newEntries != null && newEntries.containsKey(key)) {
+                newEntries.put(key, element);
+
+                return;
+            }
+        }
+
+        Map<Object, Object> section = sections.computeIfAbsent(sectionName, name -> new LinkedHashMap<>());
+
+        /* Remove first so the entry moves to the end and the order of the updates is kept */
+        section.remove(key);
+        section.put(key, element);
+    }
+
+    private void removeEntry(String sectionName, Object key) {
+        Map<Object, Object> section = sections.get(sectionName);
+
+        if (section == null) {
+            return;
+        }
+
+        section.remove(key);
+
+        if (section.isEmpty()) {
+            sections.remove(sectionName);
+        }
+    }
+
+    /* Elements are identified by their id, or by their position if they have no id. Other elements are never merged */
+    private static Object keyOf(Object element) {
+        if (element instanceof String) {
+            return element;
+        }
+
+        if (element instanceof SharedElement) {
+            return keyOf(((SharedElement) element).getJson());
+        }
+
+        if (element instanceof JSONObject) {
+            JSONObject jsonObject = (JSONObject) element;
+
+            Object id = jsonObject.get("id");
+
+            if (id != null) {
+                return id;
+            }
+
+            Object x = jsonObject.get("x");
+            Object y = jsonObject.get("y");
+
+            if (x != null && y != null) {
+                return x + "," + y;
+            }
+        }
+
+        return new Object();
+    }
+
+    String toJson() {
+        StringBuilder json = new StringBuilder(256);
+
+        json.append("{\"time\":").append(time);
+
+        for (Map.Entry<String, Map<Object, Object>> section : sections.entrySet()) {
+            json.append(",\"").append(section.getKey()).append("\":[");
+
+            appendElements(json, section.getValue().values());
+
+            json.append(']');
+        }
+
+        json.append('}');
+
+        return json.toString();
+    }
+
+    private static void appendElements(StringBuilder json, Collection<Object> elements) {
+        Iterator<Object> iterator = elements.iterator();
+
+        while (iterator.hasNext()) {
+            json.append(JSONValue.toJSONString(iterator.next()));
+
+            if (iterator.hasNext()) {
+                json.append(',');
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.appland.settlers.rest.resource;
+
+import org.appland.settlers.model.GameMap;
+import org.json.simple.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how well the websocket messages for a game compress and how much time is spent compressing them.
+ */
+class DeflateMetrics {
+
+    private static final Map<GameMap, DeflateMetrics> metricsForGames = new ConcurrentHashMap<>();
+
+    private final AtomicLong compressedMessages;
+    private final AtomicLong uncompressedMessages;
+    private final AtomicLong bytesBeforeCompression;
+    private final AtomicLong bytesAfterCompression;
+    private final AtomicLong uncompressedBytes;
+    private final AtomicLong deflateNanos;
+
+    private DeflateMetrics() {
+        compressedMessages = new AtomicLong();
+        uncompressedMessages = new AtomicLong();
+        bytesBeforeCompression = new AtomicLong();
+        bytesAfterCompression = new AtomicLong();
+        uncompressedBytes = new AtomicLong();
+        deflateNanos = new AtomicLong();
+    }
+
+    /* Returns null for a game that has gone away */
+    static DeflateMetrics getMetrics(GameMap map) {
+        return metricsForGames.computeIfAbsent(map, gameMap -> GameChangesFeed.isReleased(gameMap) ? null : new DeflateMetrics());
+    }
+
+    static void removeMetrics(GameMap map) {
+        metricsForGames.remove(map);
+    }
+
+    void reportCompressedMessage(int size) {
+        compressedMessages.incrementAndGet();
+        bytesBeforeCompression.addAndGet(size);
+    }
+
+    void reportUncompressedMessage(int size) {
+        uncompressedMessages.incrementAndGet();
+        uncompressedBytes.addAndGet(size);
+    }
+
+    void reportDeflate(int bytesWritten, long nanos) {
+        bytesAfterCompression.addAndGet(bytesWritten);
+        deflateNanos.addAndGet(nanos);
+    }
+
+    JSONObject toJson() {
+        JSONObject jsonMetrics = new JSONObject();
+
+        long messages = compressedMessages.get();
+        long before = bytesBeforeCompression.get();
+        long after = bytesAfterCompression.get();
+        long nanos = deflateNanos.get();
+
+        jsonMetrics.put("compressedMessages", messages);
+        jsonMetrics.put("uncompressedMessages", uncompressedMessages.get());
+        jsonMetrics.put("bytesBeforeCompression", before);
+        jsonMetrics.put("bytesAfterCompression", after);
+        jsonMetrics.put("uncompressedBytes", uncompressedBytes.get());
+
+        /* The ratio is the compressed size divided by the original size, lower is better */
+        jsonMetrics.put("compressionRatio", before == 0 ? 1.0 : (double) after / before);
+        jsonMetrics.put("compressionTimeMs", nanos / 1000000.0);
+        jsonMetrics.put("compressionTimePerMessageUs", messages == 0 ? 0.0 : nanos / 1000.0 / messages);
+
+        return jsonMetrics;
+    }
+}
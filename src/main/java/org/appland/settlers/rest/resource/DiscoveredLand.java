@@ -0,0 +1,205 @@
+package org.appland.settlers.rest.resource;
+
+import org.appland.settlers.model.GameChangesList;
+import org.appland.settlers.model.GameMap;
+import org.appland.settlers.model.Player;
+import org.appland.settlers.model.PlayerGameViewMonitor;
+import org.appland.settlers.model.Point;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The land each player has discovered as one bit per point on the map. Checking if a point is discovered doesn't
+ * need to hash the point, and the land can be sent as runs of undiscovered and discovered points instead of one
+ * json object per point.
+ *
+ * Only points where x + y is even exist on the map so each row holds every other x. The bit for a point is
+ * y * columns + x / 2, and x is 2 * column + 1 on odd rows.
+ */
+class DiscoveredLand implements PlayerGameViewMonitor {
+
+    /* The value of the discoveredLand query parameter that asks for the land as runs */
+    static final String RUNS_FORMAT = "runs";
+
+    static final String NEW_LAND_SECTION = "newDiscoveredLand";
+    static final String NEW_LAND_RUNS_SECTION = "newDiscoveredLandRuns";
+
+    private static final Map<GameMap, DiscoveredLand> discoveredLands = new ConcurrentHashMap<>();
+
+    private final int columns;
+    private final int rows;
+
+    /* Guarded by this */
+    private final Map<Player, PlayerLand> playerLands;
+
+    private DiscoveredLand(GameMap map) {
+        columns = columnsOf(map.getWidth());
+        rows = rowsOf(map.getHeight());
+
+        playerLands = new HashMap<>();
+    }
+
+    static DiscoveredLand getDiscoveredLand(GameMap map) {
+        return discoveredLands.computeIfAbsent(map, gameMap -> {
+            DiscoveredLand discoveredLand = new DiscoveredLand(gameMap);
+
+            GameChangesFeed.getFeed(gameMap).addMonitor(discoveredLand);
+
+            return discoveredLand;
+        });
+    }
+
+    static void removeDiscoveredLand(GameMap map) {
+        discoveredLands.remove(map);
+    }
+
+    /* Must be called, and the land used, while holding the map. Starts over from the player if changes were missed */
+    synchronized PlayerLand getLand(Player player) {
+        PlayerLand land = playerLands.computeIfAbsent(player, p -> new PlayerLand());
+
+        if (land.size != player.getDiscoveredLand().size()) {
+            land.bits.clear();
+            land.size = 0;
+
+            for (Point point : player.getDiscoveredLand()) {
+                land.add(point);
+            }
+        }
+
+        return land;
+    }
+
+    @Override
+    public synchronized void onViewChangesForPlayer(Player player, GameChangesList gameChangesList) {
+        PlayerLand land = playerLands.get(player);
+
+        /* The land is filled in from the player the first time it's asked for */
+        if (land == null) {
+            return;
+        }
+
+        for (Point point : gameChangesList.getNewDiscoveredLand()) {
+            land.add(point);
+        }
+    }
+
+    class PlayerLand {
+        private final BitSet bits;
+        private int size;
+
+        private PlayerLand() {
+            bits = new BitSet(columns * rows);
+        }
+
+        boolean contains(Point point) {
+            int bit = bitOf(point.x, point.y, columns, rows);
+
+            return bit >= 0 && bits.get(bit);
+        }
+
+        /*
+        {'columns': 129,
+         'rows': 257,
+         'runs': [400, 12, 117, 14, ...]   -- undiscovered and discovered points in turn, starting with undiscovered
+        }
+
+        The undiscovered points after the last discovered one are left out.
+         */
+        JSONObject toJson() {
+            return runsToJson(bits, columns, rows);
+        }
+
+        private void add(Point point) {
+            int bit = bitOf(point.x, point.y, columns, rows);
+
+            if (bit >= 0 && !bits.get(bit)) {
+                bits.set(bit);
+
+                size++;
+            }
+        }
+    }
+
+    /*
+    Returns a copy of the delta where the newly discovered points are sent as runs over the same bits as the whole
+    land. The points discovered in a tick are next to each other so there are far fewer runs than points.
+
+    {'newDiscoveredLandRuns': [{'columns': 129, 'rows': 257, 'runs': [400, 12, 117, 14, ...]}]}
+     */
+    static ChangesDelta withNewLandAsRuns(ChangesDelta delta, int mapWidth, int mapHeight) {
+        if (!delta.getSectionNames().contains(NEW_LAND_SECTION)) {
+            return delta;
+        }
+
+        int columns = columnsOf(mapWidth);
+        int rows = rowsOf(mapHeight);
+        BitSet bits = new BitSet(columns * rows);
+
+        for (Object element : delta.getElements(NEW_LAND_SECTION)) {
+            JSONObject jsonPoint = (JSONObject) element;
+
+            int bit = bitOf(((Number) jsonPoint.get("x")).intValue(), ((Number) jsonPoint.get("y")).intValue(), columns, rows);
+
+            if (bit >= 0) {
+                bits.set(bit);
+            }
+        }
+
+        ChangesDelta deltaWithRuns = delta.copyWithout(Collections.singleton(NEW_LAND_SECTION));
+
+        deltaWithRuns.add(NEW_LAND_RUNS_SECTION, runsToJson(bits, columns, rows));
+
+        return deltaWithRuns;
+    }
+
+    /* See PlayerLand.toJson for the format */
+    private static JSONObject runsToJson(BitSet bits, int columns, int rows) {
+        JSONObject jsonLand = new JSONObject();
+        JSONArray jsonRuns = new JSONArray();
+
+        jsonLand.put("columns", columns);
+        jsonLand.put("rows", rows);
+        jsonLand.put("runs", jsonRuns);
+
+        int position = 0;
+
+        while (true) {
+            int discoveredStart = bits.nextSetBit(position);
+
+            if (discoveredStart < 0) {
+                break;
+            }
+
+            int discoveredEnd = bits.nextClearBit(discoveredStart);
+
+            jsonRuns.add(discoveredStart - position);
+            jsonRuns.add(discoveredEnd - discoveredStart);
+
+            position = discoveredEnd;
+        }
+
+        return jsonLand;
+    }
+
+    private static int columnsOf(int mapWidth) {
+        return mapWidth / 2 + 1;
+    }
+
+    private static int rowsOf(int mapHeight) {
+        return mapHeight + 1;
+    }
+
+    private static int bitOf(int x, int y, int columns, int rows) {
+        if (x < 0 || y < 0 || x / 2 >= columns || y >= rows) {
+            return -1;
+        }
+
+        return y * columns + x / 2;
+    }
+}
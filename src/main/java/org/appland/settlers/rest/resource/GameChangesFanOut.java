@@ -0,0 +1,349 @@
+package org.appland.settlers.rest.resource;
+
+import org.appland.settlers.model.Courier;
+import org.appland.settlers.model.GameChangesList;
+import org.appland.settlers.model.GameMap;
+import org.appland.settlers.model.Player;
+import org.appland.settlers.model.PlayerGameViewMonitor;
+import org.appland.settlers.model.Point;
+import org.appland.settlers.model.WildAnimal;
+import org.appland.settlers.model.Worker;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes the changes of a game once and hands them to every websocket session that follows the game. The changes
+ * for a player are encoded once for all of the player's sessions, and the elements that are the same for all
+ * players are encoded once per tick for the whole game. The sessions are kept by the session registry, which has
+ * the fan-out follow only the players that have sessions, or every player while there are spectators.
+ *
+ * Spectators get the changes of all players merged into one delta per tick, without the parts that only concern a
+ * single player. The delta is built from the players' own deltas and shared by all spectators. A tick is sent when
+ * every player's changes are in, when the next tick starts, or after a short delay if the game goes quiet.
+ *
+ * Sessions that only show part of the map filter the shared changes to their viewport. When the viewport moves they
+ * get where the workers and wild animals in it are going, since the changes for them may have been left out before.
+ */
+class GameChangesFanOut implements PlayerGameViewMonitor {
+
+    static final String SPECTATOR_FLUSH_DELAY_PROPERTY = "settlers.websocket.spectatorFlushDelay";
+
+    private static final long SPECTATOR_FLUSH_DELAY = Long.getLong(SPECTATOR_FLUSH_DELAY_PROPERTY, 100);
+
+    /* The sections Utils only adds to the changes for a player */
+    private static final Set<String> PLAYER_SECTIONS = new HashSet<>(Arrays.asList("changedAvailableConstruction", "newMessages"));
+
+    private static final Map<GameMap, GameChangesFanOut> fanOuts = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService spectatorFlusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "spectator-flusher");
+
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    private final GameMap map;
+    private final GameChangesFeed feed;
+    private final Utils utils;
+    private final SessionRegistry sessionRegistry;
+    private final SharedElements sharedElements;
+    private final long spectatorFlushDelay;
+
+    /* Guarded by this */
+    private ChangesDelta spectatorDelta;
+    private final Set<Player> playersInSpectatorDelta;
+
+    private GameChangesFanOut(GameMap map) {
+        this(map, SPECTATOR_FLUSH_DELAY);
+    }
+
+    GameChangesFanOut(GameMap map, long spectatorFlushDelay) {
+        this.map = map;
+        this.spectatorFlushDelay = spectatorFlushDelay;
+
+        feed = GameChangesFeed.getFeed(map);
+
+        utils = new Utils(IdManager.idManager);
+        sessionRegistry = SessionRegistry.sessionRegistry;
+        sharedElements = new SharedElements();
+
+        spectatorDelta = null;
+        playersInSpectatorDelta = new HashSet<>();
+    }
+
+    /* Shared by every session of the game that uses the binary protocol */
+    BinaryChangesEncoder.StringTable getStringTable() {
+        return sharedElements.getStringTable();
+    }
+
+    static GameChangesFanOut getFanOut(GameMap map) {
+        GameChangesFanOut fanOut = fanOuts.computeIfAbsent(map, gameMap -> GameChangesFeed.isReleased(gameMap) ? null : new GameChangesFanOut(gameMap));
+
+        /* The fan-out of a game that is gone is not kept and never follows any player */
+        if (fanOut == null) {
+            return new GameChangesFanOut(map);
+        }
+
+        return fanOut;
+    }
+
+    static void removeFanOut(GameMap map) {
+        fanOuts.remove(map);
+    }
+
+    /* Called by the session registry while it holds the sessions of the game */
+    void follow(Player player) {
+        feed.addMonitor(player, this);
+    }
+
+    void unfollow(Player player) {
+        feed.removeMonitor(player, this);
+    }
+
+    /* The viewport is null when the session wants all changes again */
+    void moveViewport(Player player, SessionOutbox outbox, Viewport viewport) {
+        List<WorkerCopy> workers = new ArrayList<>();
+        List<WildAnimalCopy> wildAnimals = new ArrayList<>();
+        long time;
+
+        /* Only copy what the snapshot needs while holding the map. The outbox holds back the changes from the next
+           tick on until the snapshot is added */
+        synchronized (map) {
+            DiscoveredLand.PlayerLand discoveredLand = DiscoveredLand.getDiscoveredLand(map).getLand(player);
+
+            time = map.getCurrentTime();
+
+            for (Worker worker : map.getWorkers()) {
+                if (worker instanceof WildAnimal || worker.isInsideBuilding()) {
+                    continue;
+                }
+
+                if (isInside(worker, discoveredLand, viewport)) {
+                    workers.add(new WorkerCopy(worker, utils));
+                }
+            }
+
+            for (WildAnimal wildAnimal : map.getWildAnimals()) {
+                if (isInside(wildAnimal, discoveredLand, viewport)) {
+                    wildAnimals.add(new WildAnimalCopy(wildAnimal));
+                }
+            }
+
+            outbox.setViewport(viewport);
+        }
+
+        ChangesDelta snapshot = new ChangesDelta(time);
+
+        try {
+            for (WorkerCopy worker : workers) {
+                snapshot.add("workersWithNewTargets", worker.toJson(utils));
+            }
+
+            for (WildAnimalCopy wildAnimal : wildAnimals) {
+                snapshot.add("wildAnimalsWithNewTargets", wildAnimal.toJson(utils));
+            }
+        } finally {
+            outbox.addSnapshot(snapshot);
+        }
+    }
+
+    private static boolean isInside(Worker worker, DiscoveredLand.PlayerLand discoveredLand, Viewport viewport) {
+        return discoveredLand.contains(worker.getPosition()) && (viewport == null || viewport.contains(worker.getPosition()));
+    }
+
+    @Override
+    public void onViewChangesForPlayer(Player player, GameChangesList gameChangesList) {
+        Set<SessionOutbox> playerOutboxes = sessionRegistry.getOutboxes(map, player);
+        boolean spectated = !sessionRegistry.getSpectators(map).isEmpty();
+
+        if (playerOutboxes.isEmpty() && !spectated) {
+            return;
+        }
+
+        /* Encoded once for the player's sessions and the spectators. The parts only for the player are left out when
+           only spectators follow it */
+        Player forPlayer = playerOutboxes.isEmpty() ? null : player;
+        ChangesDelta delta = ChangesDelta.fromJson(utils.gameMonitoringEventsToJson(gameChangesList, forPlayer, sharedElements));
+
+        for (SessionOutbox outbox : playerOutboxes) {
+            outbox.offer(delta);
+        }
+
+        /* The player's delta is shared with its sessions so the spectators get a copy to merge into */
+        if (spectated) {
+            collectForSpectators(player, delta.copyWithout(PLAYER_SECTIONS));
+        }
+    }
+
+    /* The delta for a tick is sent when all players' changes are in, or when the changes for the next tick start */
+    void collectForSpectators(Player player, ChangesDelta delta) {
+        ChangesDelta previousTick = null;
+        ChangesDelta completedTick = null;
+
+        synchronized (this) {
+            if (spectatorDelta != null && spectatorDelta.getTime() != delta.getTime()) {
+                previousTick = spectatorDelta;
+
+                spectatorDelta = null;
+                playersInSpectatorDelta.clear();
+            }
+
+            if (spectatorDelta == null) {
+                spectatorDelta = delta;
+
+                /* Players without changes never report, and the game may go quiet, so don't wait for them forever */
+                long time = delta.getTime();
+
+                spectatorFlusher.schedule(() -> flushSpectators(time), spectatorFlushDelay, TimeUnit.MILLISECONDS);
+            } else {
+                spectatorDelta.merge(delta);
+            }
+
+            playersInSpectatorDelta.add(player);
+
+            if (playersInSpectatorDelta.size() >= map.getPlayers().size()) {
+                completedTick = spectatorDelta;
+
+                spectatorDelta = null;
+                playersInSpectatorDelta.clear();
+            }
+        }
+
+        if (previousTick != null) {
+            offerToSpectators(previousTick);
+        }
+
+        if (completedTick != null) {
+            offerToSpectators(completedTick);
+        }
+    }
+
+    private void flushSpectators(long time) {
+        ChangesDelta unfinishedTick = null;
+
+        synchronized (this) {
+            if (spectatorDelta != null && spectatorDelta.getTime() == time) {
+                unfinishedTick = spectatorDelta;
+
+                spectatorDelta = null;
+                playersInSpectatorDelta.clear();
+            }
+        }
+
+        if (unfinishedTick != null) {
+            offerToSpectators(unfinishedTick);
+        }
+    }
+
+    private void offerToSpectators(ChangesDelta delta) {
+        for (SessionOutbox spectator : sessionRegistry.getSpectators(map)) {
+            spectator.offer(delta);
+        }
+    }
+
+    /* What Utils.workerWithNewTargetToJson sends for a worker, copied while holding the map */
+    private static class WorkerCopy {
+        private final Worker worker;
+        private final List<Point> plannedPath;
+        private final Point position;
+        private final String type;
+        private final String direction;
+        private final String bodyType;
+        private final String cargo;
+
+        private WorkerCopy(Worker worker, Utils utils) {
+            this.worker = worker;
+
+            plannedPath = new ArrayList<>(worker.getPlannedPath());
+            position = worker.getPosition();
+            type = utils.workerTypeToJson(worker);
+            direction = worker.getDirection().name().toUpperCase();
+            bodyType = worker instanceof Courier ? ((Courier) worker).getBodyType().name().toUpperCase() : null;
+            cargo = worker.getCargo() == null ? null : worker.getCargo().getMaterial().getSimpleName().toUpperCase();
+        }
+
+        private JSONObject toJson(Utils utils) {
+            JSONObject jsonWorkerWithNewTarget = new JSONObject();
+
+            jsonWorkerWithNewTarget.put("id", IdManager.idManager.getId(worker));
+            jsonWorkerWithNewTarget.put("path", utils.pointsToJson(plannedPath));
+
+            jsonWorkerWithNewTarget.put("x", position.x);
+            jsonWorkerWithNewTarget.put("y", position.y);
+
+            jsonWorkerWithNewTarget.put("type", type);
+
+            jsonWorkerWithNewTarget.put("direction", direction);
+
+            if (bodyType != null) {
+                jsonWorkerWithNewTarget.put("bodyType", bodyType);
+            }
+
+            if (cargo != null) {
+                jsonWorkerWithNewTarget.put("cargo", cargo);
+            }
+
+            return jsonWorkerWithNewTarget;
+        }
+    }
+
+    /* What Utils.wildAnimalToJson sends for a wild animal, copied while holding the map */
+    private static class WildAnimalCopy {
+        private final WildAnimal wildAnimal;
+        private final Point position;
+        private final String type;
+        private final String direction;
+        private final List<Point> plannedPath;
+        private final boolean exactlyAtPoint;
+        private final Point lastPoint;
+        private final Point nextPoint;
+        private final int percentageTraveled;
+
+        private WildAnimalCopy(WildAnimal wildAnimal) {
+            this.wildAnimal = wildAnimal;
+
+            position = wildAnimal.getPosition();
+            type = wildAnimal.getType().name();
+            direction = wildAnimal.getDirection().name().toUpperCase();
+            plannedPath = wildAnimal.getPlannedPath() == null ? null : new ArrayList<>(wildAnimal.getPlannedPath());
+            exactlyAtPoint = wildAnimal.isExactlyAtPoint();
+            lastPoint = wildAnimal.getLastPoint();
+            nextPoint = wildAnimal.getNextPoint();
+            percentageTraveled = wildAnimal.getPercentageOfDistanceTraveled();
+        }
+
+        private JSONObject toJson(Utils utils) {
+            JSONObject jsonWildAnimal = utils.pointToJson(position);
+
+            jsonWildAnimal.put("type", type);
+            jsonWildAnimal.put("id", IdManager.idManager.getId(wildAnimal));
+            jsonWildAnimal.put("betweenPoints", !exactlyAtPoint);
+            jsonWildAnimal.put("direction", direction);
+
+            if (plannedPath != null && plannedPath.size() > 0) {
+                jsonWildAnimal.put("path", utils.pointsToJson(plannedPath));
+            }
+
+            if (!exactlyAtPoint) {
+                jsonWildAnimal.put("previous", utils.pointToJson(lastPoint));
+                jsonWildAnimal.put("next", utils.pointToJson(nextPoint));
+                jsonWildAnimal.put("percentageTraveled", percentageTraveled);
+            } else {
+                jsonWildAnimal.put("percentageTraveled", 0);
+            }
+
+            return jsonWildAnimal;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.appland.settlers.rest.resource;
+
+import org.appland.settlers.model.GameChangesList;
+import org.appland.settlers.model.GameMap;
+import org.appland.settlers.model.Player;
+import org.appland.settlers.model.PlayerGameViewMonitor;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Passes the changes of the players in a game on to any number of monitors. Players can't unsubscribe a monitor so
+ * everything that comes and goes during a game registers here instead.
+ *
+ * Monitors either follow every player, like the caches for the whole game, or only the players someone consumes the
+ * changes of, like the websocket sessions and the history. A player is only subscribed to once a monitor follows
+ * it, and its changes are not passed on anymore once the last monitor for it is gone.
+ */
+class GameChangesFeed implements PlayerGameViewMonitor {
+
+    private static final Map<GameMap, GameChangesFeed> feeds = new ConcurrentHashMap<>();
+
+    /* A feed is not created again for a game that has gone away, e.g. by a request that was running when it went */
+    private static final Set<GameMap> releasedGames = Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<>()));
+
+    private final GameMap map;
+    private final boolean released;
+    private final List<PlayerGameViewMonitor> monitors;
+    private final Map<Player, Set<PlayerGameViewMonitor>> playerMonitors;
+
+    /* Guarded by the map */
+    private final Set<Player> subscribedPlayers;
+
+    private GameChangesFeed(GameMap map, boolean released) {
+        this.map = map;
+        this.released = released;
+
+        monitors = new CopyOnWriteArrayList<>();
+        playerMonitors = new ConcurrentHashMap<>();
+        subscribedPlayers = ConcurrentHashMap.newKeySet();
+    }
+
+    static GameChangesFeed getFeed(GameMap map) {
+        GameChangesFeed feed = feeds.computeIfAbsent(map, gameMap -> releasedGames.contains(gameMap) ? null : new GameChangesFeed(gameMap, false));
+
+        /* The feed of a game that is gone is never subscribed to any player so it gets no changes */
+        if (feed == null) {
+            return new GameChangesFeed(map, true);
+        }
+
+        return feed;
+    }
+
+    /* Nothing should be kept for a game that has gone away, since nothing would let go of it again */
+    static boolean isReleased(GameMap map) {
+        return releasedGames.contains(map);
+    }
+
+    static void removeFeed(GameMap map) {
+        releasedGames.add(map);
+
+        GameChangesFeed feed = feeds.remove(map);
+
+        if (feed != null) {
+            feed.monitors.clear();
+            feed.playerMonitors.clear();
+        }
+    }
+
+    /* Follows every player in the game */
+    void addMonitor(PlayerGameViewMonitor monitor) {
+        monitors.add(monitor);
+
+        synchronized (map) {
+            for (Player player : map.getPlayers()) {
+                subscribe(player);
+            }
+        }
+    }
+
+    void removeMonitor(PlayerGameViewMonitor monitor) {
+        monitors.remove(monitor);
+    }
+
+    /* Follows one player. Adding the same monitor for the player again does nothing */
+    void addMonitor(Player player, PlayerGameViewMonitor monitor) {
+        playerMonitors.compute(player, (p, monitorsForPlayer) -> {
+            if (monitorsForPlayer == null) {
+                monitorsForPlayer = new CopyOnWriteArraySet<>();
+            }
+
+            monitorsForPlayer.add(monitor);
+
+            return monitorsForPlayer;
+        });
+
+        synchronized (map) {
+            subscribe(player);
+        }
+    }
+
+    void removeMonitor(Player player, PlayerGameViewMonitor monitor) {
+        playerMonitors.computeIfPresent(player, (p, monitorsForPlayer) -> {
+            monitorsForPlayer.remove(monitor);
+
+            return monitorsForPlayer.isEmpty() ? null : monitorsForPlayer;
+        });
+    }
+
+    /* Must be called while holding the map */
+    private void subscribe(Player player) {
+        if (!released && subscribedPlayers.add(player)) {
+            player.monitorGameView(this);
+        }
+    }
+
+    @Override
+    public void onViewChangesForPlayer(Player player, GameChangesList gameChangesList) {
+        for (PlayerGameViewMonitor monitor : monitors) {
+            passOn(monitor, player, gameChangesList);
+        }
+
+        Set<PlayerGameViewMonitor> monitorsForPlayer = playerMonitors.get(player);
+
+        if (monitorsForPlayer == null) {
+            return;
+        }
+
+        for (PlayerGameViewMonitor monitor : monitorsForPlayer) {
+            passOn(monitor, player, gameChangesList);
+        }
+    }
+
+    private static void passOn(PlayerGameViewMonitor monitor, Player player, GameChangesList gameChangesList) {
+        try {
+            monitor.onViewChangesForPlayer(player, gameChangesList);
+        } catch (Throwable t) {
+            System.out.println("Exception while passing on changes: " + t);
+            t.printStackTrace();
+        }
+    }
+}
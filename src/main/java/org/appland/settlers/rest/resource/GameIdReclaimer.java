@@ -0,0 +1,113 @@
+package org.appland.settlers.rest.resource;
+
+import org.appland.settlers.model.GameChangesList;
+import org.appland.settlers.model.GameMap;
+import org.appland.settlers.model.Player;
+import org.appland.settlers.model.PlayerGameViewMonitor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gives back the ids of the objects a game removes so the IdManager doesn't keep them alive. The ids stay valid for
+ * a while after the removal since the removal itself is sent to the clients using the ids, and clients can still
+ * refer to them until they have caught up.
+ */
+class GameIdReclaimer implements PlayerGameViewMonitor {
+
+    private static final long RECLAIM_DELAY = TimeUnit.SECONDS.toNanos(30);
+
+    private static final Map<GameMap, GameIdReclaimer> reclaimers = new ConcurrentHashMap<>();
+
+    private final IdManager idManager;
+    private final Deque<PendingRemovals> pendingRemovals;
+
+    private GameIdReclaimer(IdManager idManager) {
+        this.idManager = idManager;
+
+        pendingRemovals = new ArrayDeque<>();
+    }
+
+    static void startReclaiming(GameMap map, IdManager idManager) {
+        GameIdReclaimer reclaimer = new GameIdReclaimer(idManager);
+
+        if (reclaimers.putIfAbsent(map, reclaimer) == null) {
+            GameChangesFeed.getFeed(map).addMonitor(reclaimer);
+        }
+    }
+
+    /* Reclaims the ids of everything in the game, including the game itself */
+    static void reclaimGame(GameMap map, IdManager idManager) {
+        GameIdReclaimer reclaimer = reclaimers.remove(map);
+
+        if (reclaimer != null) {
+            synchronized (reclaimer) {
+                for (PendingRemovals removals : reclaimer.pendingRemovals) {
+                    idManager.removeAll(removals.gameObjects);
+                }
+
+                reclaimer.pendingRemovals.clear();
+            }
+        }
+
+        List<Object> gameObjects = new ArrayList<>();
+
+        synchronized (map) {
+            gameObjects.addAll(map.getBuildings());
+            gameObjects.addAll(map.getFlags());
+            gameObjects.addAll(map.getRoads());
+            gameObjects.addAll(map.getWorkers());
+            gameObjects.addAll(map.getWildAnimals());
+            gameObjects.addAll(map.getTrees());
+            gameObjects.addAll(map.getStones());
+            gameObjects.addAll(map.getCrops());
+            gameObjects.addAll(map.getSigns());
+            gameObjects.addAll(map.getPlayers());
+        }
+
+        gameObjects.add(map);
+
+        idManager.removeAll(gameObjects);
+    }
+
+    @Override
+    public void onViewChangesForPlayer(Player player, GameChangesList gameChangesList) {
+        List<Object> removed = new ArrayList<>();
+
+        removed.addAll(gameChangesList.getRemovedWorkers());
+        removed.addAll(gameChangesList.getRemovedBuildings());
+        removed.addAll(gameChangesList.getRemovedFlags());
+        removed.addAll(gameChangesList.getRemovedRoads());
+        removed.addAll(gameChangesList.getRemovedTrees());
+        removed.addAll(gameChangesList.getRemovedStones());
+        removed.addAll(gameChangesList.getRemovedCrops());
+        removed.addAll(gameChangesList.getRemovedSigns());
+
+        long now = System.nanoTime();
+
+        synchronized (this) {
+            if (!removed.isEmpty()) {
+                pendingRemovals.addLast(new PendingRemovals(now, removed));
+            }
+
+            while (!pendingRemovals.isEmpty() && now - pendingRemovals.peekFirst().removedAt > RECLAIM_DELAY) {
+                idManager.removeAll(pendingRemovals.pollFirst().gameObjects);
+            }
+        }
+    }
+
+    private static class PendingRemovals {
+        private final long removedAt;
+        private final List<Object> gameObjects;
+
+        private PendingRemovals(long removedAt, List<Object> gameObjects) {
+            this.removedAt = removedAt;
+            this.gameObjects = gameObjects;
+        }
+    }
+}
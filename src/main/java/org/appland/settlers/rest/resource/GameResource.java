@@ -18,6 +18,8 @@ public class GameResource {
     private MapFile mapFile;
     private String name;
     private ResourceLevel resourceLevel;
+    private volatile TickPolicy tickPolicy;
+    private volatile GameSpeed speed;
     private GameMap map;
     private final Utils utils;
     private final List<ComputerPlayer> computerPlayers;
@@ -26,6 +28,8 @@ public class GameResource {
         players = new ArrayList<>();
 
         resourceLevel = MEDIUM;
+        tickPolicy = TickPolicy.CATCH_UP;
+        speed = GameSpeed.NORMAL;
 
         this.utils = utils;
         computerPlayers = new ArrayList<>();
@@ -74,10 +78,50 @@ public class GameResource {
         this.resourceLevel = resourceLevel;
     }
 
+    public TickPolicy getTickPolicy() {
+        return tickPolicy;
+    }
+
+    void setTickPolicy(TickPolicy tickPolicy) {
+        this.tickPolicy = tickPolicy;
+    }
+
+    public GameSpeed getSpeed() {
+        return speed;
+    }
+
+    void setSpeed(GameSpeed speed) {
+        this.speed = speed;
+    }
+
     public void removePlayer(Player player) {
         this.players.remove(player);
     }
 
+    /* Lets go of everything kept for the game once it has stopped, however it ended. Can be called more than once */
+    public void release() {
+        if (map != null) {
+            releaseGame(map);
+        }
+    }
+
+    static void releaseGame(GameMap map) {
+
+        /* Goes first so nothing that is kept per game is created again for the game while the rest is let go of */
+        GameChangesFeed.removeFeed(map);
+
+        TerrainCache.removeTerrainCache(map);
+        PlayerChangesHistory.removeHistory(map);
+        SpatialIndex.removeIndex(map);
+        DiscoveredLand.removeDiscoveredLand(map);
+        AvailableConstructionRaster.removeRaster(map);
+        SessionRegistry.sessionRegistry.unregisterGame(map);
+        GameChangesFanOut.removeFanOut(map);
+        DeflateMetrics.removeMetrics(map);
+
+        GameIdReclaimer.reclaimGame(map, IdManager.idManager);
+    }
+
     public GameMap getMap() {
         return this.map;
     }
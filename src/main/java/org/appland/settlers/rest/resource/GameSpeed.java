@@ -0,0 +1,49 @@
+package org.appland.settlers.rest.resource;
+
+public enum GameSpeed {
+    HALF("0.5x", 0.5),
+    NORMAL("1x", 1),
+    DOUBLE("2x", 2),
+    QUADRUPLE("4x", 4),
+    MAX("max", 0);
+
+    private final String label;
+    private final double factor;
+
+    GameSpeed(String label, double factor) {
+        this.label = label;
+        this.factor = factor;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public boolean isUnlimited() {
+        return factor == 0;
+    }
+
+    /* The speed of MAX has no period, the game ticks as fast as it can */
+    public long scalePeriod(long normalPeriod) {
+        if (isUnlimited()) {
+            return 0;
+        }
+
+        return (long) (normalPeriod / factor);
+    }
+
+    /* Takes either the name or the label. Returns null if there is no such speed */
+    public static GameSpeed fromJson(Object speed) {
+        if (!(speed instanceof String)) {
+            return null;
+        }
+
+        for (GameSpeed gameSpeed : values()) {
+            if (gameSpeed.name().equalsIgnoreCase((String) speed) || gameSpeed.label.equalsIgnoreCase((String) speed)) {
+                return gameSpeed;
+            }
+        }
+
+        return null;
+    }
+}
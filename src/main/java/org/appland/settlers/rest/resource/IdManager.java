@@ -1,56 +1,519 @@
 package org.appland.settlers.rest.resource;
 
-import java.util.HashMap;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * Hands out ids for the objects the REST api exposes. Lookups in both directions never lock and never allocate,
+ * only handing out a new id or removing one takes the lock.
+ *
+ * With weak references the objects are only tracked as long as something else keeps them alive and the ids of
+ * collected objects are purged in the background. This covers the objects that leave the game without the REST
+ * layer being told.
+ */
 public class IdManager {
 
-    private final HashMap<Object, Integer> objectToId;
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    static final String WEAK_REFERENCES_PROPERTY = "settlers.idManager.weakReferences";
+    private static final int PURGE_REPORT_INTERVAL = 10000;
+
+    final static IdManager idManager = new IdManager(Boolean.getBoolean(WEAK_REFERENCES_PROPERTY));
+
+    private final Object lock;
+    private final boolean weakReferences;
+    private final ReferenceQueue<Object> referenceQueue;
+
+    /* Written only while holding the lock, read without it */
+    private volatile Chunk[] chunks;
+    private volatile IdentityTable objectToId;
     private int ids;
-    private final HashMap<Integer, Object> idToObject;
-    final static IdManager idManager = new IdManager();
+    private int liveIds;
+    private long purgedIds;
 
     public IdManager() {
-        objectToId = new HashMap<>();
-        idToObject = new HashMap<>();
+        this(false);
+    }
+
+    IdManager(boolean weakReferences) {
+        this.weakReferences = weakReferences;
+
+        lock = new Object();
+
+        chunks = new Chunk[1];
+        objectToId = new IdentityTable(1024);
         ids = 0;
+        liveIds = 0;
+        purgedIds = 0;
+
+        if (weakReferences) {
+            referenceQueue = new ReferenceQueue<>();
+
+            Thread sweeper = new Thread(this::sweep, "id-manager-sweeper");
+
+            sweeper.setDaemon(true);
+            sweeper.start();
+        } else {
+            referenceQueue = null;
+        }
     }
 
     String getId(Object o) {
-        synchronized (objectToId) {
-            if (!objectToId.containsKey(o)) {
-                ids++;
+        int id = objectToId.get(o);
 
-                objectToId.put(o, ids);
-                idToObject.put(ids, o);
+        if (id == IdentityTable.NO_ID) {
+            synchronized (lock) {
+                id = objectToId.get(o);
+
+                if (id == IdentityTable.NO_ID) {
+                    ids++;
+
+                    id = ids;
+
+                    Object entry = createEntry(o, id);
+
+                    /* Store the object first so the id can be looked up as soon as another thread sees it */
+                    setObject(id, entry);
+                    putId(entry, IdentityTable.hash(o), id);
+                }
             }
         }
 
-        return Integer.toString(objectToId.get(o));
+        Chunk chunk = getChunk(id);
+        String cachedId = chunk == null ? null : chunk.ids.get(id & CHUNK_MASK);
+
+        /* The id may have been removed, and its chunk reclaimed, by another thread since it was looked up */
+        if (cachedId == null) {
+            return Integer.toString(id);
+        }
+
+        return cachedId;
     }
 
     Object getObject(String id) {
-        int numberId = Integer.parseInt(id);
-
-        return idToObject.get(numberId);
+        return getObject(parseId(id));
     }
 
     Object getObject(int id) {
-        return idToObject.get(id);
+        if (id <= 0) {
+            return null;
+        }
+
+        Chunk chunk = getChunk(id);
+
+        if (chunk == null) {
+            return null;
+        }
+
+        Object entry = chunk.objects.get(id & CHUNK_MASK);
+
+        if (entry instanceof IdReference) {
+            return ((IdReference) entry).get();
+        }
+
+        return entry;
+    }
+
+    int getNumberOfIds() {
+        synchronized (lock) {
+            return liveIds;
+        }
+    }
+
+    /* Chunks are let go once all their ids are removed */
+    int getNumberOfChunks() {
+        synchronized (lock) {
+            int numberOfChunks = 0;
+
+            for (Chunk chunk : chunks) {
+                if (chunk != null) {
+                    numberOfChunks++;
+                }
+            }
+
+            return numberOfChunks;
+        }
+    }
+
+    long getNumberOfPurgedIds() {
+        synchronized (lock) {
+            return purgedIds;
+        }
     }
 
     void remove(Object gameObject) {
-        int id = objectToId.get(gameObject);
-        objectToId.remove(gameObject);
-        idToObject.remove(id);
+        synchronized (lock) {
+            removeId(gameObject);
+        }
+    }
+
+    /* Removes all the ids in one go, objects without ids are ignored */
+    void removeAll(Collection<?> gameObjects) {
+        synchronized (lock) {
+            for (Object gameObject : gameObjects) {
+                removeId(gameObject);
+            }
+        }
+    }
+
+    private void removeId(Object gameObject) {
+        int id = objectToId.remove(gameObject);
+
+        if (id == IdentityTable.NO_ID) {
+            return;
+        }
+
+        clearId(id);
+    }
+
+    private void clearId(int id) {
+        int chunkIndex = id >>> CHUNK_SHIFT;
+        Chunk chunk = chunks[chunkIndex];
+
+        Object entry = chunk.objects.get(id & CHUNK_MASK);
+
+        /* A reference that is cleared here is never queued for the sweeper */
+        if (entry instanceof IdReference) {
+            ((IdReference) entry).clear();
+        }
+
+        chunk.objects.set(id & CHUNK_MASK, null);
+        chunk.ids.set(id & CHUNK_MASK, null);
+
+        chunk.live--;
+        liveIds--;
+
+        /* Ids are never handed out again so a chunk can go as soon as it's full and all its ids are gone */
+        if (chunk.live == 0 && chunkIndex < (ids >>> CHUNK_SHIFT)) {
+            Chunk[] updatedChunks = chunks.clone();
+
+            updatedChunks[chunkIndex] = null;
+
+            chunks = updatedChunks;
+        }
     }
 
     void updateObject(Object oldObject, Object updatedObject) {
-        int id = objectToId.get(oldObject);
+        synchronized (lock) {
+            int id = objectToId.remove(oldObject);
+
+            if (id == IdentityTable.NO_ID) {
+                return;
+            }
+
+            Chunk chunk = getChunk(id);
+            Object oldEntry = chunk.objects.get(id & CHUNK_MASK);
+
+            if (oldEntry instanceof IdReference) {
+                ((IdReference) oldEntry).clear();
+            }
+
+            Object entry = createEntry(updatedObject, id);
+
+            chunk.objects.set(id & CHUNK_MASK, entry);
+
+            putId(entry, IdentityTable.hash(updatedObject), id);
+        }
+    }
+
+    private Object createEntry(Object o, int id) {
+        if (weakReferences) {
+            return new IdReference(o, id, referenceQueue);
+        }
+
+        return o;
+    }
+
+    private void sweep() {
+        while (true) {
+            try {
+                IdReference reference = (IdReference) referenceQueue.remove();
+
+                synchronized (lock) {
+
+                    /* Purge everything that is already queued while holding the lock */
+                    while (reference != null) {
+                        purge(reference);
+
+                        reference = (IdReference) referenceQueue.poll();
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable t) {
+                System.out.println("Exception while purging ids: " + t);
+                t.printStackTrace();
+            }
+        }
+    }
+
+    private void purge(IdReference reference) {
+        if (!objectToId.removeReference(reference)) {
+            return;
+        }
+
+        clearId(reference.id);
+
+        purgedIds++;
+
+        if (purgedIds % PURGE_REPORT_INTERVAL == 0) {
+            System.out.println("Purged " + purgedIds + " ids of collected objects, " + liveIds + " ids in use");
+        }
+    }
+
+    private Chunk getChunk(int id) {
+        Chunk[] currentChunks = chunks;
+        int chunkIndex = id >>> CHUNK_SHIFT;
+
+        if (chunkIndex >= currentChunks.length) {
+            return null;
+        }
+
+        return currentChunks[chunkIndex];
+    }
 
-        objectToId.remove(oldObject);
-        idToObject.remove(id);
+    private void setObject(int id, Object entry) {
+        int chunkIndex = id >>> CHUNK_SHIFT;
 
-        idToObject.put(id, updatedObject);
-        objectToId.put(updatedObject, id);
+        if (chunkIndex >= chunks.length) {
+            Chunk[] grownChunks = new Chunk[Math.max(chunkIndex + 1, chunks.length * 2)];
+
+            System.arraycopy(chunks, 0, grownChunks, 0, chunks.length);
+
+            chunks = grownChunks;
+        }
+
+        Chunk chunk = chunks[chunkIndex];
+
+        if (chunk == null) {
+            chunk = new Chunk();
+
+            /* Publish the array again so readers are guaranteed to see the new chunk */
+            Chunk[] updatedChunks = chunks.clone();
+
+            updatedChunks[chunkIndex] = chunk;
+
+            chunks = updatedChunks;
+        }
+
+        chunk.ids.set(id & CHUNK_MASK, Integer.toString(id));
+        chunk.objects.set(id & CHUNK_MASK, entry);
+
+        chunk.live++;
+        liveIds++;
+    }
+
+    private void putId(Object entry, int hash, int id) {
+        if (!objectToId.put(entry, hash, id)) {
+            objectToId = objectToId.resize();
+
+            objectToId.put(entry, hash, id);
+        }
+    }
+
+    /* Returns 0, which is never used as an id, for anything that isn't a positive number */
+    private static int parseId(String id) {
+        if (id == null || id.isEmpty() || id.length() > 9) {
+            return 0;
+        }
+
+        int value = 0;
+
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+
+            value = value * 10 + (c - '0');
+        }
+
+        return value;
+    }
+
+    private static class Chunk {
+        private final AtomicReferenceArray<Object> objects;
+        private final AtomicReferenceArray<String> ids;
+
+        /* Only used while holding the lock */
+        private int live;
+
+        private Chunk() {
+            objects = new AtomicReferenceArray<>(CHUNK_SIZE);
+            ids = new AtomicReferenceArray<>(CHUNK_SIZE);
+            live = 0;
+        }
+    }
+
+    /* Weak reference to an object with an id. It remembers the hash of the object so it can be found after the object is gone */
+    private static class IdReference extends WeakReference<Object> {
+        private final int id;
+        private final int hash;
+
+        private IdReference(Object o, int id, ReferenceQueue<Object> referenceQueue) {
+            super(o, referenceQueue);
+
+            this.id = id;
+            this.hash = IdentityTable.hash(o);
+        }
+    }
+
+    /**
+     * Open addressing table from object identity to id. Readers never lock, writers must hold the lock of the
+     * IdManager. The id of a slot is always written before the key so a reader that finds the key also sees the id.
+     */
+    private static class IdentityTable {
+        private static final int NO_ID = -1;
+        private static final Object REMOVED = new Object();
+
+        private final AtomicReferenceArray<Object> keys;
+        private final AtomicIntegerArray values;
+        private final int mask;
+        private int size;
+        private int usedSlots;
+
+        private IdentityTable(int capacity) {
+            keys = new AtomicReferenceArray<>(capacity);
+            values = new AtomicIntegerArray(capacity);
+            mask = capacity - 1;
+            size = 0;
+            usedSlots = 0;
+        }
+
+        static int hash(Object o) {
+            int h = System.identityHashCode(o) * 0x9E3779B9;
+
+            return h ^ (h >>> 16);
+        }
+
+        int get(Object o) {
+            int index = hash(o) & mask;
+
+            while (true) {
+                Object key = keys.get(index);
+
+                if (key == null) {
+                    return NO_ID;
+                }
+
+                if (matches(key, o)) {
+                    return values.get(index);
+                }
+
+                index = (index + 1) & mask;
+            }
+        }
+
+        /* The key is either the object itself or a weak reference to it */
+        private static boolean matches(Object key, Object o) {
+            return key == o || (key instanceof IdReference && ((IdReference) key).get() == o);
+        }
+
+        /* Returns false if the table is too full and has to be resized first */
+        boolean put(Object entry, int hash, int id) {
+            if ((usedSlots + 1) * 2 > keys.length()) {
+                return false;
+            }
+
+            int index = hash & mask;
+
+            while (true) {
+                Object key = keys.get(index);
+
+                if (key == null) {
+                    values.set(index, id);
+                    keys.set(index, entry);
+
+                    size++;
+                    usedSlots++;
+
+                    return true;
+                }
+
+                if (key == entry) {
+                    values.set(index, id);
+
+                    return true;
+                }
+
+                index = (index + 1) & mask;
+            }
+        }
+
+        int remove(Object o) {
+            int index = hash(o) & mask;
+
+            while (true) {
+                Object key = keys.get(index);
+
+                if (key == null) {
+                    return NO_ID;
+                }
+
+                if (matches(key, o)) {
+                    int id = values.get(index);
+
+                    /* Keep the slot occupied so the probe sequences passing through it stay intact */
+                    keys.set(index, REMOVED);
+
+                    size--;
+
+                    return id;
+                }
+
+                index = (index + 1) & mask;
+            }
+        }
+
+        boolean removeReference(IdReference reference) {
+            int index = reference.hash & mask;
+
+            while (true) {
+                Object key = keys.get(index);
+
+                if (key == null) {
+                    return false;
+                }
+
+                if (key == reference) {
+                    keys.set(index, REMOVED);
+
+                    size--;
+
+                    return true;
+                }
+
+                index = (index + 1) & mask;
+            }
+        }
+
+        /* Removed slots are only cleaned up here, the live entries decide the size of the new table */
+        IdentityTable resize() {
+            int capacity = keys.length();
+
+            while ((size + 1) * 4 > capacity) {
+                capacity = capacity * 2;
+            }
+
+            IdentityTable resized = new IdentityTable(capacity);
+
+            for (int i = 0; i < keys.length(); i++) {
+                Object key = keys.get(i);
+
+                if (key != null && key != REMOVED) {
+                    int hash = key instanceof IdReference ? ((IdReference) key).hash : hash(key);
+
+                    resized.put(key, hash, values.get(i));
+                }
+            }
+
+            return resized;
+        }
     }
 }
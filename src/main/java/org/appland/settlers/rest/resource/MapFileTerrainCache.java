@@ -0,0 +1,118 @@
+package org.appland.settlers.rest.resource;
+
+import org.appland.settlers.maps.MapFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the terrain previews of the map files. A map file never changes so each preview is only created once and
+ * it's kept gzipped since the terrain compresses very well and is only read when browsing maps.
+ *
+ * Creating a preview still converts the map file into a whole game map, since that's the only way to get the
+ * vegetation and heights out of it. The cache only makes sure this happens once per map file instead of on every
+ * request.
+ */
+class MapFileTerrainCache {
+
+    static final MapFileTerrainCache mapFileTerrainCache = new MapFileTerrainCache();
+
+    private final Map<MapFile, TerrainPreview> previews;
+
+    private MapFileTerrainCache() {
+        previews = new ConcurrentHashMap<>();
+    }
+
+    /* Returns the gzipped terrain for the map file */
+    byte[] getCompressedTerrain(MapFile mapFile, Utils utils) throws Exception {
+        TerrainPreview preview = previews.computeIfAbsent(mapFile, TerrainPreview::new);
+
+        return preview.getCompressedTerrain(utils);
+    }
+
+    /* Follows the Accept-Encoding header, where a coding with q=0 is not acceptable and * stands for any other coding */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        Boolean gzip = null;
+        boolean any = false;
+
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase();
+            boolean acceptable = true;
+
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim().toLowerCase();
+
+                if (parameter.startsWith("q=")) {
+                    try {
+                        acceptable = Double.parseDouble(parameter.substring(2).trim()) > 0;
+                    } catch (NumberFormatException e) {
+                        acceptable = false;
+                    }
+                }
+            }
+
+            if (coding.equals("gzip")) {
+                gzip = acceptable;
+            } else if (coding.equals("*")) {
+                any = acceptable;
+            }
+        }
+
+        return gzip != null ? gzip : any;
+    }
+
+    static byte[] decompress(byte[] compressed) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(compressed.length * 8);
+
+        try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] buffer = new byte[8192];
+
+            int length;
+
+            while ((length = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, length);
+            }
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    private static class TerrainPreview {
+        private final MapFile mapFile;
+        private byte[] compressedTerrain;
+
+        private TerrainPreview(MapFile mapFile) {
+            this.mapFile = mapFile;
+        }
+
+        /* Only the first request for a map file pays for the conversion, concurrent requests wait for it */
+        synchronized byte[] getCompressedTerrain(Utils utils) throws Exception {
+            if (compressedTerrain == null) {
+                byte[] terrain = utils.mapFileTerrainToJson(mapFile).toJSONString().getBytes(StandardCharsets.UTF_8);
+
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(terrain.length / 8);
+
+                try (OutputStream outputStream = new GZIPOutputStream(compressed)) {
+                    outputStream.write(terrain);
+                }
+
+                compressedTerrain = compressed.toByteArray();
+            }
+
+            return compressedTerrain;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.appland.settlers.rest.resource;
+
+import org.eclipse.jetty.websocket.api.BatchMode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.extensions.Extension;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.api.extensions.OutgoingFrames;
+import org.eclipse.jetty.websocket.common.WebSocketSession;
+import org.eclipse.jetty.websocket.common.extensions.ExtensionStack;
+import org.eclipse.jetty.websocket.common.extensions.compress.PerMessageDeflateExtension;
+import org.eclipse.jetty.websocket.jsr356.server.ServerContainer;
+
+import javax.websocket.Session;
+import java.util.zip.Deflater;
+
+/**
+ * Jetty's permessage-deflate with a configurable compression level, and without compression for messages that are
+ * too small to gain from it. The extension of each websocket session reports to the metrics of its game.
+ */
+public class MeteredPerMessageDeflateExtension extends PerMessageDeflateExtension {
+
+    static final String LEVEL_PROPERTY = "settlers.websocket.deflateLevel";
+    static final String THRESHOLD_PROPERTY = "settlers.websocket.deflateThreshold";
+
+    private static final int LEVEL = Integer.getInteger(LEVEL_PROPERTY, Deflater.DEFAULT_COMPRESSION);
+    private static final int THRESHOLD = Integer.getInteger(THRESHOLD_PROPERTY, 256);
+
+    private MeteredDeflater deflater;
+    private volatile DeflateMetrics metrics;
+
+    public MeteredPerMessageDeflateExtension() {
+        deflater = null;
+        metrics = null;
+    }
+
+    /* Replaces the default permessage-deflate of the container */
+    public static void register(ServerContainer container) {
+        container.getWebSocketServerFactory().getExtensionFactory().register("permessage-deflate", MeteredPerMessageDeflateExtension.class);
+
+        System.out.println("Websocket compression level: " + LEVEL + ", threshold: " + THRESHOLD + " bytes");
+    }
+
+    /* Does nothing if the client didn't negotiate compression */
+    static void attachMetrics(Session session, DeflateMetrics metrics) {
+        if (!(session instanceof WebSocketSession)) {
+            return;
+        }
+
+        OutgoingFrames outgoingHandler = ((WebSocketSession) session).getOutgoingHandler();
+
+        if (!(outgoingHandler instanceof ExtensionStack)) {
+            return;
+        }
+
+        for (Extension extension : ((ExtensionStack) outgoingHandler).getExtensions()) {
+            if (extension instanceof MeteredPerMessageDeflateExtension) {
+                ((MeteredPerMessageDeflateExtension) extension).metrics = metrics;
+            }
+        }
+    }
+
+    @Override
+    public synchronized Deflater getDeflater() {
+        if (deflater == null) {
+            deflater = new MeteredDeflater();
+        }
+
+        return deflater;
+    }
+
+    @Override
+    public void outgoingFrame(Frame frame, WriteCallback callback, BatchMode batchMode) {
+        boolean wholeMessage = frame.isFin() && (frame.getType() == Frame.Type.TEXT || frame.getType() == Frame.Type.BINARY);
+
+        if (!wholeMessage) {
+            super.outgoingFrame(frame, callback, batchMode);
+
+            return;
+        }
+
+        DeflateMetrics metrics = this.metrics;
+
+        /* Messages without the compression bit are allowed and don't touch the compression context. The outbox
+           sends one message at a time so a small message can't overtake a message that is being compressed
+         */
+        if (frame.getPayloadLength() < THRESHOLD) {
+            if (metrics != null) {
+                metrics.reportUncompressedMessage(frame.getPayloadLength());
+            }
+
+            getNextOutgoing().outgoingFrame(frame, callback, batchMode);
+
+            return;
+        }
+
+        if (metrics != null) {
+            metrics.reportCompressedMessage(frame.getPayloadLength());
+        }
+
+        super.outgoingFrame(frame, callback, batchMode);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        synchronized (this) {
+            if (deflater != null) {
+                deflater.end();
+
+                deflater = null;
+            }
+        }
+
+        super.doStop();
+    }
+
+    private class MeteredDeflater extends Deflater {
+
+        private MeteredDeflater() {
+            super(LEVEL, true);
+        }
+
+        @Override
+        public int deflate(byte[] output, int offset, int length, int flush) {
+            long start = System.nanoTime();
+
+            int written = super.deflate(output, offset, length, flush);
+
+            DeflateMetrics metrics = MeteredPerMessageDeflateExtension.this.metrics;
+
+            if (metrics != null) {
+                metrics.reportDeflate(written, System.nanoTime() - start);
+            }
+
+            return written;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.appland.settlers.rest.resource;
+
+import org.appland.settlers.model.GameChangesList;
+import org.appland.settlers.model.GameMap;
+import org.appland.settlers.model.Player;
+import org.appland.settlers.model.PlayerGameViewMonitor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the latest changes of each player so a client that already has the view from a little while ago can get
+ * only what changed since then. The changes are kept as they come from the game and are only encoded when asked
+ * for, so keeping them costs next to nothing.
+ *
+ * A player's changes are only kept once the player has fetched its view, and are let go again when the player
+ * hasn't asked for them for longer than they are kept anyway.
+ */
+class PlayerChangesHistory implements PlayerGameViewMonitor {
+
+    static final String MAX_TICKS_PROPERTY = "settlers.viewHistory.maxTicks";
+
+    private static final int MAX_TICKS = Integer.getInteger(MAX_TICKS_PROPERTY, 600);
+
+    /* Must be shorter than the delay before the ids of removed objects are given back */
+    private static final long MAX_AGE = TimeUnit.SECONDS.toNanos(20);
+
+    private static final Map<GameMap, PlayerChangesHistory> histories = new ConcurrentHashMap<>();
+
+    private final GameMap map;
+
+    /* Guarded by this */
+    private final Map<Player, History> playerHistories;
+
+    private PlayerChangesHistory(GameMap map) {
+        this.map = map;
+
+        playerHistories = new HashMap<>();
+    }
+
+    static void startRecording(GameMap map) {
+        histories.putIfAbsent(map, new PlayerChangesHistory(map));
+    }
+
+    static PlayerChangesHistory getHistory(GameMap map) {
+        return histories.get(map);
+    }
+
+    static void removeHistory(GameMap map) {
+        histories.remove(map);
+    }
+
+    /* Keeps the player's changes from now on, so the player can ask for what changed after the current time */
+    void follow(Player player) {
+
+        /* Hold the map so no changes happen between reading the time and following the player */
+        synchronized (map) {
+            synchronized (this) {
+                History history = playerHistories.get(player);
+
+                if (history == null) {
+                    history = new History(map.getCurrentTime());
+
+                    playerHistories.put(player, history);
+
+                    GameChangesFeed.getFeed(map).addMonitor(player, this);
+                }
+
+                history.lastAskedFor = System.nanoTime();
+            }
+        }
+    }
+
+    /* Returns the changes after the given time, or null if some of them are not kept anymore */
+    synchronized List<GameChangesList> getChangesSince(Player player, long since) {
+        History history = playerHistories.get(player);
+
+        if (history == null || since < history.completeAfter) {
+            return null;
+        }
+
+        history.lastAskedFor = System.nanoTime();
+
+        List<GameChangesList> changes = new ArrayList<>();
+
+        for (RecordedChanges recordedChanges : history.changes) {
+            if (recordedChanges.gameChangesList.getTime() > since) {
+                changes.add(recordedChanges.gameChangesList);
+            }
+        }
+
+        return changes;
+    }
+
+    @Override
+    public synchronized void onViewChangesForPlayer(Player player, GameChangesList gameChangesList) {
+        History history = playerHistories.get(player);
+
+        if (history == null) {
+            return;
+        }
+
+        long now = System.nanoTime();
+
+        /* Nothing kept now can be asked for anymore once the player has been away for longer than it's kept */
+        if (now - history.lastAskedFor > MAX_AGE) {
+            playerHistories.remove(player);
+
+            GameChangesFeed.getFeed(map).removeMonitor(player, this);
+
+            return;
+        }
+
+        history.changes.addLast(new RecordedChanges(now, gameChangesList));
+
+        while (history.changes.size() > MAX_TICKS || now - history.changes.peekFirst().recordedAt > MAX_AGE) {
+            RecordedChanges dropped = history.changes.pollFirst();
+
+            history.completeAfter = Math.max(history.completeAfter, dropped.gameChangesList.getTime());
+        }
+    }
+
+    private static class History {
+        private final Deque<RecordedChanges> changes;
+
+        /* All changes after this time are kept */
+        private long completeAfter;
+        private long lastAskedFor;
+
+        private History(long completeAfter) {
+            this.completeAfter = completeAfter;
+
+            changes = new ArrayDeque<>();
+        }
+    }
+
+    private static class RecordedChanges {
+        private final long recordedAt;
+        private final GameChangesList gameChangesList;
+
+        private RecordedChanges(long recordedAt, GameChangesList gameChangesList) {
+            this.recordedAt = recordedAt;
+            this.gameChangesList = gameChangesList;
+        }
+    }
+}
@@ -0,0 +1,605 @@
+package org.appland.settlers.rest.resource;
+
+import org.appland.settlers.model.Building;
+import org.appland.settlers.model.Crop;
+import org.appland.settlers.model.DecorationType;
+import org.appland.settlers.model.Flag;
+import org.appland.settlers.model.GameMap;
+import org.appland.settlers.model.Player;
+import org.appland.settlers.model.Point;
+import org.appland.settlers.model.Road;
+import org.appland.settlers.model.Sign;
+import org.appland.settlers.model.Stone;
+import org.appland.settlers.model.Tree;
+import org.appland.settlers.model.WildAnimal;
+import org.appland.settlers.model.Worker;
+import org.json.simple.JSONStreamAware;
+import org.json.simple.JSONValue;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the view of a player to the response. The view is encoded into a buffer while holding the map and sent after
+ * letting go of it, so a slow client doesn't keep the game from running while the view is sent.
+ *
+ * The cost is that the whole encoded view is in memory at once. The game objects can only be read while holding the
+ * map, so writing from a copy after letting go would need a copy of every object in the view, which is about as large
+ * as the view itself. Instead the buffer is capped. A view that grows past the cap is sent as it's written from there
+ * on, while holding the map. This keeps the memory bounded, but a slow client can then hold up the game.
+ *
+ * With a viewport only what is inside it is written, except for the borders and the discovered land as runs.
+ */
+class PlayerViewWriter implements StreamingOutput {
+
+    static final String MAX_BUFFERED_BYTES_PROPERTY = "settlers.view.MAX_BUFFERED_BYTES";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_BUFFERED_BYTES = Integer.getInteger(MAX_BUFFERED_BYTES_PROPERTY, 8 * 1024 * 1024);
+
+    private final GameMap map;
+    private final Player player;
+    private final String playerId;
+    private final Utils utils;
+    private final boolean discoveredLandAsRuns;
+    private final Viewport viewport;
+    private final boolean availableConstructionAsBytes;
+
+    private Writer writer;
+    private SpatialIndex spatialIndex;
+    private Set<Long> discoveredChunks;
+    private boolean firstMember;
+    private boolean firstInSection;
+
+    PlayerViewWriter(GameMap map, Player player, String playerId, Utils utils, boolean discoveredLandAsRuns, Viewport viewport,
+                     boolean availableConstructionAsBytes) {
+        this.map = map;
+        this.player = player;
+        this.playerId = playerId;
+        this.utils = utils;
+        this.discoveredLandAsRuns = discoveredLandAsRuns;
+        this.viewport = viewport;
+        this.availableConstructionAsBytes = availableConstructionAsBytes;
+    }
+
+    @Override
+    public void write(OutputStream outputStream) throws IOException {
+        CappedBuffer buffer = new CappedBuffer(outputStream, MAX_BUFFERED_BYTES);
+
+        writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+
+        writer.write('{');
+
+        firstMember = true;
+
+        /* Protect access to the map to avoid interference */
+        synchronized (map) {
+            Set<Point> discoveredPoints = player.getDiscoveredLand();
+            DiscoveredLand.PlayerLand discoveredLand = DiscoveredLand.getDiscoveredLand(map).getLand(player);
+
+            /* Only look at what is in the parts of the map the player has discovered */
+            spatialIndex = SpatialIndex.getIndex(map);
+            spatialIndex.check();
+
+            discoveredChunks = SpatialIndex.chunksOf(viewport == null ? discoveredPoints : pointsInViewport(discoveredPoints));
+
+            writeHouses(discoveredLand);
+            writeTrees(discoveredLand);
+            writeStones(discoveredLand);
+            writeWorkers(discoveredLand);
+            writeFlags(discoveredLand);
+            writeRoads(discoveredLand);
+
+            if (discoveredLandAsRuns) {
+                startMember("discoveredLand");
+                discoveredLand.toJson().writeJSONString(writer);
+            } else {
+                writeDiscoveredPoints(viewport == null ? discoveredPoints : pointsInViewport(discoveredPoints));
+            }
+
+            writeBorders();
+            writeSigns(discoveredLand);
+            writeWildAnimals(discoveredLand);
+            writeCrops(discoveredLand);
+            writeDeadTrees();
+            writeAvailableConstruction(discoveredLand);
+
+            /* Lets the client ask for only the changes after this view later */
+            startMember("time");
+            writer.write(Long.toString(map.getCurrentTime()));
+
+            /* Everything written so far must be in the buffer, or sent, before letting go of the map */
+            writer.flush();
+        }
+
+        if (buffer.isOverflowed()) {
+            System.out.println("The view for player " + playerId + " was larger than " + MAX_BUFFERED_BYTES +
+                    " bytes and was sent while holding the map");
+        }
+
+        writeDecorations();
+
+        writer.write('}');
+
+        writer.flush();
+
+        /* The map is not held while the view is sent */
+        buffer.sendBuffered();
+
+        outputStream.flush();
+    }
+
+    private void writeHouses(DiscoveredLand.PlayerLand discoveredLand) throws IOException {
+        startArray("houses");
+
+        for (Building building : spatialIndex.getBuildings(discoveredChunks)) {
+
+            if (!isVisible(discoveredLand, building.getPosition())) {
+                continue;
+            }
+
+            writeElement(utils.houseToJson(building));
+        }
+
+        endArray();
+    }
+
+    private void writeTrees(DiscoveredLand.PlayerLand discoveredLand) throws IOException {
+        startArray("trees");
+
+        for (Tree tree : spatialIndex.getTrees(discoveredChunks)) {
+            if (!isVisible(discoveredLand, tree.getPosition())) {
+                continue;
+            }
+
+            writeElement(utils.treeToJson(tree));
+        }
+
+        endArray();
+    }
+
+    private void writeStones(DiscoveredLand.PlayerLand discoveredLand) throws IOException {
+        startArray("stones");
+
+        for (Stone stone : spatialIndex.getStones(discoveredChunks)) {
+
+            if (!isVisible(discoveredLand, stone.getPosition())) {
+                continue;
+            }
+
+            writeElement(utils.stoneToJson(stone));
+        }
+
+        endArray();
+    }
+
+    private void writeWorkers(DiscoveredLand.PlayerLand discoveredLand) throws IOException {
+        startArray("workers");
+
+        for (Worker worker : map.getWorkers()) {
+
+            /* Workers move every tick so they are not in the spatial index, but the chunks still rule out most of them */
+            if (!isInDiscoveredChunk(worker.getPosition()) || !isVisible(discoveredLand, worker.getPosition())) {
+                continue;
+            }
+
+            if (worker.isInsideBuilding()) {
+                continue;
+            }
+
+            writeElement(utils.workerToJson(worker));
+        }
+
+        endArray();
+    }
+
+    private void writeFlags(DiscoveredLand.PlayerLand discoveredLand) throws IOException {
+        startArray("flags");
+
+        for (Flag flag : spatialIndex.getFlags(discoveredChunks)) {
+
+            if (!isVisible(discoveredLand, flag.getPosition())) {
+                continue;
+            }
+
+            writeElement(utils.flagToJson(flag));
+        }
+
+        endArray();
+    }
+
+    private void writeRoads(DiscoveredLand.PlayerLand discoveredLand) throws IOException {
+        startArray("roads");
+
+        for (Road road : spatialIndex.getRoads(discoveredChunks)) {
+
+            boolean inside = false;
+
+            /* Filter roads the player cannot see */
+            for (Point p : road.getWayPoints()) {
+                if (isVisible(discoveredLand, p)) {
+                    inside = true;
+
+                    break;
+                }
+            }
+
+            if (!inside) {
+                continue;
+            }
+
+            writeElement(utils.roadToJson(road));
+        }
+
+        endArray();
+    }
+
+    private void writeDiscoveredPoints(Collection<Point> discoveredLand) throws IOException {
+        startArray("discoveredPoints");
+
+        for (Point point : discoveredLand) {
+            nextElement();
+            writePoint(point);
+        }
+
+        endArray();
+    }
+
+    private void writeBorders() throws IOException {
+        startArray("borders");
+
+        nextElement();
+
+        writer.write("{\"playerId\":\"");
+        writer.write(JSONValue.escape(playerId));
+        writer.write("\",\"points\":[");
+
+        boolean first = true;
+
+        for (Point point : player.getBorderPoints()) {
+            if (!first) {
+                writer.write(',');
+            }
+
+            writePoint(point);
+
+            first = false;
+        }
+
+        writer.write("]}");
+
+        endArray();
+    }
+
+    private void writeSigns(DiscoveredLand.PlayerLand discoveredLand) throws IOException {
+        startArray("signs");
+
+        for (Sign sign : spatialIndex.getSigns(discoveredChunks)) {
+
+            if (!isVisible(discoveredLand, sign.getPosition())) {
+                continue;
+            }
+
+            writeElement(utils.signToJson(sign));
+        }
+
+        endArray();
+    }
+
+    private void writeWildAnimals(DiscoveredLand.PlayerLand discoveredLand) throws IOException {
+        startArray("wildAnimals");
+
+        for (WildAnimal animal : map.getWildAnimals()) {
+
+            if (!isInDiscoveredChunk(animal.getPosition()) || !isVisible(discoveredLand, animal.getPosition())) {
+                continue;
+            }
+
+            writeElement(utils.wildAnimalToJson(animal));
+        }
+
+        endArray();
+    }
+
+    private void writeCrops(DiscoveredLand.PlayerLand discoveredLand) throws IOException {
+        startArray("crops");
+
+        for (Crop crop : spatialIndex.getCrops(discoveredChunks)) {
+
+            if (!isVisible(discoveredLand, crop.getPosition())) {
+                continue;
+            }
+
+            writeElement((JSONStreamAware) utils.cropToJson(crop));
+        }
+
+        endArray();
+    }
+
+    private void writeDeadTrees() throws IOException {
+        startArray("deadTrees");
+
+        for (Point point : map.getDeadTrees()) {
+            if (!isInViewport(point)) {
+                continue;
+            }
+
+            nextElement();
+            writePoint(point);
+        }
+
+        endArray();
+    }
+
+    private void writeAvailableConstruction(DiscoveredLand.PlayerLand discoveredLand) throws IOException {
+        AvailableConstructionRaster raster = AvailableConstructionRaster.getRaster(map);
+        byte[] available = raster.getBytes(player);
+
+        if (availableConstructionAsBytes) {
+            startMember("availableConstruction");
+            writeAvailableConstructionBytes(raster, available, discoveredLand);
+
+            return;
+        }
+
+        startObject("availableConstruction");
+
+        for (int index = 0; index < available.length; index++) {
+            if (available[index] == 0) {
+                continue;
+            }
+
+            Point point = raster.pointAt(index);
+
+            /* Filter points not discovered yet */
+            if (!isVisible(discoveredLand, point)) {
+                continue;
+            }
+
+            nextElement();
+
+            writer.write('"');
+            writer.write(Integer.toString(point.x));
+            writer.write(',');
+            writer.write(Integer.toString(point.y));
+            writer.write("\":");
+
+            Utils.availableConstructionToJson(available[index]).writeJSONString(writer);
+        }
+
+        writer.write('}');
+    }
+
+    /*
+    {'firstColumn': 40,
+     'firstRow': 30,
+     'columns': 20,
+     'rows': 25,
+     'available': 'AAEHDw...'   -- base64, one byte per point: flag 1, small 2, medium 4, large 8, mine 16
+    }
+
+    Only the smallest rectangle of columns and rows with everything the player can build is sent. The point for
+    column c and row r is (2 * c + (r & 1), r).
+     */
+    private void writeAvailableConstructionBytes(AvailableConstructionRaster raster, byte[] available, DiscoveredLand.PlayerLand discoveredLand) throws IOException {
+        int columns = raster.getColumns();
+        int firstColumn = Integer.MAX_VALUE;
+        int firstRow = Integer.MAX_VALUE;
+        int lastColumn = -1;
+        int lastRow = -1;
+
+        for (int index = 0; index < available.length; index++) {
+            if (available[index] == 0 || !isVisible(discoveredLand, raster.pointAt(index))) {
+                continue;
+            }
+
+            firstColumn = Math.min(firstColumn, index % columns);
+            firstRow = Math.min(firstRow, index / columns);
+            lastColumn = Math.max(lastColumn, index % columns);
+            lastRow = Math.max(lastRow, index / columns);
+        }
+
+        if (lastRow < 0) {
+            writer.write("{\"firstColumn\":0,\"firstRow\":0,\"columns\":0,\"rows\":0,\"available\":\"\"}");
+
+            return;
+        }
+
+        int width = lastColumn - firstColumn + 1;
+        int height = lastRow - firstRow + 1;
+        byte[] bytes = new byte[width * height];
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int index = row * columns + column;
+
+                if (available[index] != 0 && isVisible(discoveredLand, raster.pointAt(index))) {
+                    bytes[(row - firstRow) * width + column - firstColumn] = available[index];
+                }
+            }
+        }
+
+        writer.write("{\"firstColumn\":");
+        writer.write(Integer.toString(firstColumn));
+        writer.write(",\"firstRow\":");
+        writer.write(Integer.toString(firstRow));
+        writer.write(",\"columns\":");
+        writer.write(Integer.toString(width));
+        writer.write(",\"rows\":");
+        writer.write(Integer.toString(height));
+        writer.write(",\"available\":\"");
+        writer.write(Base64.getEncoder().encodeToString(bytes));
+        writer.write("\"}");
+    }
+
+    private void writeDecorations() throws IOException {
+        Set<Point> discoveredLand = player.getDiscoveredLand();
+
+        startArray("decorations");
+
+        for (Map.Entry<Point, DecorationType> entry : map.getDecorations().entrySet()) {
+            Point point = entry.getKey();
+            DecorationType decorationType = entry.getValue();
+
+            /* Filter points not discovered yet */
+            if (!discoveredLand.contains(point) || !isInViewport(point)) {
+                continue;
+            }
+
+            writeElement(Utils.decorationToJson(decorationType, point));
+        }
+
+        endArray();
+    }
+
+    private boolean isVisible(DiscoveredLand.PlayerLand discoveredLand, Point point) {
+        return discoveredLand.contains(point) && isInViewport(point);
+    }
+
+    private boolean isInDiscoveredChunk(Point point) {
+        return discoveredChunks.contains(SpatialIndex.chunkOf(point));
+    }
+
+    private boolean isInViewport(Point point) {
+        return viewport == null || viewport.contains(point);
+    }
+
+    private List<Point> pointsInViewport(Collection<Point> points) {
+        List<Point> pointsInViewport = new ArrayList<>();
+
+        for (Point point : points) {
+            if (viewport.contains(point)) {
+                pointsInViewport.add(point);
+            }
+        }
+
+        return pointsInViewport;
+    }
+
+    private void writePoint(Point point) throws IOException {
+        writer.write("{\"x\":");
+        writer.write(Integer.toString(point.x));
+        writer.write(",\"y\":");
+        writer.write(Integer.toString(point.y));
+        writer.write('}');
+    }
+
+    private void startArray(String name) throws IOException {
+        startMember(name);
+
+        writer.write('[');
+    }
+
+    private void endArray() throws IOException {
+        writer.write(']');
+    }
+
+    private void startObject(String name) throws IOException {
+        startMember(name);
+
+        writer.write('{');
+    }
+
+    private void startMember(String name) throws IOException {
+
+        /* Every member except the first one in the view is preceded by a comma */
+        if (firstMember) {
+            writer.write('"');
+        } else {
+            writer.write(",\"");
+        }
+
+        firstMember = false;
+
+        writer.write(name);
+        writer.write("\":");
+
+        firstInSection = true;
+    }
+
+    private void nextElement() throws IOException {
+        if (!firstInSection) {
+            writer.write(',');
+        }
+
+        firstInSection = false;
+    }
+
+    private void writeElement(JSONStreamAware jsonElement) throws IOException {
+        nextElement();
+
+        jsonElement.writeJSONString(writer);
+    }
+
+    /* Keeps what is written until it's sent, unless it grows past the cap. After that everything is sent as it's written */
+    static class CappedBuffer extends OutputStream {
+        private final OutputStream outputStream;
+        private final int cap;
+
+        private ByteArrayOutputStream buffer;
+        private boolean overflowed;
+
+        CappedBuffer(OutputStream outputStream, int cap) {
+            this.outputStream = outputStream;
+            this.cap = cap;
+
+            buffer = new ByteArrayOutputStream(Math.min(BUFFER_SIZE, cap));
+            overflowed = false;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (buffer != null && buffer.size() + 1 > cap) {
+                overflow();
+            }
+
+            if (buffer != null) {
+                buffer.write(b);
+            } else {
+                outputStream.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (buffer != null && buffer.size() + length > cap) {
+                overflow();
+            }
+
+            if (buffer != null) {
+                buffer.write(bytes, offset, length);
+            } else {
+                outputStream.write(bytes, offset, length);
+            }
+        }
+
+        boolean isOverflowed() {
+            return overflowed;
+        }
+
+        void sendBuffered() throws IOException {
+            if (buffer != null) {
+                buffer.writeTo(outputStream);
+
+                buffer = null;
+            }
+        }
+
+        private void overflow() throws IOException {
+            overflowed = true;
+
+            sendBuffered();
+        }
+    }
+}
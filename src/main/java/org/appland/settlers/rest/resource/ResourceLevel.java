@@ -1,5 +1,16 @@
 package org.appland.settlers.rest.resource;
 
 public enum ResourceLevel {
-    LOW, MEDIUM, HIGH
+    LOW, MEDIUM, HIGH;
+
+    /* Returns null if there is no resource level with the name */
+    public static ResourceLevel fromJson(Object resourceLevel) {
+        for (ResourceLevel level : values()) {
+            if (level.name().equals(resourceLevel)) {
+                return level;
+            }
+        }
+
+        return null;
+    }
 }
@@ -0,0 +1,428 @@
+package org.appland.settlers.rest.resource;
+
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends the changes for one websocket session. Changes that arrive while a message is being sent, or before the
+ * flush interval has passed, are merged into a single pending delta instead of being queued. A slow client
+ * therefore gets fewer and larger messages with only the latest state, and never an ever growing queue.
+ *
+ * A client that falls too far behind stops getting changes. It's sent a marker telling it to fetch its view again
+ * and the changes start over from there, which bounds the memory a session can use.
+ *
+ * A client that only shows part of the map can set a viewport. Changes to where workers and wild animals are going
+ * are then only sent if they happen within a margin of it. Nothing is sent while the snapshot of what is in a new
+ * viewport is being put together, and the snapshot goes between the changes from before and after the move.
+ *
+ * Replies to messages from the client, like errors, are sent before the changes that are waiting.
+ *
+ * A client can ask for the newly discovered land as runs instead of one point each. The runs are built when the
+ * message is sent, after the deltas have been merged, so a client that is behind gets the runs for all of it at once.
+ *
+ * The sessions are flushed on a shared pool. Each session has at most one flush scheduled or running at a time so
+ * its messages stay in order, while a session that is slow to encode doesn't hold up the others.
+ */
+class SessionOutbox {
+
+    static final String FLUSH_INTERVAL_PROPERTY = "settlers.websocket.flushInterval";
+    static final String MAX_LAG_PROPERTY = "settlers.websocket.maxLag";
+    static final String MAX_IN_FLIGHT_BYTES_PROPERTY = "settlers.websocket.maxInFlightBytes";
+    static final String MAX_PENDING_CHANGES_PROPERTY = "settlers.websocket.maxPendingChanges";
+    static final String FLUSH_THREADS_PROPERTY = "settlers.websocket.flushThreads";
+
+    private static final long FLUSH_INTERVAL = Long.getLong(FLUSH_INTERVAL_PROPERTY, 100);
+    private static final long MAX_LAG = Long.getLong(MAX_LAG_PROPERTY, 5000);
+    private static final long MAX_IN_FLIGHT_BYTES = Long.getLong(MAX_IN_FLIGHT_BYTES_PROPERTY, 4 * 1024 * 1024);
+    private static final int MAX_PENDING_CHANGES = Integer.getInteger(MAX_PENDING_CHANGES_PROPERTY, 50000);
+    private static final int FLUSH_THREADS = Integer.getInteger(FLUSH_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+
+    private static final String RESYNC_REQUIRED_MESSAGE = "{\"resyncRequired\":true}";
+
+    /* Replies beyond this are dropped so a client can't make the outbox grow by sending bad messages */
+    private static final int MAX_REPLIES = 16;
+
+    private static final AtomicInteger flusherThreads = new AtomicInteger();
+
+    private static final ScheduledExecutorService flusher = Executors.newScheduledThreadPool(FLUSH_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "websocket-flusher-" + flusherThreads.incrementAndGet());
+
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    private final Session session;
+    private final BinaryChangesEncoder binaryEncoder;
+    private final long maxLag;
+    private final int maxPendingChanges;
+    private final long maxInFlightBytes;
+
+    /* Guarded by this */
+    private final Deque<String> replies;
+    private ChangesDelta pending;
+    private ChangesDelta beforeViewportMoved;
+    private Viewport viewport;
+    private boolean awaitingSnapshot;
+    private boolean flushScheduled;
+    private boolean sending;
+    private boolean closed;
+    private boolean resyncRequired;
+    private boolean newLandAsRuns;
+    private int mapWidth;
+    private int mapHeight;
+    private long lastFlush;
+    private long sendStarted;
+    private long inFlightBytes;
+    private long coalescedDeltas;
+    private long resyncs;
+
+    /* The binary encoder is null for sessions that use the json protocol */
+    SessionOutbox(Session session, BinaryChangesEncoder binaryEncoder) {
+        this(session, binaryEncoder, MAX_LAG, MAX_PENDING_CHANGES, MAX_IN_FLIGHT_BYTES);
+    }
+
+    SessionOutbox(Session session, BinaryChangesEncoder binaryEncoder, long maxLag, int maxPendingChanges, long maxInFlightBytes) {
+        this.session = session;
+        this.binaryEncoder = binaryEncoder;
+        this.maxLag = maxLag;
+        this.maxPendingChanges = maxPendingChanges;
+        this.maxInFlightBytes = maxInFlightBytes;
+
+        replies = new ArrayDeque<>();
+        pending = null;
+        beforeViewportMoved = null;
+        viewport = null;
+        awaitingSnapshot = false;
+        flushScheduled = false;
+        sending = false;
+        closed = false;
+        resyncRequired = false;
+        newLandAsRuns = false;
+        mapWidth = 0;
+        mapHeight = 0;
+        lastFlush = 0;
+        sendStarted = 0;
+        inFlightBytes = 0;
+        coalescedDeltas = 0;
+        resyncs = 0;
+    }
+
+    Session getSession() {
+        return session;
+    }
+
+    synchronized void offer(ChangesDelta delta) {
+        if (closed || delta.isEmpty()) {
+            return;
+        }
+
+        /* The client fetches its whole view after the resync so the changes until then are not needed */
+        if (resyncRequired) {
+            return;
+        }
+
+        if (viewport != null) {
+            delta = delta.copyInside(viewport);
+
+            if (delta.isEmpty()) {
+                return;
+            }
+        }
+
+        /* The delta is shared with the other sessions of the player so it's never merged into */
+        if (pending == null) {
+            pending = delta.copy();
+        } else {
+            pending.merge(delta);
+
+            coalescedDeltas++;
+        }
+
+        if (isFallingBehind()) {
+            requireResync();
+        }
+
+        scheduleFlush();
+    }
+
+    synchronized void offerReply(String message) {
+        if (closed || replies.size() >= MAX_REPLIES) {
+            return;
+        }
+
+        replies.add(message);
+
+        scheduleFlush();
+    }
+
+    /* A null viewport stops limiting the changes. Nothing is sent until the snapshot of the new viewport is added */
+    synchronized void setViewport(Viewport viewport) {
+        this.viewport = viewport == null ? null : viewport.withMargin();
+
+        /* Keep the changes from before the move apart so the snapshot can go after them */
+        if (!awaitingSnapshot) {
+            beforeViewportMoved = pending;
+            pending = null;
+        }
+
+        awaitingSnapshot = true;
+    }
+
+    /* The snapshot has what was in the viewport when it moved, so the changes offered since then are newer and win */
+    synchronized void addSnapshot(ChangesDelta snapshot) {
+        if (!awaitingSnapshot) {
+            return;
+        }
+
+        awaitingSnapshot = false;
+
+        if (!closed && !resyncRequired) {
+            ChangesDelta delta = beforeViewportMoved;
+
+            if (delta == null) {
+                delta = snapshot.copy();
+            } else {
+                delta.merge(snapshot);
+            }
+
+            if (pending != null) {
+                delta.merge(pending);
+            }
+
+            pending = delta.isEmpty() ? null : delta;
+
+            if (isFallingBehind()) {
+                requireResync();
+            }
+        }
+
+        beforeViewportMoved = null;
+
+        if (pending != null || resyncRequired || !replies.isEmpty()) {
+            scheduleFlush();
+        }
+    }
+
+    /* The runs are over the whole map, like the discovered land in the player's view */
+    synchronized void sendNewDiscoveredLandAsRuns(int mapWidth, int mapHeight) {
+        this.newLandAsRuns = true;
+        this.mapWidth = mapWidth;
+        this.mapHeight = mapHeight;
+    }
+
+    synchronized long getCoalescedDeltas() {
+        return coalescedDeltas;
+    }
+
+    synchronized long getInFlightBytes() {
+        return inFlightBytes;
+    }
+
+    /* Returns for how long the message in flight has been on its way, or 0 if there is no message in flight */
+    synchronized long getLag() {
+        return sending ? System.currentTimeMillis() - sendStarted : 0;
+    }
+
+    synchronized long getResyncs() {
+        return resyncs;
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    synchronized void close() {
+        closed = true;
+        replies.clear();
+        pending = null;
+        beforeViewportMoved = null;
+    }
+
+    /* Must be called while holding the lock */
+    private boolean isFallingBehind() {
+        if (sending && System.currentTimeMillis() - sendStarted > maxLag) {
+            return true;
+        }
+
+        return pending != null && pending.size() > maxPendingChanges;
+    }
+
+    /* Must be called while holding the lock */
+    private void requireResync() {
+        pending = null;
+        beforeViewportMoved = null;
+        resyncRequired = true;
+
+        resyncs++;
+
+        System.out.println("Websocket client is falling behind, requiring a resync. In flight: " + inFlightBytes +
+                " bytes for " + getLag() + " (ms). Resyncs for this session: " + resyncs);
+    }
+
+    /* Must be called while holding the lock. The next flush is scheduled when the message in flight is sent */
+    private void scheduleFlush() {
+        if (flushScheduled || sending || closed || awaitingSnapshot) {
+            return;
+        }
+
+        long delay = Math.max(0, lastFlush + FLUSH_INTERVAL - System.currentTimeMillis());
+
+        flushScheduled = true;
+
+        flusher.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        ChangesDelta delta = null;
+        String reply = null;
+        boolean asRuns;
+        int width;
+        int height;
+
+        synchronized (this) {
+            flushScheduled = false;
+
+            if (sending || closed || awaitingSnapshot) {
+                return;
+            }
+
+            if (!session.isOpen()) {
+                close();
+
+                return;
+            }
+
+            /* Changes offered after the resync marker is taken for sending are sent after it */
+            if (!replies.isEmpty()) {
+                reply = replies.poll();
+            } else if (resyncRequired) {
+                resyncRequired = false;
+            } else if (pending != null) {
+                delta = pending;
+                pending = null;
+            } else {
+                return;
+            }
+
+            sending = true;
+            lastFlush = System.currentTimeMillis();
+            sendStarted = lastFlush;
+
+            asRuns = newLandAsRuns;
+            width = mapWidth;
+            height = mapHeight;
+        }
+
+        try {
+            if (delta != null && asRuns) {
+                delta = DiscoveredLand.withNewLandAsRuns(delta, width, height);
+            }
+
+            if (reply != null) {
+                sendReply(reply);
+            } else if (binaryEncoder != null) {
+                sendBinary(delta);
+            } else {
+                sendText(delta);
+            }
+        } catch (Throwable t) {
+            System.out.println("Exception while sending updates to frontend: " + t);
+            t.printStackTrace();
+
+            synchronized (this) {
+                sending = false;
+                inFlightBytes = 0;
+
+                /* Whatever is waiting would otherwise stay until something more is offered */
+                if (!session.isOpen()) {
+                    close();
+                } else if (pending != null || resyncRequired || !replies.isEmpty()) {
+                    scheduleFlush();
+                }
+            }
+        }
+    }
+
+    private void sendReply(String reply) {
+        synchronized (this) {
+            inFlightBytes = reply.length();
+        }
+
+        session.getAsyncRemote().sendText(reply, this::onSent);
+    }
+
+    private void sendText(ChangesDelta delta) {
+        String message = RESYNC_REQUIRED_MESSAGE;
+
+        if (delta != null) {
+            message = delta.toJson();
+
+            if (isTooLarge(message.length())) {
+                message = RESYNC_REQUIRED_MESSAGE;
+            }
+        }
+
+        synchronized (this) {
+            inFlightBytes = message.length();
+        }
+
+        session.getAsyncRemote().sendText(message, this::onSent);
+    }
+
+    private void sendBinary(ChangesDelta delta) {
+        ByteBuffer message = BinaryChangesEncoder.resyncRequired();
+
+        if (delta != null) {
+            message = binaryEncoder.encode(delta);
+
+            if (isTooLarge(message.remaining())) {
+                message = BinaryChangesEncoder.resyncRequired();
+            }
+        }
+
+        synchronized (this) {
+            inFlightBytes = message.remaining();
+        }
+
+        session.getAsyncRemote().sendBinary(message, this::onSent);
+    }
+
+    /* Don't hand a huge message to the socket, the client is better off fetching its view */
+    private boolean isTooLarge(long messageSize) {
+        if (messageSize <= maxInFlightBytes) {
+            return false;
+        }
+
+        synchronized (this) {
+            requireResync();
+
+            /* The resync marker is sent instead of the message */
+            resyncRequired = false;
+        }
+
+        return true;
+    }
+
+    private void onSent(SendResult result) {
+        if (!result.isOK()) {
+            System.out.println("Failed to send updates to frontend: " + result.getException());
+        }
+
+        synchronized (this) {
+            sending = false;
+            inFlightBytes = 0;
+
+            if (pending != null || resyncRequired || !replies.isEmpty()) {
+                scheduleFlush();
+            }
+        }
+    }
+}
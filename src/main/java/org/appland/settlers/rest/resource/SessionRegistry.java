@@ -0,0 +1,237 @@
+package org.appland.settlers.rest.resource;
+
+import org.appland.settlers.model.GameMap;
+import org.appland.settlers.model.Player;
+
+import javax.websocket.Session;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the open websocket sessions, by session id, by game and by player. The game's fan-out looks up the
+ * sessions to pass the changes on to here, and is told which players to follow as sessions come and go. Everything
+ * can be called both from the threads that run the games and from the websocket threads.
+ */
+class SessionRegistry {
+
+    static final SessionRegistry sessionRegistry = new SessionRegistry();
+
+    private final Map<String, Registration> sessions;
+    private final Map<GameMap, GameSessions> sessionsForGames;
+
+    private SessionRegistry() {
+        sessions = new ConcurrentHashMap<>();
+        sessionsForGames = new ConcurrentHashMap<>();
+    }
+
+    /* The player is null for spectators. Returns false, and keeps nothing, if the game has gone away */
+    boolean register(Session session, GameMap map, Player player, SessionOutbox outbox) {
+        GameSessions gameSessions = sessionsForGames.computeIfAbsent(map, gameMap -> GameChangesFeed.isReleased(gameMap) ? null : new GameSessions());
+
+        if (gameSessions == null) {
+            outbox.close();
+
+            return false;
+        }
+
+        GameChangesFanOut fanOut = GameChangesFanOut.getFanOut(map);
+        Registration registration = new Registration(session.getId(), map, player, outbox, fanOut);
+
+        Registration previous = sessions.put(session.getId(), registration);
+
+        if (previous != null) {
+            remove(previous);
+        }
+
+        /* Held while changing which players are followed, never while changes are passed on */
+        synchronized (gameSessions) {
+
+            /* The game went away while the session was being registered */
+            if (gameSessions.released) {
+                sessions.remove(session.getId(), registration);
+
+                outbox.close();
+
+                return false;
+            }
+
+            gameSessions.registrations.add(registration);
+
+            if (player == null) {
+                gameSessions.spectators.add(outbox);
+
+                for (Player playerInGame : map.getPlayers()) {
+                    fanOut.follow(playerInGame);
+                }
+            } else {
+                gameSessions.outboxes.computeIfAbsent(player, p -> ConcurrentHashMap.newKeySet()).add(outbox);
+
+                fanOut.follow(player);
+            }
+        }
+
+        return true;
+    }
+
+    void unregister(Session session) {
+        Registration registration = sessions.remove(session.getId());
+
+        if (registration != null) {
+            remove(registration);
+        }
+    }
+
+    /* Closes all sessions of a game that is going away */
+    void unregisterGame(GameMap map) {
+        GameSessions gameSessions = sessionsForGames.remove(map);
+
+        if (gameSessions == null) {
+            return;
+        }
+
+        synchronized (gameSessions) {
+            gameSessions.released = true;
+
+            for (Registration registration : gameSessions.registrations) {
+                sessions.remove(registration.sessionId, registration);
+
+                registration.outbox.close();
+            }
+
+            gameSessions.registrations.clear();
+            gameSessions.outboxes.clear();
+            gameSessions.spectators.clear();
+        }
+    }
+
+    /* Does nothing for spectators and for sessions that are not registered */
+    void setViewport(Session session, Viewport viewport) {
+        Registration registration = sessions.get(session.getId());
+
+        if (registration == null || registration.player == null) {
+            return;
+        }
+
+        registration.fanOut.moveViewport(registration.player, registration.outbox, viewport);
+    }
+
+    /* Returns null for sessions that are not registered */
+    GameMap getMap(Session session) {
+        Registration registration = sessions.get(session.getId());
+
+        return registration == null ? null : registration.map;
+    }
+
+    /* Does nothing for sessions that are not registered */
+    void reply(Session session, String message) {
+        Registration registration = sessions.get(session.getId());
+
+        if (registration != null) {
+            registration.outbox.offerReply(message);
+        }
+    }
+
+    int getNumberOfSessions(GameMap map) {
+        GameSessions gameSessions = sessionsForGames.get(map);
+
+        return gameSessions == null ? 0 : gameSessions.registrations.size();
+    }
+
+    /* The sessions that follow the player's changes */
+    Set<SessionOutbox> getOutboxes(GameMap map, Player player) {
+        GameSessions gameSessions = sessionsForGames.get(map);
+
+        if (gameSessions == null) {
+            return Collections.emptySet();
+        }
+
+        return gameSessions.outboxes.getOrDefault(player, Collections.emptySet());
+    }
+
+    Set<SessionOutbox> getSpectators(GameMap map) {
+        GameSessions gameSessions = sessionsForGames.get(map);
+
+        if (gameSessions == null) {
+            return Collections.emptySet();
+        }
+
+        return gameSessions.spectators;
+    }
+
+    private void remove(Registration registration) {
+        registration.outbox.close();
+
+        GameSessions gameSessions = sessionsForGames.get(registration.map);
+
+        if (gameSessions == null) {
+            return;
+        }
+
+        synchronized (gameSessions) {
+            if (!gameSessions.registrations.remove(registration)) {
+                return;
+            }
+
+            /* A player's changes are not followed anymore once its last session is gone, unless there are spectators */
+            if (registration.player == null) {
+                gameSessions.spectators.remove(registration.outbox);
+
+                if (gameSessions.spectators.isEmpty()) {
+                    for (Player player : registration.map.getPlayers()) {
+                        if (!gameSessions.outboxes.containsKey(player)) {
+                            registration.fanOut.unfollow(player);
+                        }
+                    }
+                }
+            } else {
+                gameSessions.outboxes.computeIfPresent(registration.player, (player, playerOutboxes) -> {
+                    playerOutboxes.remove(registration.outbox);
+
+                    return playerOutboxes.isEmpty() ? null : playerOutboxes;
+                });
+
+                if (!gameSessions.outboxes.containsKey(registration.player) && gameSessions.spectators.isEmpty()) {
+                    registration.fanOut.unfollow(registration.player);
+                }
+            }
+
+            /* The entry for the game stays until the game goes away so sessions that come later find it */
+        }
+    }
+
+    /* The sessions of one game. The sets are read without locking when changes are passed on */
+    private static class GameSessions {
+        private final Set<Registration> registrations;
+        private final Map<Player, Set<SessionOutbox>> outboxes;
+        private final Set<SessionOutbox> spectators;
+
+        /* Guarded by this */
+        private boolean released;
+
+        private GameSessions() {
+            registrations = ConcurrentHashMap.newKeySet();
+            outboxes = new ConcurrentHashMap<>();
+            spectators = ConcurrentHashMap.newKeySet();
+
+            released = false;
+        }
+    }
+
+    private static class Registration {
+        private final String sessionId;
+        private final GameMap map;
+        private final Player player;
+        private final SessionOutbox outbox;
+        private final GameChangesFanOut fanOut;
+
+        private Registration(String sessionId, GameMap map, Player player, SessionOutbox outbox, GameChangesFanOut fanOut) {
+            this.sessionId = sessionId;
+            this.map = map;
+            this.player = player;
+            this.outbox = outbox;
+            this.fanOut = fanOut;
+        }
+    }
+}
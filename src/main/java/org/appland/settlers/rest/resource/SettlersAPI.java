@@ -4,9 +4,8 @@ import org.appland.settlers.maps.MapFile;
 import org.appland.settlers.model.Building;
 import org.appland.settlers.model.BuildingCapturedMessage;
 import org.appland.settlers.model.BuildingLostMessage;
-import org.appland.settlers.model.Crop;
-import org.appland.settlers.model.DecorationType;
 import org.appland.settlers.model.Flag;
+import org.appland.settlers.model.GameChangesList;
 import org.appland.settlers.model.GameMap;
 import org.appland.settlers.model.GeologistFindMessage;
 import org.appland.settlers.model.Headquarter;
@@ -23,16 +22,11 @@ import org.appland.settlers.model.Point;
 import org.appland.settlers.model.ProductionDataPoint;
 import org.appland.settlers.model.ProductionDataSeries;
 import org.appland.settlers.model.Road;
-import org.appland.settlers.model.Sign;
-import org.appland.settlers.model.Size;
 import org.appland.settlers.model.StatisticsManager;
-import org.appland.settlers.model.Stone;
 import org.appland.settlers.model.StoreHouseIsReadyMessage;
 import org.appland.settlers.model.TransportCategory;
-import org.appland.settlers.model.Tree;
 import org.appland.settlers.model.UnderAttackMessage;
 import org.appland.settlers.model.WildAnimal;
-import org.appland.settlers.model.Worker;
 import org.appland.settlers.rest.GameTicker;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -43,20 +37,23 @@ import javax.servlet.ServletContext;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import java.awt.Color;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import static java.lang.String.format;
@@ -142,7 +139,7 @@ public class SettlersAPI {
 
     @GET
     @Path("/maps/{mapId}/terrain")
-    public Response getTerrainForMap(@PathParam("mapId") String mapId) throws Exception {
+    public Response getTerrainForMap(@PathParam("mapId") String mapId, @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding) throws Exception {
         MapFile mapFile = (MapFile)idManager.getObject(mapId);
 
         if (mapFile == null) {
@@ -154,7 +151,17 @@ public class SettlersAPI {
             return Response.status(404).entity(message.toJSONString()).build();
         }
 
-        return Response.status(200).entity(utils.mapFileTerrainToJson(mapFile).toJSONString()).build();
+        byte[] terrain = MapFileTerrainCache.mapFileTerrainCache.getCompressedTerrain(mapFile, utils);
+
+        /* Send the terrain as it's stored unless the client can't handle gzip */
+        if (MapFileTerrainCache.acceptsGzip(acceptEncoding)) {
+            return Response.status(200).entity(terrain)
+                    .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+
+        return Response.status(200).entity(MapFileTerrainCache.decompress(terrain)).header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING).build();
     }
 
     @GET
@@ -346,26 +353,124 @@ public class SettlersAPI {
 
                 gameTicker.startGame(gameResource);
 
+                /* Give back the ids of removed objects while the game runs */
+                GameIdReclaimer.startReclaiming(map, idManager);
+
+                /* Keep the latest changes so clients can catch up without fetching their whole view */
+                PlayerChangesHistory.startRecording(map);
+
                 return Response.status(200).entity(utils.gameToJson(map).toJSONString()).build();
             }
 
             return Response.status(400).build();  // Add a bad request message
         }
 
-        if (jsonUpdates.containsKey("resources") && gameObject instanceof GameResource) {
-            ResourceLevel level = ResourceLevel.valueOf((String) jsonUpdates.get("resources"));
+        if (jsonUpdates.containsKey("tickPolicy") || jsonUpdates.containsKey("speed") || jsonUpdates.containsKey("resources")) {
+            GameResource gameResource;
 
-            GameResource gamePlaceholder = (GameResource) gameObject;
+            if (gameObject instanceof GameMap) {
+                gameResource = getGameResourceForMap((GameMap) gameObject);
+            } else {
+                gameResource = (GameResource) gameObject;
+            }
 
-            gamePlaceholder.setResource(level);
+            if (gameResource == null) {
+                JSONObject message = new JSONObject();
 
-            return Response.status(200).entity(utils.gamePlaceholderToJson(gamePlaceholder).toJSONString()).build();
+                message.put("status", "Error");
+                message.put("message", format("No running game with id %s exists", gameId));
+
+                return Response.status(404).entity(message.toJSONString()).build();
+            }
+
+            /* Check all the settings before changing any of them so a bad value leaves the game as it was */
+            TickPolicy tickPolicy = null;
+            GameSpeed speed = null;
+            ResourceLevel resources = null;
+
+            if (jsonUpdates.containsKey("tickPolicy")) {
+                tickPolicy = TickPolicy.fromJson(jsonUpdates.get("tickPolicy"));
+
+                if (tickPolicy == null) {
+                    JSONObject message = new JSONObject();
+
+                    message.put("status", "Error");
+                    message.put("message", format("No tick policy %s, use one of %s", jsonUpdates.get("tickPolicy"), Arrays.toString(TickPolicy.values())));
+
+                    return Response.status(400).entity(message.toJSONString()).build();
+                }
+            }
+
+            if (jsonUpdates.containsKey("speed")) {
+                speed = GameSpeed.fromJson(jsonUpdates.get("speed"));
+
+                if (speed == null) {
+                    JSONObject message = new JSONObject();
+
+                    message.put("status", "Error");
+                    message.put("message", format("No game speed %s, use one of %s", jsonUpdates.get("speed"), Arrays.toString(GameSpeed.values())));
+
+                    return Response.status(400).entity(message.toJSONString()).build();
+                }
+            }
+
+            if (jsonUpdates.containsKey("resources")) {
+                resources = ResourceLevel.fromJson(jsonUpdates.get("resources"));
+
+                if (resources == null || gameObject instanceof GameMap) {
+                    JSONObject message = new JSONObject();
+
+                    message.put("status", "Error");
+
+                    if (resources == null) {
+                        message.put("message", format("No resource level %s, use one of %s", jsonUpdates.get("resources"), Arrays.toString(ResourceLevel.values())));
+                    } else {
+                        message.put("message", "The resources can only be changed before the game is started");
+                    }
+
+                    return Response.status(400).entity(message.toJSONString()).build();
+                }
+            }
+
+            if (tickPolicy != null) {
+                gameResource.setTickPolicy(tickPolicy);
+            }
+
+            /* The game loop picks up the new speed on its next tick */
+            if (speed != null) {
+                gameResource.setSpeed(speed);
+            }
+
+            if (resources != null) {
+                gameResource.setResource(resources);
+            }
+
+            if (gameObject instanceof GameMap) {
+                JSONObject jsonGame = utils.gameToJson((GameMap) gameObject);
+
+                jsonGame.put("tickPolicy", gameResource.getTickPolicy().name());
+                jsonGame.put("speed", gameResource.getSpeed().name());
+
+                return Response.status(200).entity(jsonGame.toJSONString()).build();
+            }
+
+            return Response.status(200).entity(utils.gamePlaceholderToJson(gameResource).toJSONString()).build();
         }
 
         /* Return bad request (400) if there is no mapFileId included */
         return Response.status(400).build(); // The scope of this is all changes, not only mapId
     }
 
+    private GameResource getGameResourceForMap(GameMap map) {
+        for (GameResource gameResource : startedGames) {
+            if (gameResource.getMap() == map) {
+                return gameResource;
+            }
+        }
+
+        return null;
+    }
+
     @DELETE
     @Path("/games/{gameId}")
     public Response deleteGame(@PathParam("gameId") String gameId) {
@@ -383,19 +488,33 @@ public class SettlersAPI {
 
         if (gameObject instanceof GameResource) {
             gameResources.remove(gameObject);
+
+            /* Free up the id */
+            idManager.remove(gameObject);
         } else {
-            startedGames.remove(gameObject); // TODO: type is wrong - startedGames is GameResources, gameObject is GameMap
-        }
+            GameMap map = (GameMap) gameObject;
+            GameResource gameResource = getGameResourceForMap(map);
 
-        /* Free up the id */
-        idManager.remove(gameObject);
+            /* Stop the game before its objects are let go */
+            if (gameResource != null) {
+                GameTicker gameTicker = (GameTicker) context.getAttribute(GAME_TICKER);
+
+                gameTicker.stopGame(gameResource);
+
+                startedGames.remove(gameResource);
+                gameResources.remove(gameResource);
+            }
+
+            /* Let go of what is kept for the game and free up the ids of the game and everything in it */
+            GameResource.releaseGame(map);
+        }
 
         return Response.status(200).build();
     }
 
     @GET
     @Path("/games/{gameId}/players")
-    public Response getPlayersForGame(@PathParam("gameId") String gameId) {
+    public Response getPlayersForGame(@PathParam("gameId") String gameId, @QueryParam("discoveredLand") String discoveredLandFormat) {
         Object gameObject = idManager.getObject(gameId);
 
         if (gameObject == null) {
@@ -414,6 +533,15 @@ public class SettlersAPI {
         } else {
             GameMap map = (GameMap) gameObject;
 
+            /* The land as runs is read from the game so the game must not change while it's encoded */
+            if (DiscoveredLand.RUNS_FORMAT.equals(discoveredLandFormat)) {
+                synchronized (map) {
+                    JSONArray jsonPlayers = utils.playersToJson(map.getPlayers(), DiscoveredLand.getDiscoveredLand(map));
+
+                    return Response.status(200).entity(jsonPlayers.toJSONString()).build();
+                }
+            }
+
             JSONArray jsonPlayers = utils.playersToJson(map.getPlayers());
 
             return Response.status(200).entity(jsonPlayers.toJSONString()).build();
@@ -596,7 +724,7 @@ public class SettlersAPI {
 
     @GET
     @Path("/games/{gameId}/map/terrain")
-    public Response getTerrainForMapInGame(@PathParam("gameId") String gameId) {
+    public Response getTerrainForMapInGame(@PathParam("gameId") String gameId, @Context Request request) {
         GameMap map = (GameMap)idManager.getObject(gameId);
 
         if (map == null) {
@@ -608,13 +736,20 @@ public class SettlersAPI {
             return Response.status(404).entity(message.toJSONString()).build();
         }
 
-        JSONObject terrain;
+        TerrainCache.EncodedTerrain terrain = TerrainCache.getTerrainCache(map).getTerrain(utils);
 
-        synchronized (map) {
-            terrain = utils.terrainToJson(map);
+        /* Let clients that already have the terrain keep it */
+        CacheControl cacheControl = new CacheControl();
+
+        cacheControl.setNoCache(true);
+
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(terrain.getEntityTag());
+
+        if (notModified != null) {
+            return notModified.cacheControl(cacheControl).build();
         }
 
-        return Response.status(200).entity(terrain.toJSONString()).build();
+        return Response.status(200).entity(terrain.getBytes()).tag(terrain.getEntityTag()).cacheControl(cacheControl).build();
     }
 
     @PUT
@@ -1362,7 +1497,9 @@ public class SettlersAPI {
 
     @GET
     @Path("/games/{gameId}/players/{playerId}/view")
-    public Response getViewForPlayer(@PathParam("gameId") String gameId, @PathParam("playerId") String playerId) {
+    public Response getViewForPlayer(@PathParam("gameId") String gameId, @PathParam("playerId") String playerId, @QueryParam("since") Long since, @QueryParam("discoveredLand") String discoveredLandFormat,
+                                     @QueryParam("availableConstruction") String availableConstructionFormat,
+                                     @QueryParam("minX") Integer minX, @QueryParam("minY") Integer minY, @QueryParam("maxX") Integer maxX, @QueryParam("maxY") Integer maxY) {
 
         GameMap map = (GameMap) idManager.getObject(gameId);
         Player player = (Player) idManager.getObject(playerId);
@@ -1395,217 +1532,78 @@ public class SettlersAPI {
             return Response.status(404).entity(message.toJSONString()).build();
         }
 
-        /* Create instances outside the synchronized block when possible */
-        JSONObject jsonView = new JSONObject();
-
-        JSONArray  jsonHouses                = new JSONArray();
-        JSONArray  trees                     = new JSONArray();
-        JSONArray  jsonStones                = new JSONArray();
-        JSONArray  jsonWorkers               = new JSONArray();
-        JSONArray  jsonWildAnimals           = new JSONArray();
-        JSONArray  jsonFlags                 = new JSONArray();
-        JSONArray  jsonRoads                 = new JSONArray();
-        JSONArray  jsonDiscoveredPoints      = new JSONArray();
-        JSONArray  jsonBorders               = new JSONArray();
-        JSONArray  jsonSigns                 = new JSONArray();
-        JSONArray  jsonCrops                 = new JSONArray();
-        JSONObject jsonAvailableConstruction = new JSONObject();
-        JSONArray  jsonDeadTrees             = new JSONArray();
-        JSONArray  jsonDecorations           = new JSONArray();
-
-        jsonView.put("trees", trees);
-        jsonView.put("houses", jsonHouses);
-        jsonView.put("stones", jsonStones);
-        jsonView.put("workers", jsonWorkers);
-        jsonView.put("wildAnimals", jsonWildAnimals);
-        jsonView.put("flags", jsonFlags);
-        jsonView.put("roads", jsonRoads);
-        jsonView.put("discoveredPoints", jsonDiscoveredPoints);
-        jsonView.put("borders", jsonBorders);
-        jsonView.put("signs", jsonSigns);
-        jsonView.put("crops", jsonCrops);
-        jsonView.put("availableConstruction", jsonAvailableConstruction);
-        jsonView.put("deadTrees", jsonDeadTrees);
-        jsonView.put("decorations", jsonDecorations);
-
-        /* Protect access to the map to avoid interference */
-        synchronized (map) {
-            Set<Point> discoveredLand = player.getDiscoveredLand();
-
-            /* Fill in houses */
-            for (Building building : map.getBuildings()) {
-
-                if (!discoveredLand.contains(building.getPosition())) {
-                    continue;
-                }
-
-                jsonHouses.add(utils.houseToJson(building));
-            }
-
-            /* Fill in trees */
-            for (Tree tree : map.getTrees()) {
-                if (!discoveredLand.contains(tree.getPosition())) {
-                    continue;
-                }
-
-                trees.add(utils.treeToJson(tree));
-            }
+        /* The view is limited to a viewport if all of its bounds are given */
+        Viewport viewport = null;
 
-            /* Fill in stones */
-            for (Stone stone : map.getStones()) {
-
-                if (!discoveredLand.contains(stone.getPosition())) {
-                    continue;
-                }
-
-                jsonStones.add(utils.stoneToJson(stone));
-            }
-
-            /* Fill in workers */
-            for (Worker worker : map.getWorkers()) {
-
-                if (!discoveredLand.contains(worker.getPosition())) {
-                    continue;
-                }
-
-                if (worker.isInsideBuilding()) {
-                    continue;
-                }
-
-                jsonWorkers.add(utils.workerToJson(worker));
-            }
-
-            /* Fill in flags */
-            for (Flag flag : map.getFlags()) {
-
-                if (!discoveredLand.contains(flag.getPosition())) {
-                    continue;
-                }
-
-                jsonFlags.add(utils.flagToJson(flag));
-            }
-
-            /* Fill in roads */
-            for (Road road : map.getRoads()) {
-
-                boolean inside = false;
-
-                /* Filter roads the player cannot see */
-                for (Point p : road.getWayPoints()) {
-                    if (discoveredLand.contains(p)) {
-                        inside = true;
-
-                        break;
-                    }
-                }
-
-                if (!inside) {
-                    continue;
-                }
-
-                jsonRoads.add(utils.roadToJson(road));
-            }
-
-            /* Fill in the points the player has discovered */
-            for (Point point : discoveredLand) {
-                jsonDiscoveredPoints.add(utils.pointToJson(point));
-            }
-
-            jsonBorders.add(utils.borderToJson(player, playerId));
-
-            /* Fill in the signs */
-            for (Sign sign : map.getSigns()) {
-
-                if (!discoveredLand.contains(sign.getPosition())) {
-                    continue;
-                }
-
-                jsonSigns.add(utils.signToJson(sign));
-            }
-
-            /* Fill in wild animals */
-            for (WildAnimal animal : map.getWildAnimals()) {
+        if (minX != null || minY != null || maxX != null || maxY != null) {
+            if (minX == null || minY == null || maxX == null || maxY == null) {
+                JSONObject message = new JSONObject();
 
-                if (!discoveredLand.contains(animal.getPosition())) {
-                    continue;
-                }
+                message.put("status", "Error");
+                message.put("message", "A viewport needs all of minX, minY, maxX and maxY");
 
-                /* Animal is an extension of worker so the same method is used */
-                jsonWildAnimals.add(utils.wildAnimalToJson(animal));
+                return Response.status(400).entity(message.toJSONString()).build();
             }
 
-            /* Fill in crops */
-            for (Crop crop : map.getCrops()) {
+            viewport = new Viewport(minX, minY, maxX, maxY);
+        }
 
-                if (!discoveredLand.contains(crop.getPosition())) {
-                    continue;
-                }
+        /* Send only the changes since the given time if they are all still kept */
+        if (since != null) {
+            String changesSince = changesSinceToJson(map, player, since, viewport);
 
-                jsonCrops.add(utils.cropToJson(crop));
+            if (changesSince != null) {
+                return Response.status(200).entity(changesSince).build();
             }
+        }
 
-            /* Fill in dead trees */
-            for (Point point : map.getDeadTrees()) {
-                jsonDeadTrees.add(utils.pointToJson(point));
-            }
-
-            /* Fill in available construction */
-            for (Point point : map.getAvailableFlagPoints(player)) {
-
-                /* Filter points not discovered yet */
-                if (!player.getDiscoveredLand().contains(point)) {
-                    continue;
-                }
-
-                String key = "" + point.x + "," + point.y;
-
-                jsonAvailableConstruction.putIfAbsent(key, new JSONArray());
+        /* Keep the player's changes from the time of the view on so the client can ask for only what changed after it */
+        PlayerChangesHistory history = PlayerChangesHistory.getHistory(map);
 
-                ((JSONArray)jsonAvailableConstruction.get(key)).add("flag");
-            }
+        if (history != null) {
+            history.follow(player);
+        }
 
-            for (Map.Entry<Point, Size> site : map.getAvailableHousePoints(player).entrySet()) {
+        /* Write the view straight to the response instead of building it in memory first */
+        return Response.status(200).entity(new PlayerViewWriter(map, player, playerId, utils, DiscoveredLand.RUNS_FORMAT.equals(discoveredLandFormat), viewport,
+                AvailableConstructionRaster.BYTES_FORMAT.equals(availableConstructionFormat))).build();
+    }
 
-                /* Filter points not discovered yet */
-                if (!player.getDiscoveredLand().contains(site.getKey())) {
-                    continue;
-                }
+    /*
+    {'time': 1234,        -- the time to ask from next time
+     'since': 1200,
+     'changes': {...}     -- the changes merged, in the same format as over the websocket
+    }
+     */
+    private String changesSinceToJson(GameMap map, Player player, long since, Viewport viewport) {
+        PlayerChangesHistory history = PlayerChangesHistory.getHistory(map);
 
-                String key = "" + site.getKey().x + "," + site.getKey().y;
+        if (history == null) {
+            return null;
+        }
 
-                jsonAvailableConstruction.putIfAbsent(key, new JSONArray());
+        synchronized (map) {
+            List<GameChangesList> changesSince = history.getChangesSince(player, since);
 
-                ((JSONArray)jsonAvailableConstruction.get(key)).add("" + site.getValue().toString().toLowerCase());
+            if (changesSince == null) {
+                return null;
             }
 
-            for (Point point : map.getAvailableMinePoints(player)) {
-
-                /* Filter points not discovered yet */
-                if (!player.getDiscoveredLand().contains(point)) {
-                    continue;
-                }
-
-                String key = "" + point.x + "," + point.y;
+            long time = map.getCurrentTime();
 
-                jsonAvailableConstruction.putIfAbsent(key, new JSONArray());
+            ChangesDelta delta = new ChangesDelta(time);
 
-                ((JSONArray)jsonAvailableConstruction.get(key)).add("mine");
+            for (GameChangesList gameChangesList : changesSince) {
+                delta.merge(ChangesDelta.fromJson(utils.gameMonitoringEventsToJson(gameChangesList, player)));
             }
-        }
-
-        for (Map.Entry<Point, DecorationType> entry : map.getDecorations().entrySet()) {
-            Point point = entry.getKey();
-            DecorationType decorationType = entry.getValue();
 
-            /* Filter points not discovered yet */
-            if (!player.getDiscoveredLand().contains(point)) {
-                continue;
+            /* Where things outside of the viewport are going is left out, the same as over the websocket */
+            if (viewport != null) {
+                delta = delta.copyInside(viewport.withMargin());
             }
 
-            jsonDecorations.add(Utils.decorationToJson(decorationType, point));
+            return "{\"time\":" + time + ",\"since\":" + since + ",\"changes\":" + delta.toJson() + "}";
         }
-
-        return Response.status(200).entity(jsonView.toJSONString()).build();
     }
 
     @POST
@@ -1801,6 +1799,27 @@ public class SettlersAPI {
         return Response.status(200).entity(jsonResponse.toJSONString()).build();
     }
 
+    @GET
+    @Path("/games/{gameId}/statistics/compression")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getCompressionStatistics(@PathParam("gameId") String gameId) {
+        GameMap map = (GameMap)idManager.getObject(gameId);
+
+        /* The game can go away after it was looked up */
+        DeflateMetrics metrics = map == null ? null : DeflateMetrics.getMetrics(map);
+
+        if (metrics == null) {
+            JSONObject message = new JSONObject();
+
+            message.put("status", "Error");
+            message.put("message", format("No game with id %s exists", gameId));
+
+            return Response.status(404).entity(message.toJSONString()).build();
+        }
+
+        return Response.status(200).entity(metrics.toJson().toJSONString()).build();
+    }
+
     @PATCH
     @Path("/games/{gameId}/players/{playerId}/transportPriority")
     @Produces(MediaType.APPLICATION_JSON)
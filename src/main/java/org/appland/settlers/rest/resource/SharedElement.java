@@ -0,0 +1,74 @@
+package org.appland.settlers.rest.resource;
+
+import org.json.simple.JSONAware;
+import org.json.simple.JSONValue;
+
+import java.util.Arrays;
+
+/**
+ * An element of the changes that is the same for every player that sees it. It's encoded at most once as json and
+ * once in the binary protocol, and the encoded form is reused by every session it's sent to. The binary form refers
+ * to the string table of the game, so it's only reused for sessions that use the same table.
+ */
+class SharedElement implements JSONAware {
+
+    private final Object json;
+    private final BinaryChangesEncoder.StringTable stringTable;
+
+    private volatile String jsonString;
+    private volatile byte[] binary;
+
+    SharedElement(Object json, BinaryChangesEncoder.StringTable stringTable) {
+        this.json = json;
+        this.stringTable = stringTable;
+
+        jsonString = null;
+        binary = null;
+    }
+
+    Object getJson() {
+        return json;
+    }
+
+    @Override
+    public String toJSONString() {
+        String encoded = jsonString;
+
+        if (encoded == null) {
+            encoded = JSONValue.toJSONString(json);
+
+            jsonString = encoded;
+        }
+
+        return encoded;
+    }
+
+    byte[] getBinary(BinaryChangesEncoder.StringTable stringTable) {
+        if (stringTable != this.stringTable) {
+            return encode(stringTable);
+        }
+
+        byte[] encoded = binary;
+
+        if (encoded == null) {
+            encoded = encode(stringTable);
+
+            binary = encoded;
+        }
+
+        return encoded;
+    }
+
+    private byte[] encode(BinaryChangesEncoder.StringTable stringTable) {
+        BinaryChangesEncoder.ByteWriter writer = new BinaryChangesEncoder.ByteWriter(64);
+
+        BinaryChangesEncoder.writeElement(writer, json, stringTable);
+
+        return Arrays.copyOf(writer.getBytes(), writer.size());
+    }
+
+    @Override
+    public String toString() {
+        return toJSONString();
+    }
+}
@@ -0,0 +1,59 @@
+package org.appland.settlers.rest.resource;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The elements that have been encoded for the players of a game during the current tick. Every player gets its own
+ * list of changes but the game objects in them are shared, so a worker that several players see is only encoded
+ * once. The elements are dropped when the changes for the next tick arrive.
+ */
+class SharedElements {
+
+    private final BinaryChangesEncoder.StringTable stringTable;
+    private final Map<String, Map<Object, SharedElement>> sections;
+
+    private long time;
+
+    SharedElements() {
+        this(new BinaryChangesEncoder.StringTable());
+    }
+
+    SharedElements(BinaryChangesEncoder.StringTable stringTable) {
+        this.stringTable = stringTable;
+
+        sections = new HashMap<>();
+
+        time = -1;
+    }
+
+    /* The string table the binary form of the elements refers to */
+    BinaryChangesEncoder.StringTable getStringTable() {
+        return stringTable;
+    }
+
+    /* Called with the time of each list of changes before its elements are encoded */
+    synchronized void startTick(long time) {
+        if (time != this.time) {
+            this.time = time;
+
+            sections.clear();
+        }
+    }
+
+    synchronized <T> SharedElement get(String sectionName, T gameObject, Function<T, Object> toJson) {
+        Map<Object, SharedElement> section = sections.computeIfAbsent(sectionName, name -> new IdentityHashMap<>());
+
+        SharedElement element = section.get(gameObject);
+
+        if (element == null) {
+            element = new SharedElement(toJson.apply(gameObject), stringTable);
+
+            section.put(gameObject, element);
+        }
+
+        return element;
+    }
+}
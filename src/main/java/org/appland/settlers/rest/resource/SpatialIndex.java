@@ -0,0 +1,507 @@
+package org.appland.settlers.rest.resource;
+
+import org.appland.settlers.model.Building;
+import org.appland.settlers.model.Crop;
+import org.appland.settlers.model.Flag;
+import org.appland.settlers.model.GameChangesList;
+import org.appland.settlers.model.GameMap;
+import org.appland.settlers.model.Player;
+import org.appland.settlers.model.PlayerGameViewMonitor;
+import org.appland.settlers.model.Point;
+import org.appland.settlers.model.Road;
+import org.appland.settlers.model.Sign;
+import org.appland.settlers.model.Stone;
+import org.appland.settlers.model.Tree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The game objects that stay in place, grouped by the square chunk of the map they are in. A view is put together
+ * from the chunks the player has discovered instead of from everything on the map. The index is kept up to date
+ * from the changes of all players. Workers and wild animals move all the time without being reported and are not
+ * indexed.
+ *
+ * A view only compares the number of each kind of object with the map. Going through every object on the map to find
+ * missed changes, and starting over from the map, is done in the background so it never holds up a view.
+ */
+class SpatialIndex implements PlayerGameViewMonitor {
+
+    static final String VERIFY_INTERVAL_PROPERTY = "settlers.spatialIndex.verifyInterval";
+
+    private static final int CHUNK_SHIFT = 4;
+    private static final long VERIFY_INTERVAL = Long.getLong(VERIFY_INTERVAL_PROPERTY, 30000);
+
+    private static final Map<GameMap, SpatialIndex> indexes = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService verifier = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "spatial-index-verifier");
+
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    private final GameMap map;
+
+    /* Guarded by this */
+    private final Map<Long, Chunk> chunks;
+    private final Map<Object, Boolean> indexedObjects;
+    private int buildings;
+    private int flags;
+    private int roads;
+    private int trees;
+    private int stones;
+    private int crops;
+    private int signs;
+    private boolean stale;
+    private boolean rebuildScheduled;
+    private ScheduledFuture<?> verification;
+
+    private SpatialIndex(GameMap map) {
+        this.map = map;
+
+        chunks = new HashMap<>();
+        indexedObjects = new IdentityHashMap<>();
+    }
+
+    static SpatialIndex getIndex(GameMap map) {
+        SpatialIndex spatialIndex = indexes.computeIfAbsent(map, gameMap -> {
+            if (GameChangesFeed.isReleased(gameMap)) {
+                return null;
+            }
+
+            SpatialIndex index = new SpatialIndex(gameMap);
+
+            /* Hold the map so nothing changes between filling the index and subscribing to the changes */
+            synchronized (gameMap) {
+                index.rebuild();
+
+                GameChangesFeed.getFeed(gameMap).addMonitor(index);
+            }
+
+            index.startVerifying();
+
+            return index;
+        });
+
+        /* A game that is gone gets an empty index that is not kept */
+        if (spatialIndex == null) {
+            return new SpatialIndex(map);
+        }
+
+        return spatialIndex;
+    }
+
+    static void removeIndex(GameMap map) {
+        SpatialIndex index = indexes.remove(map);
+
+        if (index != null) {
+            index.stopVerifying();
+        }
+    }
+
+    static long chunkOf(Point point) {
+        return ((long) (point.x >> CHUNK_SHIFT) << 32) | ((point.y >> CHUNK_SHIFT) & 0xFFFFFFFFL);
+    }
+
+    /* Returns the chunks that contain at least one of the points */
+    static Set<Long> chunksOf(Collection<Point> points) {
+        Set<Long> chunkKeys = new HashSet<>();
+
+        for (Point point : points) {
+            chunkKeys.add(chunkOf(point));
+        }
+
+        return chunkKeys;
+    }
+
+    /* Must be called while holding the map. Only compares the numbers so it is cheap enough for every view. An index
+       that is found out of date is still used until it has been filled again from the map in the background */
+    synchronized void check() {
+        if (!stale && hasSameNumbers()) {
+            return;
+        }
+
+        stale = true;
+
+        if (!rebuildScheduled) {
+            rebuildScheduled = true;
+
+            verifier.execute(this::verifyInBackground);
+        }
+    }
+
+    /* Must be called while holding the map. Goes through every object on the map so it is not used for views */
+    synchronized void verify() {
+        if (stale || !isInSync()) {
+            System.out.println("Spatial index is out of sync with the map, rebuilding it");
+
+            rebuild();
+        }
+    }
+
+    private void verifyInBackground() {
+        try {
+            synchronized (map) {
+                synchronized (this) {
+                    rebuildScheduled = false;
+
+                    verify();
+                }
+            }
+        } catch (Throwable t) {
+            System.out.println("Exception while verifying the spatial index: " + t);
+            t.printStackTrace();
+        }
+    }
+
+    private synchronized void startVerifying() {
+        verification = verifier.scheduleWithFixedDelay(this::verifyInBackground, VERIFY_INTERVAL, VERIFY_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void stopVerifying() {
+        if (verification != null) {
+            verification.cancel(false);
+        }
+    }
+
+    private boolean hasSameNumbers() {
+        return map.getBuildings().size() == buildings &&
+               map.getFlags().size() == flags &&
+               map.getRoads().size() == roads &&
+               map.getTrees().size() == trees &&
+               map.getStones().size() == stones &&
+               map.getCrops().size() == crops &&
+               map.getSigns().size() == signs;
+    }
+
+    /* The objects don't move so they are in the right chunks as long as the index has the same objects as the map */
+    private boolean isInSync() {
+        return hasAll(map.getBuildings(), buildings) &&
+               hasAll(map.getFlags(), flags) &&
+               hasAll(map.getRoads(), roads) &&
+               hasAll(map.getTrees(), trees) &&
+               hasAll(map.getStones(), stones) &&
+               hasAll(map.getCrops(), crops) &&
+               hasAll(map.getSigns(), signs);
+    }
+
+    /* With as many indexed as there are on the map, all of the indexed ones are on the map if all on the map are indexed */
+    private boolean hasAll(Collection<?> gameObjects, int numberIndexed) {
+        if (gameObjects.size() != numberIndexed) {
+            return false;
+        }
+
+        for (Object gameObject : gameObjects) {
+            if (!indexedObjects.containsKey(gameObject)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    synchronized List<Building> getBuildings(Set<Long> chunkKeys) {
+        List<Building> result = new ArrayList<>();
+
+        for (Long chunkKey : chunkKeys) {
+            Chunk chunk = chunks.get(chunkKey);
+
+            if (chunk != null) {
+                result.addAll(chunk.buildings);
+            }
+        }
+
+        return result;
+    }
+
+    synchronized List<Flag> getFlags(Set<Long> chunkKeys) {
+        List<Flag> result = new ArrayList<>();
+
+        for (Long chunkKey : chunkKeys) {
+            Chunk chunk = chunks.get(chunkKey);
+
+            if (chunk != null) {
+                result.addAll(chunk.flags);
+            }
+        }
+
+        return result;
+    }
+
+    /* Roads that pass through several of the chunks are only returned once */
+    synchronized Collection<Road> getRoads(Set<Long> chunkKeys) {
+        Set<Road> result = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (Long chunkKey : chunkKeys) {
+            Chunk chunk = chunks.get(chunkKey);
+
+            if (chunk != null) {
+                result.addAll(chunk.roads);
+            }
+        }
+
+        return result;
+    }
+
+    synchronized List<Tree> getTrees(Set<Long> chunkKeys) {
+        List<Tree> result = new ArrayList<>();
+
+        for (Long chunkKey : chunkKeys) {
+            Chunk chunk = chunks.get(chunkKey);
+
+            if (chunk != null) {
+                result.addAll(chunk.trees);
+            }
+        }
+
+        return result;
+    }
+
+    synchronized List<Stone> getStones(Set<Long> chunkKeys) {
+        List<Stone> result = new ArrayList<>();
+
+        for (Long chunkKey : chunkKeys) {
+            Chunk chunk = chunks.get(chunkKey);
+
+            if (chunk != null) {
+                result.addAll(chunk.stones);
+            }
+        }
+
+        return result;
+    }
+
+    synchronized List<Crop> getCrops(Set<Long> chunkKeys) {
+        List<Crop> result = new ArrayList<>();
+
+        for (Long chunkKey : chunkKeys) {
+            Chunk chunk = chunks.get(chunkKey);
+
+            if (chunk != null) {
+                result.addAll(chunk.crops);
+            }
+        }
+
+        return result;
+    }
+
+    synchronized List<Sign> getSigns(Set<Long> chunkKeys) {
+        List<Sign> result = new ArrayList<>();
+
+        for (Long chunkKey : chunkKeys) {
+            Chunk chunk = chunks.get(chunkKey);
+
+            if (chunk != null) {
+                result.addAll(chunk.signs);
+            }
+        }
+
+        return result;
+    }
+
+    /* Every player gets the changes it can see so the same change can arrive several times */
+    @Override
+    public synchronized void onViewChangesForPlayer(Player player, GameChangesList gameChangesList) {
+        try {
+            applyChanges(gameChangesList);
+        } catch (RuntimeException e) {
+
+            /* The rest of the changes are missed */
+            stale = true;
+
+            throw e;
+        }
+    }
+
+    private void applyChanges(GameChangesList gameChangesList) {
+        for (Building building : gameChangesList.getRemovedBuildings()) {
+            if (unindex(building)) {
+                chunkAt(building.getPosition()).buildings.remove(building);
+
+                buildings--;
+            }
+        }
+
+        for (Flag flag : gameChangesList.getRemovedFlags()) {
+            if (unindex(flag)) {
+                chunkAt(flag.getPosition()).flags.remove(flag);
+
+                flags--;
+            }
+        }
+
+        for (Road road : gameChangesList.getRemovedRoads()) {
+            if (unindex(road)) {
+                for (Long chunkKey : chunksOf(road.getWayPoints())) {
+                    chunk(chunkKey).roads.remove(road);
+                }
+
+                roads--;
+            }
+        }
+
+        for (Tree tree : gameChangesList.getRemovedTrees()) {
+            if (unindex(tree)) {
+                chunkAt(tree.getPosition()).trees.remove(tree);
+
+                trees--;
+            }
+        }
+
+        for (Stone stone : gameChangesList.getRemovedStones()) {
+            if (unindex(stone)) {
+                chunkAt(stone.getPosition()).stones.remove(stone);
+
+                stones--;
+            }
+        }
+
+        for (Crop crop : gameChangesList.getRemovedCrops()) {
+            if (unindex(crop)) {
+                chunkAt(crop.getPosition()).crops.remove(crop);
+
+                crops--;
+            }
+        }
+
+        for (Sign sign : gameChangesList.getRemovedSigns()) {
+            if (unindex(sign)) {
+                chunkAt(sign.getPosition()).signs.remove(sign);
+
+                signs--;
+            }
+        }
+
+        gameChangesList.getNewBuildings().forEach(this::addBuilding);
+        gameChangesList.getNewFlags().forEach(this::addFlag);
+        gameChangesList.getNewRoads().forEach(this::addRoad);
+        gameChangesList.getNewTrees().forEach(this::addTree);
+        gameChangesList.getNewStones().forEach(this::addStone);
+        gameChangesList.getNewCrops().forEach(this::addCrop);
+        gameChangesList.getNewSigns().forEach(this::addSign);
+    }
+
+    /* Must be called while holding the map, and this once the index is in use */
+    private void rebuild() {
+        stale = false;
+
+        chunks.clear();
+        indexedObjects.clear();
+
+        buildings = 0;
+        flags = 0;
+        roads = 0;
+        trees = 0;
+        stones = 0;
+        crops = 0;
+        signs = 0;
+
+        map.getBuildings().forEach(this::addBuilding);
+        map.getFlags().forEach(this::addFlag);
+        map.getRoads().forEach(this::addRoad);
+        map.getTrees().forEach(this::addTree);
+        map.getStones().forEach(this::addStone);
+        map.getCrops().forEach(this::addCrop);
+        map.getSigns().forEach(this::addSign);
+    }
+
+    private void addBuilding(Building building) {
+        if (index(building)) {
+            chunkAt(building.getPosition()).buildings.add(building);
+
+            buildings++;
+        }
+    }
+
+    private void addFlag(Flag flag) {
+        if (index(flag)) {
+            chunkAt(flag.getPosition()).flags.add(flag);
+
+            flags++;
+        }
+    }
+
+    private void addRoad(Road road) {
+        if (index(road)) {
+            for (Long chunkKey : chunksOf(road.getWayPoints())) {
+                chunk(chunkKey).roads.add(road);
+            }
+
+            roads++;
+        }
+    }
+
+    private void addTree(Tree tree) {
+        if (index(tree)) {
+            chunkAt(tree.getPosition()).trees.add(tree);
+
+            trees++;
+        }
+    }
+
+    private void addStone(Stone stone) {
+        if (index(stone)) {
+            chunkAt(stone.getPosition()).stones.add(stone);
+
+            stones++;
+        }
+    }
+
+    private void addCrop(Crop crop) {
+        if (index(crop)) {
+            chunkAt(crop.getPosition()).crops.add(crop);
+
+            crops++;
+        }
+    }
+
+    private void addSign(Sign sign) {
+        if (index(sign)) {
+            chunkAt(sign.getPosition()).signs.add(sign);
+
+            signs++;
+        }
+    }
+
+    /* Returns false if the object is already indexed */
+    private boolean index(Object gameObject) {
+        return indexedObjects.put(gameObject, Boolean.TRUE) == null;
+    }
+
+    /* Returns false if the object isn't indexed */
+    private boolean unindex(Object gameObject) {
+        return indexedObjects.remove(gameObject) != null;
+    }
+
+    private Chunk chunkAt(Point point) {
+        return chunk(chunkOf(point));
+    }
+
+    private Chunk chunk(Long chunkKey) {
+        return chunks.computeIfAbsent(chunkKey, key -> new Chunk());
+    }
+
+    private static class Chunk {
+        private final Set<Building> buildings = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Set<Flag> flags = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Set<Road> roads = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Set<Tree> trees = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Set<Stone> stones = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Set<Crop> crops = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Set<Sign> signs = Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+}
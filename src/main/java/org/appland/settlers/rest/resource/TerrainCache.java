@@ -0,0 +1,102 @@
+package org.appland.settlers.rest.resource;
+
+import org.appland.settlers.model.GameChangesList;
+import org.appland.settlers.model.GameMap;
+import org.appland.settlers.model.Player;
+import org.appland.settlers.model.PlayerGameViewMonitor;
+
+import javax.ws.rs.core.EntityTag;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the encoded terrain of a game so it's only walked again when it may have changed. The heights change when
+ * the ground is leveled for a building, which is reported as the building coming, changing or going, so the cache is
+ * marked as stale then. The tag is based on the content which means that clients keep getting 304s when a rebuild
+ * turns out to give the same terrain.
+ */
+class TerrainCache implements PlayerGameViewMonitor {
+
+    private static final Map<GameMap, TerrainCache> caches = new ConcurrentHashMap<>();
+
+    private final GameMap map;
+
+    private volatile boolean stale;
+    private EncodedTerrain encodedTerrain;
+
+    private TerrainCache(GameMap map) {
+        this.map = map;
+
+        stale = true;
+    }
+
+    static TerrainCache getTerrainCache(GameMap map) {
+        return caches.computeIfAbsent(map, gameMap -> {
+            TerrainCache terrainCache = new TerrainCache(gameMap);
+
+            GameChangesFeed.getFeed(gameMap).addMonitor(terrainCache);
+
+            return terrainCache;
+        });
+    }
+
+    static void removeTerrainCache(GameMap map) {
+        caches.remove(map);
+    }
+
+    synchronized EncodedTerrain getTerrain(Utils utils) {
+        if (stale) {
+            encodedTerrain = encodeTerrain(utils);
+        }
+
+        return encodedTerrain;
+    }
+
+    private EncodedTerrain encodeTerrain(Utils utils) {
+        byte[] terrain;
+
+        /* Changes are reported while the map is locked so none can slip in between reading the terrain and clearing the flag */
+        synchronized (map) {
+            terrain = utils.terrainToJson(map).toJSONString().getBytes(StandardCharsets.UTF_8);
+
+            stale = false;
+        }
+
+        CRC32 crc = new CRC32();
+
+        crc.update(terrain);
+
+        EntityTag entityTag = new EntityTag(Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(terrain.length));
+
+        return new EncodedTerrain(terrain, entityTag);
+    }
+
+    @Override
+    public void onViewChangesForPlayer(Player player, GameChangesList gameChangesList) {
+        if (!gameChangesList.getNewBuildings().isEmpty() ||
+            !gameChangesList.getChangedBuildings().isEmpty() ||
+            !gameChangesList.getRemovedBuildings().isEmpty()) {
+            stale = true;
+        }
+    }
+
+    static class EncodedTerrain {
+        private final byte[] bytes;
+        private final EntityTag entityTag;
+
+        private EncodedTerrain(byte[] bytes, EntityTag entityTag) {
+            this.bytes = bytes;
+            this.entityTag = entityTag;
+        }
+
+        byte[] getBytes() {
+            return bytes;
+        }
+
+        EntityTag getEntityTag() {
+            return entityTag;
+        }
+    }
+}
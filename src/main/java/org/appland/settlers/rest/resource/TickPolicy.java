@@ -0,0 +1,16 @@
+package org.appland.settlers.rest.resource;
+
+public enum TickPolicy {
+    CATCH_UP, SLOW_DOWN, DROP_TICKS;
+
+    /* Returns null if there is no tick policy with the name */
+    public static TickPolicy fromJson(Object tickPolicy) {
+        for (TickPolicy policy : values()) {
+            if (policy.name().equals(tickPolicy)) {
+                return policy;
+            }
+        }
+
+        return null;
+    }
+}
@@ -71,6 +71,7 @@ import org.json.simple.JSONObject;
 
 import java.awt.Color;
 import java.util.*;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -131,10 +132,15 @@ class Utils {
     }
 
     JSONArray playersToJson(Collection<Player> players) {
+        return playersToJson(players, null);
+    }
+
+    /* Sends each player's discovered land as runs instead of as points when the discovered land is given */
+    JSONArray playersToJson(Collection<Player> players, DiscoveredLand discoveredLand) {
         JSONArray jsonPlayers = new JSONArray();
 
         for (Player player : players) {
-            JSONObject jsonPlayer = playerToJson(player, idManager.getId(player));
+            JSONObject jsonPlayer = playerToJson(player, idManager.getId(player), discoveredLand);
 
             jsonPlayers.add(jsonPlayer);
         }
@@ -142,7 +148,7 @@ class Utils {
         return jsonPlayers;
     }
 
-    private JSONObject playerToJson(Player player, String playerId) {
+    private JSONObject playerToJson(Player player, String playerId, DiscoveredLand discoveredLand) {
         JSONObject jsonPlayer = new JSONObject();
 
         jsonPlayer.put("name", player.getName());
@@ -158,6 +164,12 @@ class Utils {
             }
         }
 
+        if (discoveredLand != null) {
+            jsonPlayer.put("discoveredLand", discoveredLand.getLand(player).toJson());
+
+            return jsonPlayer;
+        }
+
         /* Fill in the points the player has discovered */
         JSONArray jsonDiscoveredPoints = new JSONArray();
         jsonPlayer.put("discoveredPoints", jsonDiscoveredPoints);
@@ -772,6 +784,8 @@ class Utils {
         jsonGamePlaceholder.put("status", "NOT_STARTED");
 
         jsonGamePlaceholder.put("resources", gamePlaceholder.getResources().name());
+        jsonGamePlaceholder.put("tickPolicy", gamePlaceholder.getTickPolicy().name());
+        jsonGamePlaceholder.put("speed", gamePlaceholder.getSpeed().name());
 
         return jsonGamePlaceholder;
     }
@@ -984,48 +998,59 @@ class Utils {
     }
 
     public JSONObject gameMonitoringEventsToJson(GameChangesList gameChangesList, Player player) {
+        return gameMonitoringEventsToJson(gameChangesList, player, null);
+    }
+
+    /* Elements that are the same for all players are taken from the shared elements, if given, instead of being encoded
+       again. Without a player the changes are for spectators and the sections that only concern the player are left out
+     */
+    JSONObject gameMonitoringEventsToJson(GameChangesList gameChangesList, Player player, SharedElements sharedElements) {
         JSONObject jsonMonitoringEvents = new JSONObject();
 
+        if (sharedElements != null) {
+            sharedElements.startTick(gameChangesList.getTime());
+        }
+
         jsonMonitoringEvents.put("time", gameChangesList.getTime());
 
         if (!gameChangesList.getNewStones().isEmpty()) {
-            jsonMonitoringEvents.put("newStones", newStonesToJson(gameChangesList.getNewStones()));
+            jsonMonitoringEvents.put("newStones", newStonesToJson(gameChangesList.getNewStones(), sharedElements));
         }
 
         if (!gameChangesList.getWorkersWithNewTargets().isEmpty()) {
-            jsonMonitoringEvents.put("workersWithNewTargets", workersWithNewTargetsToJson(gameChangesList.getWorkersWithNewTargets()));
+            jsonMonitoringEvents.put("workersWithNewTargets", workersWithNewTargetsToJson(gameChangesList.getWorkersWithNewTargets(), sharedElements));
 
-            jsonMonitoringEvents.put("wildAnimalsWithNewTargets", wildAnimalsWithNewTargetsToJson(gameChangesList.getWorkersWithNewTargets()));
+            jsonMonitoringEvents.put("wildAnimalsWithNewTargets", wildAnimalsWithNewTargetsToJson(gameChangesList.getWorkersWithNewTargets(), sharedElements));
 
-            jsonMonitoringEvents.put("shipsWithNewTargets", shipWithNewTargetsToJson(gameChangesList.getWorkersWithNewTargets()));
+            jsonMonitoringEvents.put("shipsWithNewTargets", shipWithNewTargetsToJson(gameChangesList.getWorkersWithNewTargets(), sharedElements));
         }
 
         if (!gameChangesList.getWorkersWithStartedActions().isEmpty()) {
-            jsonMonitoringEvents.put("workersWithStartedActions", workersAndActionsToJson(gameChangesList.getWorkersWithStartedActions()));
+            jsonMonitoringEvents.put("workersWithStartedActions", workersAndActionsToJson(gameChangesList.getWorkersWithStartedActions(), sharedElements));
         }
 
         if (!gameChangesList.getNewShips().isEmpty()) {
-            jsonMonitoringEvents.put("newShips", shipsToJson(gameChangesList.getNewShips()));
+            jsonMonitoringEvents.put("newShips", shipsToJson(gameChangesList.getNewShips(), "newShips", sharedElements));
         }
 
         if (!gameChangesList.getFinishedShips().isEmpty()) {
-            jsonMonitoringEvents.put("finishedShips", shipsToJson(gameChangesList.getFinishedShips()));
+            jsonMonitoringEvents.put("finishedShips", shipsToJson(gameChangesList.getFinishedShips(), "finishedShips", sharedElements));
         }
 
         if (!gameChangesList.getNewBuildings().isEmpty()) {
-            jsonMonitoringEvents.put("newBuildings", newBuildingsToJson(gameChangesList.getNewBuildings()));
+            jsonMonitoringEvents.put("newBuildings", newBuildingsToJson(gameChangesList.getNewBuildings(), sharedElements));
         }
 
         if (!gameChangesList.getNewFlags().isEmpty()) {
-            jsonMonitoringEvents.put("newFlags", flagsToJson(gameChangesList.getNewFlags()));
+            jsonMonitoringEvents.put("newFlags", flagsToJson(gameChangesList.getNewFlags(), "newFlags", sharedElements));
         }
 
         if (!gameChangesList.getNewRoads().isEmpty()) {
-            jsonMonitoringEvents.put("newRoads", newRoadsToJson(gameChangesList.getNewRoads()));
+            jsonMonitoringEvents.put("newRoads", newRoadsToJson(gameChangesList.getNewRoads(), sharedElements));
         }
 
         if (!gameChangesList.getNewTrees().isEmpty()) {
-            jsonMonitoringEvents.put("newTrees", newTreesToJson(gameChangesList.getNewTrees()));
+            jsonMonitoringEvents.put("newTrees", newTreesToJson(gameChangesList.getNewTrees(), sharedElements));
         }
 
         if (!gameChangesList.getDiscoveredDeadTrees().isEmpty()) {
@@ -1037,19 +1062,19 @@ class Utils {
         }
 
         if (!gameChangesList.getNewCrops().isEmpty()) {
-            jsonMonitoringEvents.put("newCrops", newCropsToJson(gameChangesList.getNewCrops()));
+            jsonMonitoringEvents.put("newCrops", newCropsToJson(gameChangesList.getNewCrops(), sharedElements));
         }
 
         if (!gameChangesList.getNewSigns().isEmpty()) {
-            jsonMonitoringEvents.put("newSigns", newSignsToJson(gameChangesList.getNewSigns()));
+            jsonMonitoringEvents.put("newSigns", newSignsToJson(gameChangesList.getNewSigns(), sharedElements));
         }
 
         if (!gameChangesList.getChangedBuildings().isEmpty()) {
-            jsonMonitoringEvents.put("changedBuildings", changedBuildingsToJson(gameChangesList.getChangedBuildings()));
+            jsonMonitoringEvents.put("changedBuildings", changedBuildingsToJson(gameChangesList.getChangedBuildings(), sharedElements));
         }
 
         if (!gameChangesList.getChangedFlags().isEmpty()) {
-            jsonMonitoringEvents.put("changedFlags", flagsToJson(gameChangesList.getChangedFlags()));
+            jsonMonitoringEvents.put("changedFlags", flagsToJson(gameChangesList.getChangedFlags(), "changedFlags", sharedElements));
         }
 
         if (!gameChangesList.getNewDecorations().isEmpty()) {
@@ -1087,13 +1112,13 @@ class Utils {
         }
 
         if (!gameChangesList.getChangedBorders().isEmpty()) {
-            jsonMonitoringEvents.put("changedBorders", borderChangesToJson(gameChangesList.getChangedBorders()));
+            jsonMonitoringEvents.put("changedBorders", borderChangesToJson(gameChangesList.getChangedBorders(), sharedElements));
         }
 
-        if (!gameChangesList.getChangedAvailableConstruction().isEmpty()) {
+        if (player != null && !gameChangesList.getChangedAvailableConstruction().isEmpty()) {
             jsonMonitoringEvents.put(
                     "changedAvailableConstruction",
-                    availableConstructionChangesToJson(gameChangesList.getChangedAvailableConstruction(), player)
+                    availableConstructionChangesToJson(gameChangesList.getChangedAvailableConstruction(), player, gameChangesList.getTime())
             );
         }
 
@@ -1113,13 +1138,21 @@ class Utils {
             jsonMonitoringEvents.put("removedStones", removedStonesToJson(gameChangesList.getRemovedStones()));
         }
 
-        if (!gameChangesList.getNewGameMessages().isEmpty()) {
+        if (player != null && !gameChangesList.getNewGameMessages().isEmpty()) {
             jsonMonitoringEvents.put("newMessages", messagesToJson(gameChangesList.getNewGameMessages()));
         }
 
         return jsonMonitoringEvents;
     }
 
+    private <T> Object toSharedJson(SharedElements sharedElements, String sectionName, T gameObject, Function<T, Object> toJson) {
+        if (sharedElements == null) {
+            return toJson.apply(gameObject);
+        }
+
+        return sharedElements.get(sectionName, gameObject, toJson);
+    }
+
     private JSONArray pointsAndDecorationsToJson(Map<Point, DecorationType> pointsAndDecorations) {
         JSONArray jsonPointsAndDecorations = new JSONArray();
 
@@ -1139,34 +1172,38 @@ class Utils {
         return jsonPointsAndDecorations;
     }
 
-    private JSONArray workersAndActionsToJson(Map<Worker, WorkerAction> workersWithStartedActions) {
+    private JSONArray workersAndActionsToJson(Map<Worker, WorkerAction> workersWithStartedActions, SharedElements sharedElements) {
         JSONArray workersAndActionsJson = new JSONArray();
 
-        workersWithStartedActions.forEach((worker, action) -> {
-            Point position = worker.getPosition();
+        workersWithStartedActions.forEach((worker, action) -> workersAndActionsJson.add(
+                toSharedJson(sharedElements, "workersWithStartedActions", worker, w -> workerAndActionToJson(w, action))
+        ));
 
-            JSONObject jsonWorker = new JSONObject();
+        return workersAndActionsJson;
+    }
 
-            jsonWorker.put("id", idManager.getId(worker));
-            jsonWorker.put("x", position.x);
-            jsonWorker.put("y", position.y);
-            jsonWorker.put("direction", worker.getDirection().name().toUpperCase());
-            jsonWorker.put("startedAction", action.name().toUpperCase());
+    private JSONObject workerAndActionToJson(Worker worker, WorkerAction action) {
+        Point position = worker.getPosition();
 
-            workersAndActionsJson.add(jsonWorker);
-        });
+        JSONObject jsonWorker = new JSONObject();
 
-        return workersAndActionsJson;
+        jsonWorker.put("id", idManager.getId(worker));
+        jsonWorker.put("x", position.x);
+        jsonWorker.put("y", position.y);
+        jsonWorker.put("direction", worker.getDirection().name().toUpperCase());
+        jsonWorker.put("startedAction", action.name().toUpperCase());
+
+        return jsonWorker;
     }
 
-    private JSONArray shipWithNewTargetsToJson(List<Worker> workers) {
+    private JSONArray shipWithNewTargetsToJson(List<Worker> workers, SharedElements sharedElements) {
         JSONArray jsonWorkers = new JSONArray();
 
         workers.forEach(worker -> {
             if (worker instanceof Ship) {
                 Ship ship = (Ship) worker;
 
-                jsonWorkers.add(shipToJson(ship));
+                jsonWorkers.add(toSharedJson(sharedElements, "shipsWithNewTargets", ship, this::shipToJson));
             }
         });
 
@@ -1204,10 +1241,10 @@ class Utils {
         return jsonShip;
     }
 
-    private JSONArray shipsToJson(List<Ship> ships) {
+    private JSONArray shipsToJson(List<Ship> ships, String sectionName, SharedElements sharedElements) {
         JSONArray jsonShips = new JSONArray();
 
-        ships.forEach(ship -> jsonShips.add(shipToJson(ship)));
+        ships.forEach(ship -> jsonShips.add(toSharedJson(sharedElements, sectionName, ship, this::shipToJson)));
 
         return jsonShips;
     }
@@ -1226,7 +1263,7 @@ class Utils {
         return jsonRemovedWildAnimalIds;
     }
 
-    private JSONArray wildAnimalsWithNewTargetsToJson(List<Worker> workersWithNewTargets) {
+    private JSONArray wildAnimalsWithNewTargetsToJson(List<Worker> workersWithNewTargets, SharedElements sharedElements) {
         JSONArray jsonWildAnimals = new JSONArray();
 
         for (Worker worker : workersWithNewTargets) {
@@ -1236,17 +1273,17 @@ class Utils {
 
             WildAnimal wildAnimal = (WildAnimal) worker;
 
-            jsonWildAnimals.add(wildAnimalToJson(wildAnimal));
+            jsonWildAnimals.add(toSharedJson(sharedElements, "wildAnimalsWithNewTargets", wildAnimal, this::wildAnimalToJson));
         }
 
         return jsonWildAnimals;
     }
 
-    private JSONArray newStonesToJson(List<Stone> newStones) {
+    private JSONArray newStonesToJson(List<Stone> newStones, SharedElements sharedElements) {
         JSONArray jsonNewStones = new JSONArray();
 
         for (Stone stone : newStones) {
-            jsonNewStones.add(pointToJson(stone.getPosition()));
+            jsonNewStones.add(toSharedJson(sharedElements, "newStones", stone, s -> pointToJson(s.getPosition())));
         }
 
         return jsonNewStones;
@@ -1309,31 +1346,23 @@ class Utils {
         return jsonTreeConservationProgramActivated;
     }
 
-    private JSONArray availableConstructionChangesToJson(Collection<Point> changedAvailableConstruction, Player player) {
+    private JSONArray availableConstructionChangesToJson(Collection<Point> changedAvailableConstruction, Player player, long time) {
         GameMap map = player.getMap();
+        AvailableConstructionRaster raster = AvailableConstructionRaster.getRaster(map);
 
         JSONArray jsonChangedAvailableConstruction = new JSONArray();
 
         synchronized (map) {
-            for (Point point : changedAvailableConstruction) {
-                JSONObject jsonPointAndAvailableConstruction = new JSONObject();
-                JSONArray jsonAvailableConstruction = new JSONArray();
 
-                if (map.isAvailableFlagPoint(player, point)) {
-                    jsonAvailableConstruction.add("flag");
-                }
+            /* Only ask the game if the raster isn't updated with these changes yet */
+            boolean useRaster = raster.isUpToDate(player, time);
 
-                Size size = map.isAvailableHousePoint(player, point);
-
-                if (size != null) {
-                    jsonAvailableConstruction.add(size.name().toLowerCase());
-                }
+            for (Point point : changedAvailableConstruction) {
+                JSONObject jsonPointAndAvailableConstruction = new JSONObject();
 
-                if (map.isAvailableMinePoint(player, point)) {
-                    jsonAvailableConstruction.add("mine");
-                }
+                int available = useRaster ? raster.get(player, point) : AvailableConstructionRaster.availableAt(map, player, point);
 
-                jsonPointAndAvailableConstruction.put("available", jsonAvailableConstruction);
+                jsonPointAndAvailableConstruction.put("available", availableConstructionToJson(available));
                 jsonPointAndAvailableConstruction.put("x", point.x);
                 jsonPointAndAvailableConstruction.put("y", point.y);
 
@@ -1344,22 +1373,49 @@ class Utils {
         return jsonChangedAvailableConstruction;
     }
 
-    private JSONArray borderChangesToJson(List<BorderChange> changedBorders) {
-        JSONArray jsonBorderChanges = new JSONArray();
+    /* The available construction as sent to clients, e.g. ["flag", "medium"] */
+    static JSONArray availableConstructionToJson(int available) {
+        JSONArray jsonAvailableConstruction = new JSONArray();
 
-        for (BorderChange borderChange : changedBorders) {
-            JSONObject jsonBorderChange = new JSONObject();
+        if ((available & AvailableConstructionRaster.FLAG) != 0) {
+            jsonAvailableConstruction.add("flag");
+        }
 
-            jsonBorderChange.put("playerId", idManager.getId(borderChange.getPlayer()));
-            jsonBorderChange.put("newBorder", pointsToJson(borderChange.getNewBorder()));
-            jsonBorderChange.put("removedBorder", pointsToJson(borderChange.getRemovedBorder()));
+        if ((available & AvailableConstructionRaster.LARGE_HOUSE) != 0) {
+            jsonAvailableConstruction.add("large");
+        } else if ((available & AvailableConstructionRaster.MEDIUM_HOUSE) != 0) {
+            jsonAvailableConstruction.add("medium");
+        } else if ((available & AvailableConstructionRaster.SMALL_HOUSE) != 0) {
+            jsonAvailableConstruction.add("small");
+        }
 
-            jsonBorderChanges.add(jsonBorderChange);
+        if ((available & AvailableConstructionRaster.MINE) != 0) {
+            jsonAvailableConstruction.add("mine");
+        }
+
+        return jsonAvailableConstruction;
+    }
+
+    private JSONArray borderChangesToJson(List<BorderChange> changedBorders, SharedElements sharedElements) {
+        JSONArray jsonBorderChanges = new JSONArray();
+
+        for (BorderChange borderChange : changedBorders) {
+            jsonBorderChanges.add(toSharedJson(sharedElements, "changedBorders", borderChange, this::borderChangeToJson));
         }
 
         return jsonBorderChanges;
     }
 
+    private JSONObject borderChangeToJson(BorderChange borderChange) {
+        JSONObject jsonBorderChange = new JSONObject();
+
+        jsonBorderChange.put("playerId", idManager.getId(borderChange.getPlayer()));
+        jsonBorderChange.put("newBorder", pointsToJson(borderChange.getNewBorder()));
+        jsonBorderChange.put("removedBorder", pointsToJson(borderChange.getRemovedBorder()));
+
+        return jsonBorderChange;
+    }
+
     private JSONArray removedStonesToJson(List<Stone> removedStones) {
         JSONArray jsonRemovedStones = new JSONArray();
 
@@ -1374,11 +1430,11 @@ class Utils {
         return objectsToJsonIdArray(removedSigns);
     }
 
-    private JSONArray newSignsToJson(List<Sign> newSigns) {
+    private JSONArray newSignsToJson(List<Sign> newSigns, SharedElements sharedElements) {
         JSONArray jsonSigns = new JSONArray();
 
         for (Sign sign : newSigns) {
-            jsonSigns.add(signToJson(sign));
+            jsonSigns.add(toSharedJson(sharedElements, "newSigns", sign, this::signToJson));
         }
 
         return jsonSigns;
@@ -1394,15 +1450,11 @@ class Utils {
         return jsonRemovedCrops;
     }
 
-    private JSONArray newCropsToJson(List<Crop> newCrops) {
-        return cropsToJson(newCrops);
-    }
-
-    private JSONArray cropsToJson(List<Crop> newCrops) {
+    private JSONArray newCropsToJson(List<Crop> newCrops, SharedElements sharedElements) {
         JSONArray jsonCrops = new JSONArray();
 
         for (Crop crop : newCrops) {
-            jsonCrops.add(cropToJson(crop));
+            jsonCrops.add(toSharedJson(sharedElements, "newCrops", crop, this::cropToJson));
         }
 
         return jsonCrops;
@@ -1422,22 +1474,24 @@ class Utils {
         return jsonRemovedTrees;
     }
 
-    private JSONArray newTreesToJson(List<Tree> newTrees) {
-        return treesToJson(newTrees);
-    }
-
-    private JSONArray treesToJson(List<Tree> newTrees) {
+    private JSONArray newTreesToJson(List<Tree> newTrees, SharedElements sharedElements) {
         JSONArray jsonTrees = new JSONArray();
 
         for (Tree tree : newTrees) {
-            jsonTrees.add(treeToJson(tree));
+            jsonTrees.add(toSharedJson(sharedElements, "newTrees", tree, this::treeToJson));
         }
 
         return jsonTrees;
     }
 
-    private JSONArray changedBuildingsToJson(List<Building> changedBuildings) {
-        return housesToJson(changedBuildings);
+    private JSONArray changedBuildingsToJson(List<Building> changedBuildings, SharedElements sharedElements) {
+        JSONArray jsonChangedBuildings = new JSONArray();
+
+        for (Building building : changedBuildings) {
+            jsonChangedBuildings.add(toSharedJson(sharedElements, "changedBuildings", building, this::houseToJson));
+        }
+
+        return jsonChangedBuildings;
     }
 
     private JSONArray removedRoadsToJson(List<Road> removedRoads) {
@@ -1476,73 +1530,77 @@ class Utils {
         return jsonIdArray;
     }
 
-    private JSONArray newRoadsToJson(List<Road> newRoads) {
+    private JSONArray newRoadsToJson(List<Road> newRoads, SharedElements sharedElements) {
         JSONArray jsonNewRoads = new JSONArray();
 
         for (Road road : newRoads) {
-            jsonNewRoads.add(roadToJson(road));
+            jsonNewRoads.add(toSharedJson(sharedElements, "newRoads", road, this::roadToJson));
         }
 
         return jsonNewRoads;
     }
 
-    private JSONArray flagsToJson(Collection<Flag> flags) {
+    private JSONArray flagsToJson(Collection<Flag> flags, String sectionName, SharedElements sharedElements) {
         JSONArray jsonFlags = new JSONArray();
 
         for (Flag flag : flags) {
-            jsonFlags.add(flagToJson(flag));
+            jsonFlags.add(toSharedJson(sharedElements, sectionName, flag, this::flagToJson));
         }
 
         return jsonFlags;
     }
 
-    private JSONArray newBuildingsToJson(List<Building> newBuildings) {
+    private JSONArray newBuildingsToJson(List<Building> newBuildings, SharedElements sharedElements) {
         JSONArray jsonNewBuildings = new JSONArray();
 
         for (Building building : newBuildings) {
-            jsonNewBuildings.add(houseToJson(building));
+            jsonNewBuildings.add(toSharedJson(sharedElements, "newBuildings", building, this::houseToJson));
         }
 
         return jsonNewBuildings;
     }
 
-    private JSONArray workersWithNewTargetsToJson(List<Worker> workersWithNewTargets) {
+    private JSONArray workersWithNewTargetsToJson(List<Worker> workersWithNewTargets, SharedElements sharedElements) {
         JSONArray jsonWorkersWithNewTarget = new JSONArray();
 
         for (Worker worker : workersWithNewTargets) {
-            JSONObject jsonWorkerWithNewTarget = new JSONObject();
-
             if (worker instanceof WildAnimal) {
                 continue;
             }
 
-            jsonWorkerWithNewTarget.put("id", idManager.getId(worker));
-            jsonWorkerWithNewTarget.put("path", pointsToJson(worker.getPlannedPath()));
+            jsonWorkersWithNewTarget.add(toSharedJson(sharedElements, "workersWithNewTargets", worker, this::workerWithNewTargetToJson));
+        }
 
-            jsonWorkerWithNewTarget.put("x", worker.getPosition().x);
-            jsonWorkerWithNewTarget.put("y", worker.getPosition().y);
+        return jsonWorkersWithNewTarget;
+    }
 
-            jsonWorkerWithNewTarget.put("type", workerTypeToJson(worker));
+    JSONObject workerWithNewTargetToJson(Worker worker) {
+        JSONObject jsonWorkerWithNewTarget = new JSONObject();
 
-            jsonWorkerWithNewTarget.put("direction", worker.getDirection().name().toUpperCase());
+        jsonWorkerWithNewTarget.put("id", idManager.getId(worker));
+        jsonWorkerWithNewTarget.put("path", pointsToJson(worker.getPlannedPath()));
 
-            if (worker instanceof Courier) {
-                Courier courier = (Courier) worker;
+        jsonWorkerWithNewTarget.put("x", worker.getPosition().x);
+        jsonWorkerWithNewTarget.put("y", worker.getPosition().y);
 
-                jsonWorkerWithNewTarget.put("bodyType", courier.getBodyType().name().toUpperCase());
-            }
+        jsonWorkerWithNewTarget.put("type", workerTypeToJson(worker));
 
-            if (worker.getCargo() != null) {
-                jsonWorkerWithNewTarget.put("cargo", worker.getCargo().getMaterial().getSimpleName().toUpperCase());
-            }
+        jsonWorkerWithNewTarget.put("direction", worker.getDirection().name().toUpperCase());
+
+        if (worker instanceof Courier) {
+            Courier courier = (Courier) worker;
 
-            jsonWorkersWithNewTarget.add(jsonWorkerWithNewTarget);
+            jsonWorkerWithNewTarget.put("bodyType", courier.getBodyType().name().toUpperCase());
         }
 
-        return jsonWorkersWithNewTarget;
+        if (worker.getCargo() != null) {
+            jsonWorkerWithNewTarget.put("cargo", worker.getCargo().getMaterial().getSimpleName().toUpperCase());
+        }
+
+        return jsonWorkerWithNewTarget;
     }
 
-    private String workerTypeToJson(Worker worker) {
+    String workerTypeToJson(Worker worker) {
 
         if (worker.isSoldier()) {
             Military soldier = (Military) worker;
@@ -0,0 +1,115 @@
+package org.appland.settlers.rest.resource;
+
+import org.appland.settlers.model.Point;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * The part of the map a client shows. Changes to where workers and wild animals are going are only sent for the
+ * viewport and a margin around it, and the view can be limited to the viewport.
+ */
+class Viewport {
+
+    static final String MARGIN_PROPERTY = "settlers.websocket.viewportMargin";
+
+    /* Sections with changes that only matter to a client that shows where they happen */
+    static final String[] POSITION_SECTIONS = {"workersWithNewTargets", "workersWithStartedActions", "wildAnimalsWithNewTargets"};
+
+    private static final int MARGIN = Integer.getInteger(MARGIN_PROPERTY, 8);
+
+    private final int minX;
+    private final int minY;
+    private final int maxX;
+    private final int maxY;
+
+    Viewport(int minX, int minY, int maxX, int maxY) {
+        this.minX = Math.min(minX, maxX);
+        this.minY = Math.min(minY, maxY);
+        this.maxX = Math.max(minX, maxX);
+        this.maxY = Math.max(minY, maxY);
+    }
+
+    /*
+    {'minX': 10,
+     'minY': 20,
+     'maxX': 60,
+     'maxY': 50
+    }
+
+    Returns null if any of the bounds is missing.
+     */
+    static Viewport fromJson(JSONObject jsonViewport) {
+        Object minX = jsonViewport.get("minX");
+        Object minY = jsonViewport.get("minY");
+        Object maxX = jsonViewport.get("maxX");
+        Object maxY = jsonViewport.get("maxY");
+
+        if (!(minX instanceof Number) || !(minY instanceof Number) || !(maxX instanceof Number) || !(maxY instanceof Number)) {
+            return null;
+        }
+
+        return new Viewport(((Number) minX).intValue(), ((Number) minY).intValue(), ((Number) maxX).intValue(), ((Number) maxY).intValue());
+    }
+
+    /* A message without any of the bounds asks for the whole map again */
+    static boolean hasAnyBounds(JSONObject jsonViewport) {
+        return jsonViewport.containsKey("minX") || jsonViewport.containsKey("minY") ||
+                jsonViewport.containsKey("maxX") || jsonViewport.containsKey("maxY");
+    }
+
+    boolean overlapsMap(int width, int height) {
+        return maxX >= 0 && maxY >= 0 && minX < width && minY < height;
+    }
+
+    Viewport withMargin() {
+        return new Viewport(minX - MARGIN, minY - MARGIN, maxX + MARGIN, maxY + MARGIN);
+    }
+
+    boolean contains(Point point) {
+        return contains(point.x, point.y);
+    }
+
+    boolean contains(int x, int y) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY;
+    }
+
+    /* An element is inside if it's at a point in the viewport or is on its way through it */
+    boolean containsElement(Object element) {
+        if (element instanceof SharedElement) {
+            return containsElement(((SharedElement) element).getJson());
+        }
+
+        if (!(element instanceof JSONObject)) {
+            return true;
+        }
+
+        JSONObject jsonObject = (JSONObject) element;
+
+        if (containsJsonPoint(jsonObject)) {
+            return true;
+        }
+
+        Object path = jsonObject.get("path");
+
+        if (path instanceof JSONArray) {
+            for (Object jsonPoint : (JSONArray) path) {
+                if (jsonPoint instanceof JSONObject && containsJsonPoint((JSONObject) jsonPoint)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private boolean containsJsonPoint(JSONObject jsonPoint) {
+        Object x = jsonPoint.get("x");
+        Object y = jsonPoint.get("y");
+
+        if (!(x instanceof Number) || !(y instanceof Number)) {
+            return false;
+        }
+
+        return contains(((Number) x).intValue(), ((Number) y).intValue());
+    }
+}
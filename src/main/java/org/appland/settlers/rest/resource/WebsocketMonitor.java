@@ -1,11 +1,12 @@
 package org.appland.settlers.rest.resource;
 
-import org.appland.settlers.model.GameChangesList;
 import org.appland.settlers.model.GameMap;
 import org.appland.settlers.model.Player;
-import org.appland.settlers.model.PlayerGameViewMonitor;
 import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 
+import javax.websocket.CloseReason;
 import javax.websocket.EndpointConfig;
 import javax.websocket.OnClose;
 import javax.websocket.OnError;
@@ -13,33 +14,103 @@ import javax.websocket.OnMessage;
 import javax.websocket.OnOpen;
 import javax.websocket.Session;
 import javax.websocket.server.ServerEndpoint;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.util.List;
+
+import static java.lang.String.format;
 
 @ServerEndpoint(value = "/ws/monitor/games/{gameId}/players/{playerId}")
 
-public class WebsocketMonitor implements PlayerGameViewMonitor {
+public class WebsocketMonitor {
 
-    private final Map<Player, Session> sessions;
-    private final Utils utils;
+    private static final String PROTOCOL_PARAMETER = "protocol";
+    private static final String BINARY_PROTOCOL = "binary";
+    private static final String DISCOVERED_LAND_PARAMETER = "discoveredLand";
+    private static final String SET_VIEWPORT_COMMAND = "setViewport";
 
     private final IdManager idManager = IdManager.idManager;
+    private final SessionRegistry sessionRegistry = SessionRegistry.sessionRegistry;
 
     public WebsocketMonitor() {
-        sessions = new HashMap<>();
-
         System.out.println("CREATED NEW WEBSOCKET MONITOR");
-        utils = new Utils(idManager);
     }
 
+    /*
+    {'command': 'setViewport',
+     'minX': 10,          -- leave out all the bounds to get the changes for the whole map again
+     'minY': 20,
+     'maxX': 60,
+     'maxY': 50
+    }
+
+    A viewport with only some of the bounds, or outside the map, gets an error reply and the viewport stays as it was.
+     */
     @OnMessage
     public void onMessage(Session session, String message) {
-        System.out.println("ON MESSAGE: " + message);
+        JSONObject jsonMessage;
+
+        try {
+            Object parsed = new JSONParser().parse(message);
+
+            if (!(parsed instanceof JSONObject)) {
+                System.out.println("Ignoring websocket message that isn't an object: " + message);
+
+                return;
+            }
+
+            jsonMessage = (JSONObject) parsed;
+        } catch (ParseException e) {
+            System.out.println("Ignoring websocket message that isn't json: " + message);
+
+            return;
+        }
+
+        if (SET_VIEWPORT_COMMAND.equals(jsonMessage.get("command"))) {
+            setViewport(session, jsonMessage);
+        } else {
+            System.out.println("ON MESSAGE: " + message);
+        }
+    }
+
+    private void setViewport(Session session, JSONObject jsonMessage) {
+        Viewport viewport = null;
+
+        if (Viewport.hasAnyBounds(jsonMessage)) {
+            viewport = Viewport.fromJson(jsonMessage);
+
+            if (viewport == null) {
+                replyWithError(session, "The viewport needs minX, minY, maxX and maxY as numbers, or none of them");
+
+                return;
+            }
+
+            GameMap map = sessionRegistry.getMap(session);
+
+            if (map != null && !viewport.overlapsMap(map.getWidth(), map.getHeight())) {
+                replyWithError(session, format("The viewport is outside the map, which is %d x %d", map.getWidth(), map.getHeight()));
+
+                return;
+            }
+        }
+
+        sessionRegistry.setViewport(session, viewport);
+    }
+
+    private void replyWithError(Session session, String errorMessage) {
+        JSONObject message = new JSONObject();
+
+        message.put("status", "Error");
+        message.put("message", errorMessage);
+
+        sessionRegistry.reply(session, message.toJSONString());
     }
 
     @OnClose
     public void onClose(Session session) {
         System.out.println("ON CLOSE");
+
+        /* Stop sending changes to the session */
+        sessionRegistry.unregister(session);
     }
 
     @OnError
@@ -47,52 +118,64 @@ public class WebsocketMonitor implements PlayerGameViewMonitor {
         System.out.println("ON ERROR: " + throwable);
 
         /* Remove the error session */
-        Player player = null;
-        for (Map.Entry<Player, Session> entry : sessions.entrySet()) {
-            if (entry.getValue().equals(session)) {
-                player = entry.getKey();
-
-                break;
-            }
-        }
-
-        if (player != null) {
-            System.out.println("Removing session for player: " + player);
-            sessions.remove(player);
-        }
+        sessionRegistry.unregister(session);
     }
 
     @OnOpen
-    public void onOpen(Session session, @javax.websocket.server.PathParam("gameId") String gameId, @javax.websocket.server.PathParam("playerId") String playerId, EndpointConfig config) {
+    public void onOpen(Session session, @javax.websocket.server.PathParam("gameId") String gameId, @javax.websocket.server.PathParam("playerId") String playerId, EndpointConfig config) throws IOException {
 
         System.out.println("Websocket opened");
 
         /* Subscribe to changes */
-        GameMap map = (GameMap) idManager.getObject(gameId);
-        Player player = (Player) idManager.getObject(playerId);
+        Object gameObject = idManager.getObject(gameId);
+        Object playerObject = idManager.getObject(playerId);
 
-        System.out.println("Storing session");
-        this.sessions.put(player, session);
+        if (!(gameObject instanceof GameMap) || !(playerObject instanceof Player)) {
+            System.out.println("No started game " + gameId + " with player " + playerId);
+
+            session.close(new CloseReason(CloseReason.CloseCodes.CANNOT_ACCEPT, "No started game with the given player"));
+
+            return;
+        }
 
-        System.out.println("Starting to monitor");
-        player.monitorGameView(this);
+        GameMap map = (GameMap) gameObject;
+        Player player = (Player) playerObject;
+
+        SessionOutbox outbox = new SessionOutbox(session, createBinaryEncoderIfRequested(session, map));
+
+        sendNewDiscoveredLandAsRunsIfRequested(session, map, outbox);
+
+        MeteredPerMessageDeflateExtension.attachMetrics(session, DeflateMetrics.getMetrics(map));
+
+        /* The changes are encoded once for all sessions that follow the game and merged into each outbox */
+        if (!sessionRegistry.register(session, map, player, outbox)) {
+            System.out.println("Game " + gameId + " has ended");
+
+            session.close(new CloseReason(CloseReason.CloseCodes.CANNOT_ACCEPT, "No started game with the given player"));
+
+            return;
+        }
+
+        System.out.println("Starting to monitor. Sessions for the game: " + sessionRegistry.getNumberOfSessions(map));
     }
 
-    @Override
-    public void onViewChangesForPlayer(Player player, GameChangesList gameChangesList) {
-        try {
+    /* Clients opt in to the binary protocol by connecting with ?protocol=binary */
+    static BinaryChangesEncoder createBinaryEncoderIfRequested(Session session, GameMap map) {
+        List<String> protocol = session.getRequestParameterMap().get(PROTOCOL_PARAMETER);
 
-            Session session = sessions.get(player);
+        if (protocol != null && protocol.contains(BINARY_PROTOCOL)) {
+            return new BinaryChangesEncoder(GameChangesFanOut.getFanOut(map).getStringTable());
+        }
 
-            if (session != null) {
-                JSONObject jsonGameMonitoringEvent = utils.gameMonitoringEventsToJson(gameChangesList, player);
+        return null;
+    }
 
-                session.getAsyncRemote().sendText(jsonGameMonitoringEvent.toJSONString());
-            }
+    /* Clients opt in to getting the newly discovered land as runs by connecting with ?discoveredLand=runs */
+    static void sendNewDiscoveredLandAsRunsIfRequested(Session session, GameMap map, SessionOutbox outbox) {
+        List<String> discoveredLandFormat = session.getRequestParameterMap().get(DISCOVERED_LAND_PARAMETER);
 
-        } catch (Exception e) {
-            System.out.println("Exception while sending updates to frontend: " + e);
-            e.printStackTrace();
+        if (discoveredLandFormat != null && discoveredLandFormat.contains(DiscoveredLand.RUNS_FORMAT)) {
+            outbox.sendNewDiscoveredLandAsRuns(map.getWidth(), map.getHeight());
         }
     }
-}
\ No newline at end of file
+}
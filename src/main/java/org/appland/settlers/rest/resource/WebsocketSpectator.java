@@ -0,0 +1,68 @@
+package org.appland.settlers.rest.resource;
+
+import org.appland.settlers.model.GameMap;
+
+import javax.websocket.CloseReason;
+import javax.websocket.EndpointConfig;
+import javax.websocket.OnClose;
+import javax.websocket.OnError;
+import javax.websocket.OnOpen;
+import javax.websocket.Session;
+import javax.websocket.server.PathParam;
+import javax.websocket.server.ServerEndpoint;
+import java.io.IOException;
+
+/**
+ * Streams the changes of a game to spectators. All spectators of a game share the same encoded changes so adding a
+ * spectator only adds the cost of sending to it.
+ */
+@ServerEndpoint(value = "/ws/spectate/games/{gameId}")
+
+public class WebsocketSpectator {
+
+    private final IdManager idManager = IdManager.idManager;
+    private final SessionRegistry sessionRegistry = SessionRegistry.sessionRegistry;
+
+    @OnOpen
+    public void onOpen(Session session, @PathParam("gameId") String gameId, EndpointConfig config) throws IOException {
+        Object gameObject = idManager.getObject(gameId);
+
+        if (!(gameObject instanceof GameMap)) {
+            System.out.println("Can't spectate game that isn't started: " + gameId);
+
+            session.close(new CloseReason(CloseReason.CloseCodes.CANNOT_ACCEPT, "No started game with id " + gameId));
+
+            return;
+        }
+
+        GameMap map = (GameMap) gameObject;
+
+        SessionOutbox outbox = new SessionOutbox(session, WebsocketMonitor.createBinaryEncoderIfRequested(session, map));
+
+        WebsocketMonitor.sendNewDiscoveredLandAsRunsIfRequested(session, map, outbox);
+
+        MeteredPerMessageDeflateExtension.attachMetrics(session, DeflateMetrics.getMetrics(map));
+
+        if (!sessionRegistry.register(session, map, null, outbox)) {
+            System.out.println("Can't spectate game that has ended: " + gameId);
+
+            session.close(new CloseReason(CloseReason.CloseCodes.CANNOT_ACCEPT, "No started game with id " + gameId));
+
+            return;
+        }
+
+        System.out.println("Spectator joined game " + gameId);
+    }
+
+    @OnClose
+    public void onClose(Session session) {
+        sessionRegistry.unregister(session);
+    }
+
+    @OnError
+    public void onError(Session session, Throwable throwable) {
+        System.out.println("Spectator error: " + throwable);
+
+        sessionRegistry.unregister(session);
+    }
+}
@@ -2,6 +2,7 @@ package org.appland.settlers.rest;
 
 import io.restassured.RestAssured;
 import io.restassured.http.ContentType;
+import io.restassured.path.json.JsonPath;
 import io.restassured.response.Response;
 import junit.framework.TestCase;
 import org.appland.settlers.model.Material;
@@ -19,6 +20,7 @@ import org.junit.runners.JUnit4;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -36,6 +38,8 @@ import static org.appland.settlers.model.Material.SWORD;
 import static org.appland.settlers.model.Material.WOOD;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.junit.Assert.assertNotEquals;
 
 /**
@@ -292,6 +296,138 @@ public class AppTest extends TestCase {
                 .body("resources", equalTo("LOW"));
     }
 
+    @Test
+    public void testSetTickPolicyToDropTicks() {
+
+        /* Create the game */
+        String gameId = createOnePlayerGame();
+
+        /* Verify that the default tick policy is to catch up */
+        given().contentType(ContentType.JSON).when()
+                .get("/games/{gameId}", gameId).then()
+                .statusCode(200)
+                .body("tickPolicy", equalTo("CATCH_UP"));
+
+        /* Set the tick policy to drop ticks */
+        Map<String, String> modifiedGame = new HashMap<>();
+
+        modifiedGame.put("tickPolicy", "DROP_TICKS");
+
+        given().contentType(ContentType.JSON).body(modifiedGame).when()
+                .patch("/games/{gameId}", gameId).then()
+                .statusCode(200)
+                .body("tickPolicy", equalTo("DROP_TICKS"));
+    }
+
+    @Test
+    public void testSetUnknownTickPolicyFails() {
+
+        /* Create the game */
+        String gameId = createOnePlayerGame();
+
+        /* Verify that an unknown tick policy is a bad request */
+        Map<String, String> modifiedGame = new HashMap<>();
+
+        modifiedGame.put("tickPolicy", "RUN_BACKWARDS");
+
+        given().contentType(ContentType.JSON).body(modifiedGame).when()
+                .patch("/games/{gameId}", gameId).then()
+                .statusCode(400)
+                .body("status", equalTo("Error"));
+
+        /* Verify that the tick policy is unchanged */
+        given().contentType(ContentType.JSON).when()
+                .get("/games/{gameId}", gameId).then()
+                .statusCode(200)
+                .body("tickPolicy", equalTo("CATCH_UP"));
+    }
+
+    @Test
+    public void testSetGameSpeed() {
+
+        /* Create the game */
+        String gameId = createOnePlayerGame();
+
+        /* Verify that the game runs at normal speed by default */
+        given().contentType(ContentType.JSON).when()
+                .get("/games/{gameId}", gameId).then()
+                .statusCode(200)
+                .body("speed", equalTo("NORMAL"));
+
+        /* Double the speed of the game */
+        Map<String, String> modifiedGame = new HashMap<>();
+
+        modifiedGame.put("speed", "2x");
+
+        given().contentType(ContentType.JSON).body(modifiedGame).when()
+                .patch("/games/{gameId}", gameId).then()
+                .statusCode(200)
+                .body("speed", equalTo("DOUBLE"));
+    }
+
+    @Test
+    public void testSetUnknownGameSpeedFails() {
+
+        /* Create the game */
+        String gameId = createOnePlayerGame();
+
+        /* Verify that an unknown speed is rejected and leaves the speed as it was */
+        Map<String, String> modifiedGame = new HashMap<>();
+
+        modifiedGame.put("speed", "11x");
+
+        given().contentType(ContentType.JSON).body(modifiedGame).when()
+                .patch("/games/{gameId}", gameId).then()
+                .statusCode(400);
+
+        given().contentType(ContentType.JSON).when()
+                .get("/games/{gameId}", gameId).then()
+                .statusCode(200)
+                .body("speed", equalTo("NORMAL"));
+    }
+
+    @Test
+    public void testSetGameSpeedAndResourcesTogether() {
+
+        /* Create the game */
+        String gameId = createOnePlayerGame();
+
+        /* Change the speed and the resources in one request */
+        Map<String, String> modifiedGame = new HashMap<>();
+
+        modifiedGame.put("speed", "2x");
+        modifiedGame.put("resources", "HIGH");
+
+        given().contentType(ContentType.JSON).body(modifiedGame).when()
+                .patch("/games/{gameId}", gameId).then()
+                .statusCode(200)
+                .body("speed", equalTo("DOUBLE"))
+                .body("resources", equalTo("HIGH"));
+    }
+
+    @Test
+    public void testTerrainForStartedGameIsNotSentAgainWhenUnchanged() {
+
+        /* Create and start the game */
+        String gameId = createOnePlayerGame();
+
+        startGame(gameId);
+
+        /* Get the terrain and its tag */
+        String eTag = given().contentType(ContentType.JSON).when()
+                .get("/games/{gameId}/map/terrain", gameId).then()
+                .statusCode(200)
+                .body("width", notNullValue())
+                .header("ETag", notNullValue())
+
+                .extract().header("ETag");
+
+        /* Verify that the terrain is not sent again when the client already has it */
+        given().contentType(ContentType.JSON).header("If-None-Match", eTag).when()
+                .get("/games/{gameId}/map/terrain", gameId).then()
+                .statusCode(304);
+    }
+
     @Test
     public void testSettingResourcesToLowReducesResourcesAvailable() {
 
@@ -575,6 +711,282 @@ public class AppTest extends TestCase {
                 .statusCode(404);
     }
 
+    @Test
+    public void testDeleteStartedGameFreesItsPlayers() {
+
+        /* Create and start the game */
+        String gameId = createOnePlayerGame();
+
+        startGame(gameId);
+
+        String playerId = getPlayerIds(gameId).get(0);
+
+        /* Delete the game */
+        given().contentType(ContentType.JSON).when()
+                .delete("/games/{gameId}", gameId).then()
+                .statusCode(200);
+
+        /* Verify that the game is gone and that its player can't be reached anymore */
+        given().contentType(ContentType.JSON).when()
+                .get("/games/{gameId}", gameId).then()
+                .statusCode(404);
+
+        given().contentType(ContentType.JSON).when()
+                .get("/games/{gameId}/players/{playerId}/view", gameId, playerId).then()
+                .statusCode(404);
+
+        /* Verify that the game is not listed anymore */
+        given().contentType(ContentType.JSON).when()
+                .get("/games").then()
+                .statusCode(200)
+                .body("id", not(hasItem(gameId)));
+    }
+
+    @Test
+    public void testViewForPlayerHasTime() {
+
+        /* Create and start the game */
+        String gameId = createOnePlayerGame();
+
+        startGame(gameId);
+
+        String playerId = getPlayerIds(gameId).get(0);
+
+        /* Verify that the view says when it was taken */
+        given().contentType(ContentType.JSON).when()
+                .get("/games/{gameId}/players/{playerId}/view", gameId, playerId).then()
+                .statusCode(200)
+                .body("time", notNullValue());
+    }
+
+    @Test
+    public void testGetOnlyChangesSinceEarlierView() {
+
+        /* Create and start the game */
+        String gameId = createOnePlayerGame();
+
+        startGame(gameId);
+
+        String playerId = getPlayerIds(gameId).get(0);
+
+        /* Get the view and remember when it was taken */
+        long time = given().contentType(ContentType.JSON).when()
+                .get("/games/{gameId}/players/{playerId}/view", gameId, playerId).then()
+                .statusCode(200)
+                .extract().jsonPath().getLong("time");
+
+        /* Verify that only the changes are sent when asking for what changed since the view */
+        given().contentType(ContentType.JSON).when()
+                .get("/games/{gameId}/players/{playerId}/view?since={since}", gameId, playerId, time).then()
+                .statusCode(200)
+                .body("since", equalTo((int) time))
+                .body("changes", notNullValue())
+                .body("houses", equalTo(null));
+    }
+
+    @Test
+    public void testGetFullViewWhenChangesAreNotKept() {
+
+        /* Create and start the game */
+        String gameId = createOnePlayerGame();
+
+        startGame(gameId);
+
+        String playerId = getPlayerIds(gameId).get(0);
+
+        /* Verify that the whole view is sent when asking for changes from before the game started */
+        given().contentType(ContentType.JSON).when()
+                .get("/games/{gameId}/players/{playerId}/view?since={since}", gameId, playerId, -1).then()
+                .statusCode(200)
+                .body("houses[0].type", equalTo("Headquarter"))
+                .body("changes", equalTo(null));
+    }
+
+    @Test
+    public void testGetDiscoveredLandAsRunsInView() {
+
+        /* Create and start the game */
+        String gameId = createOnePlayerGame();
+
+        startGame(gameId);
+
+        String playerId = getPlayerIds(gameId).get(0);
+
+        /* Get the view with the discovered land as runs */
+        JsonPath view = given().contentType(ContentType.JSON).when()
+                .get("/games/{gameId}/players/{playerId}/view?discoveredLand=runs", gameId, playerId).then()
+                .statusCode(200)
+                .body("discoveredPoints", equalTo(null))
+                .body("discoveredLand.columns", notNullValue())
+                .body("discoveredLand.rows", notNullValue())
+                .extract().jsonPath();
+
+        List<Integer> runs = view.getList("discoveredLand.runs", Integer.class);
+
+        /* Verify that the runs cover as many points as the player has discovered */
+        int discovered = 0;
+
+        for (int i = 1; i < runs.size(); i += 2) {
+            discovered += runs.get(i);
+        }
+
+        assertTrue(discovered > 0);
+
+        List<Object> discoveredPoints = given().contentType(ContentType.JSON).when()
+                .get("/games/{gameId}/players/{playerId}/view", gameId, playerId).then()
+                .statusCode(200)
+                .extract().jsonPath().getList("discoveredPoints");
+
+        assertEquals(discoveredPoints.size(), discovered);
+    }
+
+    @Test
+    public void testGetViewLimitedToViewport() {
+
+        /* Create and start the game */
+        String gameId = createOnePlayerGame();
+
+        startGame(gameId);
+
+        String playerId = getPlayerIds(gameId).get(0);
+
+        /* Find the headquarter */
+        JsonPath view = given().contentType(ContentType.JSON).when()
+                .get("/games/{gameId}/players/{playerId}/view", gameId, playerId).then()
+                .statusCode(200)
+                .extract().jsonPath();
+
+        int x = view.getInt("houses[0].x");
+        int y = view.getInt("houses[0].y");
+
+        /* Verify that the headquarter is in a view limited to a viewport around it */
+        given().contentType(ContentType.JSON).when()
+                .get("/games/{gameId}/players/{playerId}/view?minX={minX}&minY={minY}&maxX={maxX}&maxY={maxY}",
+                        gameId, playerId, x - 5, y - 5, x + 5, y + 5).then()
+                .statusCode(200)
+                .body("houses[0].type", equalTo("Headquarter"));
+
+        /* Verify that nothing is in a view limited to a viewport next to it */
+        given().contentType(ContentType.JSON).when()
+                .get("/games/{gameId}/players/{playerId}/view?minX={minX}&minY={minY}&maxX={maxX}&maxY={maxY}",
+                        gameId, playerId, x + 100, y + 100, x + 110, y + 110).then()
+                .statusCode(200)
+                .body("houses", equalTo(Collections.emptyList()))
+                .body("discoveredPoints", equalTo(Collections.emptyList()));
+    }
+
+    @Test
+    public void testGetViewWithIncompleteViewportFails() {
+
+        /* Create and start the game */
+        String gameId = createOnePlayerGame();
+
+        startGame(gameId);
+
+        String playerId = getPlayerIds(gameId).get(0);
+
+        /* Verify that all bounds of the viewport are needed */
+        given().contentType(ContentType.JSON).when()
+                .get("/games/{gameId}/players/{playerId}/view?minX=1&minY=1", gameId, playerId).then()
+                .statusCode(400);
+    }
+
+    @Test
+    public void testGetAvailableConstructionAsBytesInView() {
+
+        /* Create and start the game */
+        String gameId = createOnePlayerGame();
+
+        startGame(gameId);
+
+        String playerId = getPlayerIds(gameId).get(0);
+
+        /* Get the view with the available construction as bytes */
+        JsonPath view = given().contentType(ContentType.JSON).when()
+                .get("/games/{gameId}/players/{playerId}/view?availableConstruction=bytes", gameId, playerId).then()
+                .statusCode(200)
+                .extract().jsonPath();
+
+        int columns = view.getInt("availableConstruction.columns");
+        int rows = view.getInt("availableConstruction.rows");
+        byte[] available = Base64.getDecoder().decode(view.getString("availableConstruction.available"));
+
+        assertEquals(columns * rows, available.length);
+
+        /* Verify that the bytes cover as many points as the available construction in the regular view */
+        int points = 0;
+
+        for (byte availableAtPoint : available) {
+            if (availableAtPoint != 0) {
+                points++;
+            }
+        }
+
+        assertTrue(points > 0);
+
+        Map<String, Object> availableConstruction = given().contentType(ContentType.JSON).when()
+                .get("/games/{gameId}/players/{playerId}/view", gameId, playerId).then()
+                .statusCode(200)
+                .extract().jsonPath().getMap("availableConstruction");
+
+        assertEquals(availableConstruction.size(), points);
+    }
+
+    @Test
+    public void testAvailableConstructionInViewChangesWhenBuildingIsPlaced() throws Exception {
+
+        /* Create and start the game */
+        String gameId = createOnePlayerGame();
+
+        startGame(gameId);
+
+        String playerId = getPlayerIds(gameId).get(0);
+
+        /* Get the available construction as bytes */
+        JsonPath view = given().contentType(ContentType.JSON).when()
+                .get("/games/{gameId}/players/{playerId}/view?availableConstruction=bytes", gameId, playerId).then()
+                .statusCode(200)
+                .extract().jsonPath();
+
+        int columns = view.getInt("availableConstruction.columns");
+        byte[] available = Base64.getDecoder().decode(view.getString("availableConstruction.available"));
+
+        /* Find a point where a large house can be built */
+        int index = 0;
+
+        while (index < available.length && (available[index] & 8) == 0) {
+            index++;
+        }
+
+        assertTrue(index < available.length);
+
+        int y = index / columns;
+        int x = (index % columns) * 2 + (y & 1);
+
+        /* Place a woodcutter there */
+        placeBuilding(gameId, playerId, x, y, "Woodcutter");
+
+        /* Verify that a house can't be built at the point anymore once the change is picked up */
+        byte availableAfter = available[index];
+
+        for (int i = 0; i < 50; i++) {
+            view = given().contentType(ContentType.JSON).when()
+                    .get("/games/{gameId}/players/{playerId}/view?availableConstruction=bytes", gameId, playerId).then()
+                    .statusCode(200)
+                    .extract().jsonPath();
+
+            availableAfter = Base64.getDecoder().decode(view.getString("availableConstruction.available"))[index];
+
+            if (availableAfter != available[index]) {
+                break;
+            }
+
+            Thread.sleep(100);
+        }
+
+        assertEquals(0, availableAfter & (2 | 4 | 8));
+    }
+
     @Test
     public void testAddedGameCanBeRetrieved() {
 
@@ -1707,6 +2119,27 @@ public class AppTest extends TestCase {
         assertTrue(landStatistics.containsKey("currentTime"));
     }
 
+    @Test
+    public void testGetCompressionStatisticsFromGame() {
+
+        /* Create a game */
+        String gameId = createOnePlayerGame();
+
+        /* Start the game */
+        startGame(gameId);
+
+        /* Verify that it's possible to get compression statistics for the game */
+        Map compressionStatistics = given().contentType(ContentType.JSON).when()
+                .get("/games/{gameId}/statistics/compression", gameId).then()
+                .statusCode(200)
+                .extract().jsonPath().getMap("");
+
+        assertTrue(compressionStatistics.containsKey("compressedMessages"));
+        assertTrue(compressionStatistics.containsKey("uncompressedMessages"));
+        assertTrue(compressionStatistics.containsKey("compressionRatio"));
+        assertTrue(compressionStatistics.containsKey("compressionTimeMs"));
+    }
+
     @Test
     public void testGetLandStatisticsFromGameHasInitialDataPoint() {
 
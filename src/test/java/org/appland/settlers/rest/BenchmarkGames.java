@@ -0,0 +1,133 @@
+package org.appland.settlers.rest;
+
+import org.appland.settlers.computer.CompositePlayer;
+import org.appland.settlers.computer.ComputerPlayer;
+import org.appland.settlers.maps.InvalidMapException;
+import org.appland.settlers.maps.MapFile;
+import org.appland.settlers.maps.MapLoader;
+import org.appland.settlers.model.GameMap;
+import org.appland.settlers.model.Headquarter;
+import org.appland.settlers.model.Player;
+import org.appland.settlers.model.Point;
+import org.appland.settlers.model.WildAnimal;
+
+import java.awt.Color;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sets up games outside of Jetty for the benchmarks, the same way as the REST API starts a game.
+ */
+public class BenchmarkGames {
+
+    public static final String REFERENCE_MAP = "src" + File.separatorChar + "resources" + File.separatorChar + "WELT01.SWD";
+
+    private static final Color[] PLAYER_COLORS = {
+            Color.RED, Color.BLUE, Color.GREEN, Color.YELLOW, Color.MAGENTA, Color.CYAN, Color.ORANGE
+    };
+
+    private static final int COMPUTER_PLAYER_FREQUENCY = 100;
+
+    private final GameMap map;
+    private final List<Player> players;
+    private final List<ComputerPlayer> computerPlayers;
+
+    private BenchmarkGames(GameMap map, List<Player> players, List<ComputerPlayer> computerPlayers) {
+        this.map = map;
+        this.players = players;
+        this.computerPlayers = computerPlayers;
+    }
+
+    public GameMap getMap() {
+        return map;
+    }
+
+    public List<Player> getPlayers() {
+        return players;
+    }
+
+    public List<ComputerPlayer> getComputerPlayers() {
+        return computerPlayers;
+    }
+
+    public static MapFile loadReferenceMap() throws Exception, InvalidMapException {
+        MapLoader mapLoader = new MapLoader();
+
+        return mapLoader.loadMapFromFile(new File(REFERENCE_MAP).getAbsolutePath());
+    }
+
+    /* Starts a game on the reference map where each player is controlled by a computer player */
+    public static BenchmarkGames startGame(int numberPlayers) throws Exception, InvalidMapException {
+        MapLoader mapLoader = new MapLoader();
+        MapFile mapFile = loadReferenceMap();
+
+        GameMap map = mapLoader.convertMapFileToGameMap(mapFile);
+
+        /* Create the players */
+        List<Player> players = new ArrayList<>();
+
+        for (int i = 0; i < numberPlayers; i++) {
+            players.add(new Player("Player " + i, PLAYER_COLORS[i % PLAYER_COLORS.length]));
+        }
+
+        map.setPlayers(players);
+
+        for (Player player : players) {
+            player.setMap(map);
+        }
+
+        /* Limit the amount of wild animals the same way as when a game is started through the API */
+        List<WildAnimal> wildAnimals = map.getWildAnimals();
+        List<WildAnimal> reducedWildAnimals = new ArrayList<>(wildAnimals);
+
+        if (reducedWildAnimals.size() > 10) {
+            reducedWildAnimals = reducedWildAnimals.subList(0, 10);
+        }
+
+        wildAnimals.clear();
+
+        wildAnimals.addAll(reducedWildAnimals);
+
+        /* Place a headquarter for each player */
+        List<Point> startingPoints = map.getStartingPoints();
+
+        for (int i = 0; i < startingPoints.size(); i++) {
+
+            if (i == players.size()) {
+                break;
+            }
+
+            map.placeBuilding(new Headquarter(players.get(i)), startingPoints.get(i));
+        }
+
+        /* Let a computer player control each player */
+        List<ComputerPlayer> computerPlayers = new ArrayList<>();
+
+        for (Player player : players) {
+            computerPlayers.add(new CompositePlayer(player, map));
+        }
+
+        return new BenchmarkGames(map, players, computerPlayers);
+    }
+
+    /* Runs the ticks between two turns of the computer players, without letting them take their turns */
+    public void stepToNextTurn() throws Exception {
+        for (int i = 0; i < COMPUTER_PLAYER_FREQUENCY; i++) {
+            map.stepTime();
+        }
+    }
+
+    /* Runs the game for the given number of ticks, with the computer players taking turns as in the game ticker */
+    public void age(int ticks) throws Exception {
+        for (int i = 1; i <= ticks; i++) {
+            map.stepTime();
+
+            if (i % COMPUTER_PLAYER_FREQUENCY == 0) {
+                for (ComputerPlayer computerPlayer : computerPlayers) {
+                    computerPlayer.turn();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.appland.settlers.rest;
+
+import org.appland.settlers.computer.ComputerPlayer;
+import org.appland.settlers.utils.Stats;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ComputerPlayerTurnsTest {
+
+    private static final long BUDGET = 50;
+
+    @Test
+    public void testTickIsNotDelayedPastItsDeadlineWhenTurnsAreQueued() {
+        ComputerPlayerTurns turns = new ComputerPlayerTurns(new Object(), BUDGET, new Stats());
+        AtomicInteger turnsTaken = new AtomicInteger();
+
+        for (int i = 0; i < 5; i++) {
+            turns.queue(slowPlayer(30, turnsTaken));
+        }
+
+        long nextTick = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(120);
+
+        turns.runBefore(nextTick);
+
+        /* The turns that would go past the next tick wait for the next gap */
+        assertTrue(System.nanoTime() <= nextTick);
+        assertTrue(turnsTaken.get() > 0);
+        assertEquals(5, turnsTaken.get() + turns.getNumberOfTurnsDue());
+
+        turns.runBefore(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1000));
+
+        assertEquals(5, turnsTaken.get());
+        assertEquals(0, turns.getNumberOfTurnsDue());
+    }
+
+    @Test
+    public void testNoTurnStartsWhenTheBudgetDoesNotFit() {
+        ComputerPlayerTurns turns = new ComputerPlayerTurns(new Object(), BUDGET, new Stats());
+        AtomicInteger turnsTaken = new AtomicInteger();
+
+        turns.queue(slowPlayer(0, turnsTaken));
+
+        turns.runBefore(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BUDGET / 2));
+
+        assertEquals(0, turnsTaken.get());
+        assertEquals(1, turns.getNumberOfTurnsDue());
+    }
+
+    @Test
+    public void testPlayerIsQueuedOnce() {
+        ComputerPlayerTurns turns = new ComputerPlayerTurns(new Object(), BUDGET, new Stats());
+        ComputerPlayer computerPlayer = slowPlayer(0, new AtomicInteger());
+
+        turns.queue(computerPlayer);
+        turns.queue(computerPlayer);
+
+        assertEquals(1, turns.getNumberOfTurnsDue());
+    }
+
+    @Test
+    public void testOverrunsInARowAreCounted() {
+        ComputerPlayerTurns turns = new ComputerPlayerTurns(new Object(), 10, new Stats());
+        AtomicInteger turnsTaken = new AtomicInteger();
+        ComputerPlayer slow = slowPlayer(20, turnsTaken);
+        ComputerPlayer fast = slowPlayer(0, turnsTaken);
+
+        for (int i = 0; i < ComputerPlayerTurns.OVERRUNS_BEFORE_REPORT; i++) {
+            turns.queue(slow);
+            turns.queue(fast);
+
+            turns.runBefore(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1000));
+        }
+
+        assertEquals(ComputerPlayerTurns.OVERRUNS_BEFORE_REPORT, turns.getOverrunsInARow(slow));
+        assertEquals(0, turns.getOverrunsInARow(fast));
+    }
+
+    private static ComputerPlayer slowPlayer(long turnTime, AtomicInteger turnsTaken) {
+        return (ComputerPlayer) Proxy.newProxyInstance(
+                ComputerPlayerTurnsTest.class.getClassLoader(),
+                new Class<?>[] {ComputerPlayer.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "turn":
+                            Thread.sleep(turnTime);
+
+                            turnsTaken.incrementAndGet();
+
+                            return null;
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,87 @@
+package org.appland.settlers.rest;
+
+import org.appland.settlers.computer.ComputerPlayer;
+import org.appland.settlers.maps.InvalidMapException;
+import org.appland.settlers.model.GameMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many ticks per second the simulation sustains for a given number of players and game age.
+ *
+ * Each iteration starts from a new game aged to the given age, and the iterations are kept short, so the game that
+ * is measured doesn't grow much older than the age it's measured for.
+ *
+ * Run with: mvn -Pbenchmark test-compile exec:exec -Djmh.args="GameTickBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameTickBenchmark {
+
+    @Param({"1", "2", "4"})
+    public int players;
+
+    /* The number of ticks the game has run before it's measured */
+    @Param({"0", "5000", "20000"})
+    public int gameAge;
+
+    private GameMap map;
+    private BenchmarkGames game;
+
+    @Setup(Level.Iteration)
+    public void startGame() throws Exception, InvalidMapException {
+        game = BenchmarkGames.startGame(players);
+
+        game.age(gameAge);
+
+        map = game.getMap();
+    }
+
+    @Benchmark
+    public void stepTime() throws Exception {
+        map.stepTime();
+    }
+
+    /* The game runs on between the turns so the computer players don't make the same decisions over and over */
+    @State(Scope.Benchmark)
+    public static class BetweenTurns {
+
+        @Setup(Level.Invocation)
+        public void stepToNextTurn(GameTickBenchmark benchmark) throws Exception {
+            benchmark.game.stepToNextTurn();
+        }
+    }
+
+    @Benchmark
+    public void computerPlayerTurns(BetweenTurns betweenTurns) throws Exception {
+        for (ComputerPlayer computerPlayer : game.getComputerPlayers()) {
+            computerPlayer.turn();
+        }
+    }
+
+    /* A full tick where the computer players take their turn, i.e. the worst case tick in the game ticker */
+    @Benchmark
+    public void stepTimeWithComputerPlayerTurns() throws Exception {
+        map.stepTime();
+
+        for (ComputerPlayer computerPlayer : game.getComputerPlayers()) {
+            computerPlayer.turn();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.appland.settlers.rest;
+
+import org.appland.settlers.rest.resource.TickPolicy;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TickGovernorTest {
+
+    private static final long PERIOD = 200;
+
+    @Test
+    public void testSlowDownDoesNotDriftWhenTicksAreOnTime() {
+        TickGovernor governor = new TickGovernor();
+
+        governor.start(0, PERIOD);
+
+        /* Every tick wakes up a little late, but well within its period */
+        for (int i = 1; i <= 1000; i++) {
+            long now = governor.getNextTick() + 3;
+
+            assertEquals(1, governor.ticksToRun(now, PERIOD, TickPolicy.SLOW_DOWN));
+        }
+
+        assertEquals(1001 * PERIOD, governor.getNextTick());
+    }
+
+    @Test
+    public void testSlowDownRestartsTheScheduleAfterALateTick() {
+        TickGovernor governor = new TickGovernor();
+
+        governor.start(0, PERIOD);
+
+        /* The tick that was due at 200 runs a period and a half late */
+        long now = PERIOD + PERIOD + PERIOD / 2;
+
+        assertEquals(1, governor.ticksToRun(now, PERIOD, TickPolicy.SLOW_DOWN));
+        assertEquals(0, governor.getDroppedTicks());
+        assertEquals(now + PERIOD, governor.getNextTick());
+    }
+}
@@ -0,0 +1,368 @@
+package org.appland.settlers.rest.resource;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryChangesEncoderTest {
+
+    @Test
+    public void testChangesRoundTrip() throws Exception {
+        BinaryChangesEncoder encoder = new BinaryChangesEncoder(new BinaryChangesEncoder.StringTable());
+        Decoder decoder = new Decoder();
+
+        ChangesDelta delta = new ChangesDelta(17);
+
+        delta.add("workersWithNewTargets", worker("12", 10, -4, 1.5));
+        delta.add("newRoads", road("30", "5", "6"));
+        delta.add("removedWorkers", "7");
+        delta.add("removedDecorations", point(3, 5));
+
+        assertEquals(expected(delta), decoder.decode(encoder.encode(delta)));
+    }
+
+    @Test
+    public void testOnlyIdFieldsAreSentAsIds() throws Exception {
+        BinaryChangesEncoder encoder = new BinaryChangesEncoder(new BinaryChangesEncoder.StringTable());
+        Decoder decoder = new Decoder();
+
+        ChangesDelta delta = new ChangesDelta(1);
+        JSONObject jsonPlayer = new JSONObject();
+
+        /* A name can be a number without being an id */
+        jsonPlayer.put("id", "42");
+        jsonPlayer.put("name", "2024");
+
+        delta.add("newPlayers", jsonPlayer);
+        delta.add("removedFlags", "8");
+        delta.add("newRoads", road("30", "5", "6"));
+
+        JSONObject decoded = decoder.decode(encoder.encode(delta));
+
+        assertEquals(expected(delta), decoded);
+        assertEquals(new HashSet<>(Arrays.asList("42", "8", "30", "5", "6")), decoder.ids);
+    }
+
+    @Test
+    public void testNumbersWithLeadingZerosAreKeptAsStrings() throws Exception {
+        BinaryChangesEncoder encoder = new BinaryChangesEncoder(new BinaryChangesEncoder.StringTable());
+        Decoder decoder = new Decoder();
+
+        ChangesDelta delta = new ChangesDelta(1);
+
+        delta.add("removedFlags", "007");
+
+        assertEquals(expected(delta), decoder.decode(encoder.encode(delta)));
+        assertTrue(decoder.ids.isEmpty());
+    }
+
+    @Test
+    public void testLaterMessagesOnlySendNewStrings() throws Exception {
+        BinaryChangesEncoder encoder = new BinaryChangesEncoder(new BinaryChangesEncoder.StringTable());
+        Decoder decoder = new Decoder();
+
+        ChangesDelta first = new ChangesDelta(1);
+        ChangesDelta second = new ChangesDelta(2);
+
+        first.add("workersWithNewTargets", worker("12", 10, 10, 0.5));
+        second.add("workersWithNewTargets", worker("12", 12, 10, 0.5));
+
+        decoder.decode(encoder.encode(first));
+
+        int stringsAfterFirst = decoder.strings.size();
+
+        assertEquals(expected(second), decoder.decode(encoder.encode(second)));
+        assertEquals(stringsAfterFirst, decoder.strings.size());
+    }
+
+    @Test
+    public void testSessionThatJoinsLateGetsTheWholeTable() throws Exception {
+        BinaryChangesEncoder.StringTable stringTable = new BinaryChangesEncoder.StringTable();
+        BinaryChangesEncoder early = new BinaryChangesEncoder(stringTable);
+        BinaryChangesEncoder late = new BinaryChangesEncoder(stringTable);
+
+        ChangesDelta first = new ChangesDelta(1);
+        ChangesDelta second = new ChangesDelta(2);
+
+        first.add("newRoads", road("30", "5", "6"));
+        second.add("newRoads", road("31", "6", "7"));
+
+        new Decoder().decode(early.encode(first));
+
+        /* The strings from before the late session joined are sent to it first */
+        Decoder lateDecoder = new Decoder();
+
+        assertEquals(expected(second), lateDecoder.decode(late.encode(second)));
+        assertEquals(stringTable.size(), lateDecoder.strings.size());
+    }
+
+    @Test
+    public void testStringsPastTheSizeOfTheTableAreSentAsTheyAre() throws Exception {
+        BinaryChangesEncoder.StringTable stringTable = new BinaryChangesEncoder.StringTable(4);
+        BinaryChangesEncoder encoder = new BinaryChangesEncoder(stringTable);
+        Decoder decoder = new Decoder();
+
+        ChangesDelta delta = new ChangesDelta(1);
+
+        delta.add("newRoads", road("30", "5", "6"));
+        delta.add("workersWithNewTargets", worker("12", 10, 10, 0.5));
+
+        assertEquals(expected(delta), decoder.decode(encoder.encode(delta)));
+        assertEquals(4, stringTable.size());
+        assertEquals(4, decoder.strings.size());
+        assertTrue(decoder.literals > 0);
+    }
+
+    @Test
+    public void testLongStringsAreNotKeptInTheTable() throws Exception {
+        BinaryChangesEncoder.StringTable stringTable = new BinaryChangesEncoder.StringTable();
+        BinaryChangesEncoder encoder = new BinaryChangesEncoder(stringTable);
+
+        char[] characters = new char[100];
+
+        Arrays.fill(characters, 'a');
+
+        String longString = new String(characters);
+        ChangesDelta delta = new ChangesDelta(1);
+        JSONObject jsonMessage = new JSONObject();
+
+        jsonMessage.put("text", longString);
+
+        delta.add("newMessages", jsonMessage);
+
+        assertEquals(expected(delta), new Decoder().decode(encoder.encode(delta)));
+        assertEquals(-1, stringTable.indexOf(longString));
+    }
+
+    @Test
+    public void testSharedElementRoundTrip() throws Exception {
+        SharedElements sharedElements = new SharedElements();
+        BinaryChangesEncoder encoder = new BinaryChangesEncoder(sharedElements.getStringTable());
+        BinaryChangesEncoder otherEncoder = new BinaryChangesEncoder(new BinaryChangesEncoder.StringTable());
+        Object gameObject = new Object();
+
+        sharedElements.startTick(1);
+
+        SharedElement element = sharedElements.get("workersWithNewTargets", gameObject, o -> worker("12", 10, 10, 0.5));
+
+        ChangesDelta delta = new ChangesDelta(1);
+
+        delta.add("workersWithNewTargets", element);
+
+        ChangesDelta plainDelta = new ChangesDelta(1);
+
+        plainDelta.add("workersWithNewTargets", worker("12", 10, 10, 0.5));
+
+        assertEquals(expected(plainDelta), new Decoder().decode(encoder.encode(delta)));
+
+        /* An encoder with another table can't use the shared encoding */
+        assertEquals(expected(plainDelta), new Decoder().decode(otherEncoder.encode(delta)));
+    }
+
+    @Test
+    public void testResyncRequired() {
+        ByteBuffer message = BinaryChangesEncoder.resyncRequired();
+
+        assertEquals(BinaryChangesEncoder.VERSION, message.get());
+        assertEquals(BinaryChangesEncoder.KIND_RESYNC_REQUIRED, message.get());
+        assertFalse(message.hasRemaining());
+    }
+
+    private static JSONObject expected(ChangesDelta delta) throws Exception {
+        return (JSONObject) new JSONParser().parse(delta.toJson());
+    }
+
+    private static JSONObject point(long x, long y) {
+        JSONObject jsonPoint = new JSONObject();
+
+        jsonPoint.put("x", x);
+        jsonPoint.put("y", y);
+
+        return jsonPoint;
+    }
+
+    private static JSONObject worker(String id, long x, long y, double percentageTraveled) {
+        JSONObject jsonWorker = point(x, y);
+        JSONArray jsonPath = new JSONArray();
+
+        jsonPath.add(point(x + 1, y + 1));
+        jsonPath.add(point(x + 2, y));
+
+        jsonWorker.put("id", id);
+        jsonWorker.put("type", "Courier");
+        jsonWorker.put("path", jsonPath);
+        jsonWorker.put("percentageTraveled", percentageTraveled);
+        jsonWorker.put("cargo", null);
+        jsonWorker.put("inside", false);
+
+        return jsonWorker;
+    }
+
+    private static JSONObject road(String id, String startId, String endId) {
+        JSONObject jsonRoad = new JSONObject();
+        JSONArray jsonPoints = new JSONArray();
+
+        jsonPoints.add(point(1, 1));
+        jsonPoints.add(point(3, 1));
+
+        jsonRoad.put("id", id);
+        jsonRoad.put("startFlagId", startId);
+        jsonRoad.put("endFlagId", endId);
+        jsonRoad.put("points", jsonPoints);
+
+        return jsonRoad;
+    }
+
+    /* Decodes the binary protocol the way a client does and keeps the string table between messages */
+    private static class Decoder {
+        private final List<String> strings = new ArrayList<>();
+        private final Set<String> ids = new HashSet<>();
+
+        private ByteBuffer message;
+        private int literals;
+
+        private JSONObject decode(ByteBuffer buffer) {
+            message = buffer.duplicate();
+
+            assertEquals(BinaryChangesEncoder.VERSION, message.get());
+            assertEquals(BinaryChangesEncoder.KIND_CHANGES, message.get());
+
+            long numberNewStrings = readVarint();
+
+            for (long i = 0; i < numberNewStrings; i++) {
+                strings.add(readUtf8());
+            }
+
+            JSONObject jsonChanges = new JSONObject();
+
+            jsonChanges.put("time", readVarint());
+
+            long numberSections = readVarint();
+
+            for (long i = 0; i < numberSections; i++) {
+                String sectionName = (String) readElement();
+                long numberElements = readVarint();
+                JSONArray jsonElements = new JSONArray();
+
+                for (long j = 0; j < numberElements; j++) {
+                    jsonElements.add(readElement());
+                }
+
+                jsonChanges.put(sectionName, jsonElements);
+            }
+
+            assertFalse(message.hasRemaining());
+
+            return jsonChanges;
+        }
+
+        private Object readElement() {
+            byte tag = message.get();
+
+            switch (tag) {
+                case BinaryChangesEncoder.TAG_NULL:
+                    return null;
+                case BinaryChangesEncoder.TAG_FALSE:
+                    return false;
+                case BinaryChangesEncoder.TAG_TRUE:
+                    return true;
+                case BinaryChangesEncoder.TAG_INTEGER:
+                    return readSignedVarint();
+                case BinaryChangesEncoder.TAG_DOUBLE:
+                    return Double.longBitsToDouble(message.getLong());
+                case BinaryChangesEncoder.TAG_STRING:
+                    return strings.get((int) readVarint());
+                case BinaryChangesEncoder.TAG_LITERAL:
+                    literals++;
+
+                    return readUtf8();
+                case BinaryChangesEncoder.TAG_ID:
+                    String id = Long.toString(readVarint());
+
+                    ids.add(id);
+
+                    return id;
+                case BinaryChangesEncoder.TAG_ARRAY: {
+                    long size = readVarint();
+                    JSONArray jsonArray = new JSONArray();
+
+                    for (long i = 0; i < size; i++) {
+                        jsonArray.add(readElement());
+                    }
+
+                    return jsonArray;
+                }
+                case BinaryChangesEncoder.TAG_OBJECT: {
+                    long size = readVarint();
+                    JSONObject jsonObject = new JSONObject();
+
+                    for (long i = 0; i < size; i++) {
+                        String name = (String) readElement();
+
+                        jsonObject.put(name, readElement());
+                    }
+
+                    return jsonObject;
+                }
+                case BinaryChangesEncoder.TAG_POINT:
+                    return point(readSignedVarint(), readSignedVarint());
+                case BinaryChangesEncoder.TAG_POINTS: {
+                    long size = readVarint();
+                    JSONArray jsonPoints = new JSONArray();
+
+                    for (long i = 0; i < size; i++) {
+                        jsonPoints.add(point(readSignedVarint(), readSignedVarint()));
+                    }
+
+                    return jsonPoints;
+                }
+                default:
+                    throw new AssertionError("Unknown tag: " + tag);
+            }
+        }
+
+        private String readUtf8() {
+            byte[] bytes = new byte[(int) readVarint()];
+
+            message.get(bytes);
+
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private long readVarint() {
+            long value = 0;
+            int shift = 0;
+
+            while (true) {
+                byte b = message.get();
+
+                value = value | ((long) (b & 0x7F) << shift);
+
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+
+                shift = shift + 7;
+            }
+        }
+
+        private long readSignedVarint() {
+            long value = readVarint();
+
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
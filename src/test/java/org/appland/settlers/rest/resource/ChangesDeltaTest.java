@@ -0,0 +1,259 @@
+package org.appland.settlers.rest.resource;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChangesDeltaTest {
+
+    @Test
+    public void testLaterUpdateOfSameObjectReplacesEarlier() {
+        ChangesDelta delta = new ChangesDelta(1);
+
+        delta.add("workersWithNewTargets", worker("1", 10, 10));
+
+        delta.merge(changes(2, "workersWithNewTargets", worker("1", 12, 10)));
+
+        assertEquals(2, delta.getTime());
+        assertEquals(1, delta.size());
+        assertEquals(12L, ((JSONObject) first(delta, "workersWithNewTargets")).get("x"));
+    }
+
+    @Test
+    public void testUpdatesKeepTheOrderOfTheLatestUpdate() {
+        ChangesDelta delta = new ChangesDelta(1);
+
+        delta.add("workersWithNewTargets", worker("1", 10, 10));
+        delta.add("workersWithNewTargets", worker("2", 20, 20));
+        delta.add("workersWithNewTargets", worker("1", 12, 10));
+
+        assertEquals(Arrays.asList("2", "1"), idsIn(delta, "workersWithNewTargets"));
+    }
+
+    @Test
+    public void testAddThenRemoveSendsOnlyTheRemoval() {
+        ChangesDelta delta = new ChangesDelta(1);
+
+        delta.add("newFlags", flag("5", 10, 10));
+        delta.add("changedFlags", flag("5", 10, 10));
+
+        delta.merge(changes(2, "removedFlags", "5"));
+
+        assertFalse(delta.getSectionNames().contains("newFlags"));
+        assertFalse(delta.getSectionNames().contains("changedFlags"));
+        assertEquals(Arrays.asList("5"), new ArrayList<>(delta.getElements("removedFlags")));
+    }
+
+    @Test
+    public void testRemoveThenAddSendsOnlyTheAddition() {
+        ChangesDelta delta = new ChangesDelta(1);
+
+        /* A worker that goes into a building is removed and comes back when it walks out again */
+        delta.add("removedWorkers", "7");
+
+        delta.merge(changes(2, "workersWithNewTargets", worker("7", 10, 10)));
+
+        assertFalse(delta.getSectionNames().contains("removedWorkers"));
+        assertEquals(Arrays.asList("7"), idsIn(delta, "workersWithNewTargets"));
+    }
+
+    @Test
+    public void testRemoveThenAddAtSamePointSendsOnlyTheAddition() {
+        ChangesDelta delta = new ChangesDelta(1);
+
+        delta.add("removedDecorations", point(10, 10));
+
+        delta.merge(changes(2, "newDecorations", decoration(10, 10, "MUSHROOM")));
+
+        assertFalse(delta.getSectionNames().contains("removedDecorations"));
+        assertEquals(1, delta.getElements("newDecorations").size());
+    }
+
+    @Test
+    public void testAddRemoveAddKeepsOnlyTheLatestAddition() {
+        ChangesDelta delta = new ChangesDelta(1);
+
+        delta.add("newStones", stone("3", 10, 10));
+        delta.add("removedStones", "3");
+        delta.add("newStones", stone("3", 10, 10));
+
+        assertFalse(delta.getSectionNames().contains("removedStones"));
+        assertEquals(Arrays.asList("3"), idsIn(delta, "newStones"));
+    }
+
+    @Test
+    public void testChangeOfObjectNotSentYetIsFoldedIntoTheNewObject() {
+        ChangesDelta delta = new ChangesDelta(1);
+
+        JSONObject building = building("9", "UNFINISHED");
+        JSONObject finishedBuilding = building("9", "READY");
+
+        delta.add("newBuildings", building);
+
+        delta.merge(changes(2, "changedBuildings", finishedBuilding));
+
+        assertFalse(delta.getSectionNames().contains("changedBuildings"));
+        assertEquals("READY", ((JSONObject) first(delta, "newBuildings")).get("state"));
+    }
+
+    @Test
+    public void testChangeOfObjectAlreadySentIsKeptAsChange() {
+        ChangesDelta delta = new ChangesDelta(1);
+
+        delta.add("changedBuildings", building("9", "READY"));
+
+        assertEquals(Arrays.asList("9"), idsIn(delta, "changedBuildings"));
+    }
+
+    @Test
+    public void testMergingDoesNotChangeTheLaterDelta() {
+        ChangesDelta earlier = new ChangesDelta(1);
+        ChangesDelta later = changes(2, "removedFlags", "5");
+
+        earlier.add("newFlags", flag("5", 10, 10));
+
+        earlier.merge(later);
+
+        assertEquals(1, later.size());
+        assertTrue(later.getSectionNames().contains("removedFlags"));
+    }
+
+    @Test
+    public void testCopyIsIndependent() {
+        ChangesDelta delta = new ChangesDelta(1);
+
+        delta.add("newFlags", flag("5", 10, 10));
+
+        ChangesDelta copy = delta.copy();
+
+        copy.add("removedFlags", "5");
+
+        assertEquals(Arrays.asList("5"), idsIn(delta, "newFlags"));
+        assertFalse(copy.getSectionNames().contains("newFlags"));
+    }
+
+    @Test
+    public void testCopyInsideLeavesOutPositionChangesOutsideTheViewport() {
+        ChangesDelta delta = new ChangesDelta(1);
+
+        delta.add("workersWithNewTargets", worker("1", 10, 10));
+        delta.add("workersWithNewTargets", worker("2", 100, 100));
+        delta.add("newFlags", flag("5", 100, 100));
+
+        ChangesDelta inside = delta.copyInside(new Viewport(0, 0, 20, 20));
+
+        assertEquals(Arrays.asList("1"), idsIn(inside, "workersWithNewTargets"));
+        assertEquals(Arrays.asList("5"), idsIn(inside, "newFlags"));
+        assertEquals(3, delta.size());
+    }
+
+    @Test
+    public void testCopyWithoutLeavesOutTheSectionsAndKeepsTheOriginal() {
+        ChangesDelta delta = new ChangesDelta(1);
+
+        delta.add("workersWithNewTargets", worker("1", 10, 10));
+        delta.add("newMessages", worker("2", 10, 10));
+
+        ChangesDelta copy = delta.copyWithout(Arrays.asList("newMessages"));
+
+        assertEquals(Arrays.asList("1"), idsIn(copy, "workersWithNewTargets"));
+        assertFalse(copy.getSectionNames().contains("newMessages"));
+        assertEquals(2, delta.size());
+
+        /* Merging into the copy doesn't change the original */
+        copy.merge(changes(2, "workersWithNewTargets", worker("3", 10, 10)));
+
+        assertEquals(Arrays.asList("1"), idsIn(delta, "workersWithNewTargets"));
+    }
+
+    @Test
+    public void testToJsonRoundTrip() throws Exception {
+        ChangesDelta delta = new ChangesDelta(17);
+
+        delta.add("newFlags", flag("5", 10, 10));
+        delta.add("removedWorkers", "7");
+
+        JSONObject json = (JSONObject) new JSONParser().parse(delta.toJson());
+
+        assertEquals(17L, json.get("time"));
+        assertEquals(1, ((JSONArray) json.get("newFlags")).size());
+        assertEquals("7", ((JSONArray) json.get("removedWorkers")).get(0));
+
+        ChangesDelta parsed = ChangesDelta.fromJson(json);
+
+        assertEquals(17, parsed.getTime());
+        assertEquals(2, parsed.size());
+    }
+
+    private static ChangesDelta changes(long time, String sectionName, Object element) {
+        ChangesDelta delta = new ChangesDelta(time);
+
+        delta.add(sectionName, element);
+
+        return delta;
+    }
+
+    private static Object first(ChangesDelta delta, String sectionName) {
+        return delta.getElements(sectionName).iterator().next();
+    }
+
+    private static List<String> idsIn(ChangesDelta delta, String sectionName) {
+        List<String> ids = new ArrayList<>();
+
+        for (Object element : delta.getElements(sectionName)) {
+            ids.add((String) ((JSONObject) element).get("id"));
+        }
+
+        return ids;
+    }
+
+    private static JSONObject point(long x, long y) {
+        JSONObject jsonPoint = new JSONObject();
+
+        jsonPoint.put("x", x);
+        jsonPoint.put("y", y);
+
+        return jsonPoint;
+    }
+
+    private static JSONObject worker(String id, long x, long y) {
+        JSONObject jsonWorker = point(x, y);
+
+        jsonWorker.put("id", id);
+
+        return jsonWorker;
+    }
+
+    private static JSONObject flag(String id, long x, long y) {
+        return worker(id, x, y);
+    }
+
+    private static JSONObject stone(String id, long x, long y) {
+        return worker(id, x, y);
+    }
+
+    private static JSONObject decoration(long x, long y, String decoration) {
+        JSONObject jsonDecoration = point(x, y);
+
+        jsonDecoration.put("decoration", decoration);
+
+        return jsonDecoration;
+    }
+
+    private static JSONObject building(String id, String state) {
+        JSONObject jsonBuilding = worker(id, 10, 10);
+
+        jsonBuilding.put("state", state);
+
+        return jsonBuilding;
+    }
+}
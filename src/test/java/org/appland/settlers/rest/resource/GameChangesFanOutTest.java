@@ -0,0 +1,195 @@
+package org.appland.settlers.rest.resource;
+
+import org.appland.settlers.maps.InvalidMapException;
+import org.appland.settlers.model.GameMap;
+import org.appland.settlers.model.Player;
+import org.appland.settlers.rest.BenchmarkGames;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class GameChangesFanOutTest {
+
+    private GameMap map;
+    private List<Player> players;
+
+    @Before
+    public void startGame() throws Exception, InvalidMapException {
+        BenchmarkGames game = BenchmarkGames.startGame(2);
+
+        map = game.getMap();
+        players = game.getPlayers();
+    }
+
+    @After
+    public void releaseGame() {
+        GameResource.releaseGame(map);
+    }
+
+    @Test
+    public void testElementIsEncodedOnceForAllPlayersDuringATick() {
+        SharedElements sharedElements = new SharedElements();
+        Object worker = new Object();
+
+        sharedElements.startTick(1);
+
+        SharedElement forFirstPlayer = sharedElements.get("workersWithNewTargets", worker, GameChangesFanOutTest::toJson);
+        SharedElement forSecondPlayer = sharedElements.get("workersWithNewTargets", worker, GameChangesFanOutTest::toJson);
+
+        assertSame(forFirstPlayer, forSecondPlayer);
+
+        /* The encoded forms are made once and reused */
+        assertSame(forFirstPlayer.toJSONString(), forSecondPlayer.toJSONString());
+        assertSame(forFirstPlayer.getBinary(sharedElements.getStringTable()), forSecondPlayer.getBinary(sharedElements.getStringTable()));
+
+        /* The same object in another section is another element */
+        assertNotSame(forFirstPlayer, sharedElements.get("workersWithStartedActions", worker, GameChangesFanOutTest::toJson));
+    }
+
+    @Test
+    public void testElementsAreEncodedAgainInTheNextTick() {
+        SharedElements sharedElements = new SharedElements();
+        Object worker = new Object();
+
+        sharedElements.startTick(1);
+
+        SharedElement firstTick = sharedElements.get("workersWithNewTargets", worker, GameChangesFanOutTest::toJson);
+
+        /* Later players' changes for the same tick don't start it over */
+        sharedElements.startTick(1);
+
+        assertSame(firstTick, sharedElements.get("workersWithNewTargets", worker, GameChangesFanOutTest::toJson));
+
+        sharedElements.startTick(2);
+
+        assertNotSame(firstTick, sharedElements.get("workersWithNewTargets", worker, GameChangesFanOutTest::toJson));
+    }
+
+    @Test
+    public void testSpectatorsGetTheChangesOfAllPlayersInOneMessage() throws Exception {
+        GameChangesFanOut fanOut = new GameChangesFanOut(map, 5000);
+        SlowRemote remote = new SlowRemote();
+
+        SessionRegistry.sessionRegistry.register(remote.getSession(), map, null, new SessionOutbox(remote.getSession(), null));
+
+        fanOut.collectForSpectators(players.get(0), workers(5, "1"));
+
+        /* Nothing is sent until the changes of every player are in */
+        Thread.sleep(200);
+
+        assertEquals(0, remote.getNumberOfMessages());
+
+        fanOut.collectForSpectators(players.get(1), workers(5, "2", "1"));
+
+        remote.waitForMessages(1);
+
+        JSONObject jsonChanges = (JSONObject) new JSONParser().parse(remote.getMessage(0));
+
+        assertEquals(5L, jsonChanges.get("time"));
+        assertEquals(Arrays.asList("2", "1"), workerIds(jsonChanges));
+    }
+
+    @Test
+    public void testSpectatorsGetAnUnfinishedTickWhenTheNextOneStarts() throws Exception {
+        GameChangesFanOut fanOut = new GameChangesFanOut(map, 5000);
+        SlowRemote remote = new SlowRemote();
+
+        SessionRegistry.sessionRegistry.register(remote.getSession(), map, null, new SessionOutbox(remote.getSession(), null));
+
+        fanOut.collectForSpectators(players.get(0), workers(5, "1"));
+
+        /* The second player had no changes for the tick */
+        fanOut.collectForSpectators(players.get(0), workers(6, "3"));
+
+        remote.waitForMessages(1);
+
+        JSONObject jsonChanges = (JSONObject) new JSONParser().parse(remote.getMessage(0));
+
+        assertEquals(5L, jsonChanges.get("time"));
+        assertEquals(Arrays.asList("1"), workerIds(jsonChanges));
+    }
+
+    @Test
+    public void testSpectatorsGetTheLastTickWhenTheGameGoesQuiet() throws Exception {
+        GameChangesFanOut fanOut = new GameChangesFanOut(map, 50);
+        SlowRemote remote = new SlowRemote();
+
+        SessionRegistry.sessionRegistry.register(remote.getSession(), map, null, new SessionOutbox(remote.getSession(), null));
+
+        /* The second player has no changes, and no tick follows */
+        fanOut.collectForSpectators(players.get(0), workers(5, "1"));
+
+        remote.waitForMessages(1);
+
+        JSONObject jsonChanges = (JSONObject) new JSONParser().parse(remote.getMessage(0));
+
+        assertEquals(5L, jsonChanges.get("time"));
+        assertEquals(Arrays.asList("1"), workerIds(jsonChanges));
+    }
+
+    @Test
+    public void testSessionsOfAPlayerGetThePlayersChanges() throws Exception {
+        SlowRemote remote = new SlowRemote("first");
+        SlowRemote otherRemote = new SlowRemote("second");
+
+        SessionRegistry.sessionRegistry.register(remote.getSession(), map, players.get(0), new SessionOutbox(remote.getSession(), null));
+        SessionRegistry.sessionRegistry.register(otherRemote.getSession(), map, players.get(0), new SessionOutbox(otherRemote.getSession(), null));
+
+        /* The headquarter sends out workers when the game starts */
+        for (int i = 0; i < 100; i++) {
+            synchronized (map) {
+                map.stepTime();
+            }
+        }
+
+        remote.waitForMessages(1);
+        otherRemote.waitForMessages(1);
+    }
+
+    private static Object toJson(Object gameObject) {
+        JSONObject jsonWorker = new JSONObject();
+
+        jsonWorker.put("id", "12");
+        jsonWorker.put("x", 10L);
+        jsonWorker.put("y", 10L);
+
+        return jsonWorker;
+    }
+
+    private static ChangesDelta workers(long time, String... ids) {
+        ChangesDelta delta = new ChangesDelta(time);
+
+        for (String id : ids) {
+            JSONObject jsonWorker = new JSONObject();
+
+            jsonWorker.put("id", id);
+            jsonWorker.put("x", 10L);
+            jsonWorker.put("y", 10L);
+
+            delta.add("workersWithNewTargets", jsonWorker);
+        }
+
+        return delta;
+    }
+
+    private static List<String> workerIds(JSONObject jsonChanges) {
+        List<String> ids = new ArrayList<>();
+
+        for (Object element : (JSONArray) jsonChanges.get("workersWithNewTargets")) {
+            ids.add((String) ((JSONObject) element).get("id"));
+        }
+
+        return ids;
+    }
+}
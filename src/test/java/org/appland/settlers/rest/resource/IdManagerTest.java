@@ -0,0 +1,277 @@
+package org.appland.settlers.rest.resource;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IdManagerTest {
+
+    /* The number of ids in each chunk of the id manager */
+    private static final int CHUNK_SIZE = 4096;
+
+    @Test
+    public void testIdIsStableAndCanBeLookedUpBothWays() {
+        IdManager idManager = new IdManager();
+        Object gameObject = new Object();
+
+        String id = idManager.getId(gameObject);
+
+        assertNotNull(id);
+        assertEquals(id, idManager.getId(gameObject));
+        assertSame(gameObject, idManager.getObject(id));
+        assertEquals(1, idManager.getNumberOfIds());
+    }
+
+    @Test
+    public void testUnknownIdsAreNotFound() {
+        IdManager idManager = new IdManager();
+
+        idManager.getId(new Object());
+
+        assertNull(idManager.getObject("0"));
+        assertNull(idManager.getObject("-1"));
+        assertNull(idManager.getObject("abc"));
+        assertNull(idManager.getObject("1234567"));
+        assertNull(idManager.getObject((String) null));
+    }
+
+    @Test
+    public void testRemovedObjectGetsNewId() {
+        IdManager idManager = new IdManager();
+        Object gameObject = new Object();
+
+        String id = idManager.getId(gameObject);
+
+        idManager.remove(gameObject);
+
+        assertNull(idManager.getObject(id));
+        assertEquals(0, idManager.getNumberOfIds());
+
+        /* Ids are never handed out again */
+        String newId = idManager.getId(gameObject);
+
+        assertNotEquals(id, newId);
+        assertSame(gameObject, idManager.getObject(newId));
+    }
+
+    @Test
+    public void testUpdatedObjectKeepsTheId() {
+        IdManager idManager = new IdManager();
+        Object oldObject = new Object();
+        Object updatedObject = new Object();
+
+        String id = idManager.getId(oldObject);
+
+        idManager.updateObject(oldObject, updatedObject);
+
+        assertSame(updatedObject, idManager.getObject(id));
+        assertEquals(id, idManager.getId(updatedObject));
+    }
+
+    @Test
+    public void testIdsAreKeptWhenTheTableIsResized() {
+        IdManager idManager = new IdManager();
+        List<Object> gameObjects = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+
+        /* The table starts with room for a few hundred objects */
+        for (int i = 0; i < 10000; i++) {
+            Object gameObject = new Object();
+
+            gameObjects.add(gameObject);
+            ids.add(idManager.getId(gameObject));
+        }
+
+        /* Removed slots are dropped when the table is resized */
+        idManager.removeAll(gameObjects.subList(0, 5000));
+
+        for (int i = 0; i < 5000; i++) {
+            idManager.getId(new Object());
+        }
+
+        for (int i = 0; i < 5000; i++) {
+            assertNull(idManager.getObject(ids.get(i)));
+        }
+
+        for (int i = 5000; i < gameObjects.size(); i++) {
+            assertEquals(ids.get(i), idManager.getId(gameObjects.get(i)));
+            assertSame(gameObjects.get(i), idManager.getObject(ids.get(i)));
+        }
+
+        assertEquals(10000, idManager.getNumberOfIds());
+    }
+
+    @Test
+    public void testChunkIsLetGoWhenAllItsIdsAreRemoved() {
+        IdManager idManager = new IdManager();
+        List<Object> gameObjects = new ArrayList<>();
+
+        /* Fill the first chunk and start on the second. Id 0 is never used */
+        for (int i = 1; i < CHUNK_SIZE + 10; i++) {
+            gameObjects.add(new Object());
+        }
+
+        for (Object gameObject : gameObjects) {
+            idManager.getId(gameObject);
+        }
+
+        assertEquals(2, idManager.getNumberOfChunks());
+
+        /* The first chunk goes with its last id */
+        idManager.removeAll(gameObjects.subList(0, CHUNK_SIZE - 2));
+
+        assertEquals(2, idManager.getNumberOfChunks());
+
+        idManager.remove(gameObjects.get(CHUNK_SIZE - 2));
+
+        assertEquals(1, idManager.getNumberOfChunks());
+        assertNull(idManager.getObject("1"));
+
+        /* The objects in the second chunk are still there */
+        for (Object gameObject : gameObjects.subList(CHUNK_SIZE - 1, gameObjects.size())) {
+            assertSame(gameObject, idManager.getObject(idManager.getId(gameObject)));
+        }
+
+        /* The chunk that is being filled is kept even when it's empty */
+        idManager.removeAll(gameObjects);
+
+        assertEquals(1, idManager.getNumberOfChunks());
+        assertEquals(0, idManager.getNumberOfIds());
+    }
+
+    @Test
+    public void testConcurrentPutGetAndRemove() throws Exception {
+        IdManager idManager = new IdManager();
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+
+        /* Objects that all threads ask for */
+        List<Object> sharedObjects = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+            sharedObjects.add(new Object());
+        }
+
+        try {
+            for (int thread = 0; thread < threads; thread++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+
+                    /* Enough objects to resize the table and to fill and let go of several chunks */
+                    for (int round = 0; round < 50; round++) {
+                        List<Object> gameObjects = new ArrayList<>();
+
+                        for (int i = 0; i < 500; i++) {
+                            Object gameObject = new Object();
+                            String id = idManager.getId(gameObject);
+
+                            assertNotNull(id);
+                            assertSame(gameObject, idManager.getObject(id));
+
+                            gameObjects.add(gameObject);
+                        }
+
+                        for (Object sharedObject : sharedObjects) {
+                            String id = idManager.getId(sharedObject);
+
+                            assertNotNull(id);
+                            assertSame(sharedObject, idManager.getObject(id));
+                        }
+
+                        for (Object gameObject : gameObjects) {
+                            String id = idManager.getId(gameObject);
+
+                            idManager.remove(gameObject);
+
+                            assertNull(idManager.getObject(id));
+                        }
+                    }
+
+                    return null;
+                }));
+            }
+
+            start.countDown();
+
+            for (Future<?> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(sharedObjects.size(), idManager.getNumberOfIds());
+    }
+
+    @Test
+    public void testIdNeverNullWhileOtherThreadsRemoveIt() throws Exception {
+        IdManager idManager = new IdManager();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        List<Object> gameObjects = new ArrayList<>();
+
+        for (int i = 0; i < 3 * CHUNK_SIZE; i++) {
+            gameObjects.add(new Object());
+        }
+
+        try {
+
+            /* Remove the objects while they are handed out ids so whole chunks are let go under the readers */
+            Future<?> remover = executor.submit(() -> {
+                for (int round = 0; round < 20; round++) {
+                    idManager.removeAll(gameObjects);
+                }
+            });
+
+            while (!remover.isDone()) {
+                for (Object gameObject : gameObjects) {
+                    assertNotNull(idManager.getId(gameObject));
+                }
+            }
+
+            remover.get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSweeperPurgesIdsOfCollectedObjects() throws Exception {
+        IdManager idManager = new IdManager(true);
+        Object keptObject = new Object();
+
+        String keptId = idManager.getId(keptObject);
+
+        /* Objects that nothing else keeps alive */
+        for (int i = 0; i < 1000; i++) {
+            idManager.getId(new Object());
+        }
+
+        long deadline = System.currentTimeMillis() + 10000;
+
+        while (idManager.getNumberOfIds() > 1 && System.currentTimeMillis() < deadline) {
+            System.gc();
+
+            Thread.sleep(50);
+        }
+
+        assertEquals(1, idManager.getNumberOfIds());
+        assertTrue(idManager.getNumberOfPurgedIds() >= 1000);
+        assertSame(keptObject, idManager.getObject(keptId));
+        assertEquals(keptId, idManager.getId(keptObject));
+    }
+}
@@ -0,0 +1,33 @@
+package org.appland.settlers.rest.resource;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MapFileTerrainCacheTest {
+
+    @Test
+    public void testGzipIsAccepted() {
+        assertTrue(MapFileTerrainCache.acceptsGzip("gzip"));
+        assertTrue(MapFileTerrainCache.acceptsGzip("gzip, deflate, br"));
+        assertTrue(MapFileTerrainCache.acceptsGzip("deflate;q=1.0, GZIP;q=0.5"));
+        assertTrue(MapFileTerrainCache.acceptsGzip("*"));
+    }
+
+    @Test
+    public void testGzipWithZeroQualityIsNotAccepted() {
+        assertFalse(MapFileTerrainCache.acceptsGzip("gzip;q=0"));
+        assertFalse(MapFileTerrainCache.acceptsGzip("deflate, gzip ; q=0.0"));
+        assertFalse(MapFileTerrainCache.acceptsGzip("*, gzip;q=0"));
+        assertFalse(MapFileTerrainCache.acceptsGzip("*;q=0"));
+    }
+
+    @Test
+    public void testOtherCodingsAreNotTakenForGzip() {
+        assertFalse(MapFileTerrainCache.acceptsGzip(null));
+        assertFalse(MapFileTerrainCache.acceptsGzip(""));
+        assertFalse(MapFileTerrainCache.acceptsGzip("identity"));
+        assertFalse(MapFileTerrainCache.acceptsGzip("identity, x-gzip"));
+    }
+}
@@ -0,0 +1,58 @@
+package org.appland.settlers.rest.resource;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PlayerViewWriterTest {
+
+    @Test
+    public void testNothingIsSentUntilTheBufferedViewIsSent() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        PlayerViewWriter.CappedBuffer buffer = new PlayerViewWriter.CappedBuffer(outputStream, 100);
+
+        buffer.write(bytes("{\"houses\":[]"));
+        buffer.write('}');
+
+        assertEquals(0, outputStream.size());
+        assertFalse(buffer.isOverflowed());
+
+        buffer.sendBuffered();
+
+        assertArrayEquals(bytes("{\"houses\":[]}"), outputStream.toByteArray());
+    }
+
+    @Test
+    public void testViewLargerThanTheCapIsSentAsItIsWritten() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        PlayerViewWriter.CappedBuffer buffer = new PlayerViewWriter.CappedBuffer(outputStream, 10);
+
+        buffer.write(bytes("{\"houses\":"));
+
+        assertEquals(0, outputStream.size());
+
+        /* The buffered bytes go first, then everything is sent right away */
+        buffer.write('[');
+
+        assertTrue(buffer.isOverflowed());
+        assertArrayEquals(bytes("{\"houses\":["), outputStream.toByteArray());
+
+        buffer.write(bytes("]}"));
+
+        assertArrayEquals(bytes("{\"houses\":[]}"), outputStream.toByteArray());
+
+        buffer.sendBuffered();
+
+        assertEquals(13, outputStream.size());
+    }
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,199 @@
+package org.appland.settlers.rest.resource;
+
+import org.appland.settlers.maps.InvalidMapException;
+import org.appland.settlers.model.Building;
+import org.appland.settlers.model.GameChangesList;
+import org.appland.settlers.model.GameMap;
+import org.appland.settlers.model.Player;
+import org.appland.settlers.rest.BenchmarkGames;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the JSON serialization of realistic mid-game states. Run it together with the gc profiler to see the
+ * allocation rate next to the throughput.
+ *
+ * Each iteration serializes a new game so caches filled in by one iteration, e.g. the terrain and the discovered
+ * land, aren't carried over into the next one.
+ *
+ * Run with: mvn -Pbenchmark test-compile exec:exec -Djmh.args="SerializationBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SerializationBenchmark {
+
+    private static final int RECORDED_TICKS = 50;
+
+    @Param({"2", "4"})
+    public int players;
+
+    /* The number of ticks the game has run before it's serialized */
+    @Param({"5000", "20000"})
+    public int gameAge;
+
+    private GameMap map;
+    private Player player;
+    private Utils utils;
+    private SettlersAPI settlersAPI;
+    private String gameId;
+    private String playerId;
+    private List<GameChangesList> recordedChanges;
+    private List<Player> recordedPlayers;
+    private List<GameChangesList> recordedChangesForAllPlayers;
+
+    @Setup(Level.Iteration)
+    public void startGame() throws Exception, InvalidMapException {
+        BenchmarkGames game = BenchmarkGames.startGame(players);
+
+        game.age(gameAge);
+
+        map = game.getMap();
+        player = game.getPlayers().get(0);
+
+        utils = new Utils(IdManager.idManager);
+        settlersAPI = new SettlersAPI();
+
+        gameId = IdManager.idManager.getId(map);
+        playerId = IdManager.idManager.getId(player);
+
+        /* Record the changes the first player sees during a short period of the game */
+        recordedChanges = new ArrayList<>();
+
+        player.monitorGameView((monitoredPlayer, gameChangesList) -> recordedChanges.add(gameChangesList));
+
+        /* Record the changes of all players too, to measure how much is gained by sharing the encoding */
+        recordedPlayers = new ArrayList<>();
+        recordedChangesForAllPlayers = new ArrayList<>();
+
+        for (Player gamePlayer : game.getPlayers()) {
+            gamePlayer.monitorGameView((monitoredPlayer, gameChangesList) -> {
+                recordedPlayers.add(monitoredPlayer);
+                recordedChangesForAllPlayers.add(gameChangesList);
+            });
+        }
+
+        for (int i = 0; i < RECORDED_TICKS; i++) {
+            map.stepTime();
+        }
+    }
+
+    /* Let go of the game the same way as when it's deleted through the API */
+    @TearDown(Level.Iteration)
+    public void deleteGame() {
+        GameResource.releaseGame(map);
+    }
+
+    @Benchmark
+    public String terrainToJson() {
+        return utils.terrainToJson(map).toJSONString();
+    }
+
+    @Benchmark
+    public void houseToJson(Blackhole blackhole) {
+        for (Building building : map.getBuildings()) {
+            blackhole.consume(utils.houseToJson(building).toJSONString());
+        }
+    }
+
+    @Benchmark
+    public void gameMonitoringEventsToJson(Blackhole blackhole) {
+        for (GameChangesList gameChangesList : recordedChanges) {
+            JSONObject jsonMonitoringEvents = utils.gameMonitoringEventsToJson(gameChangesList, player);
+
+            blackhole.consume(jsonMonitoringEvents.toJSONString());
+        }
+    }
+
+    @Benchmark
+    public void gameMonitoringEventsToJsonForAllPlayers(Blackhole blackhole) {
+        for (int i = 0; i < recordedChangesForAllPlayers.size(); i++) {
+            JSONObject jsonMonitoringEvents = utils.gameMonitoringEventsToJson(recordedChangesForAllPlayers.get(i), recordedPlayers.get(i));
+
+            blackhole.consume(jsonMonitoringEvents.toJSONString());
+        }
+    }
+
+    @Benchmark
+    public void gameMonitoringEventsToJsonForAllPlayersShared(Blackhole blackhole) {
+        SharedElements sharedElements = new SharedElements();
+
+        for (int i = 0; i < recordedChangesForAllPlayers.size(); i++) {
+            JSONObject jsonMonitoringEvents = utils.gameMonitoringEventsToJson(recordedChangesForAllPlayers.get(i), recordedPlayers.get(i), sharedElements);
+
+            blackhole.consume(jsonMonitoringEvents.toJSONString());
+        }
+    }
+
+    @Benchmark
+    public long getViewForPlayer() throws IOException {
+        return writeView(settlersAPI.getViewForPlayer(gameId, playerId, null, null, null, null, null, null, null));
+    }
+
+    @Benchmark
+    public long getViewForPlayerWithCompactEncodings() throws IOException {
+        return writeView(settlersAPI.getViewForPlayer(gameId, playerId, null, DiscoveredLand.RUNS_FORMAT, AvailableConstructionRaster.BYTES_FORMAT, null, null, null, null));
+    }
+
+    private static long writeView(Response response) throws IOException {
+
+        /* The view is written when the response is sent. It's encoded into a buffer that is copied here, so both count */
+        CountingOutputStream outputStream = new CountingOutputStream();
+
+        ((StreamingOutput) response.getEntity()).write(outputStream);
+
+        return outputStream.count;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SerializationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count = count + 1;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            count = count + length;
+        }
+    }
+}
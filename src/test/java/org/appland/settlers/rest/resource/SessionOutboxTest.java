@@ -0,0 +1,349 @@
+package org.appland.settlers.rest.resource;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SessionOutboxTest {
+
+    private static final String RESYNC_REQUIRED_MESSAGE = "{\"resyncRequired\":true}";
+
+    private static final long NO_LIMIT = Long.MAX_VALUE;
+
+    @Test
+    public void testChangesAreSent() throws Exception {
+        SlowRemote remote = new SlowRemote();
+        SessionOutbox outbox = new SessionOutbox(remote.getSession(), null, NO_LIMIT, Integer.MAX_VALUE, NO_LIMIT);
+
+        outbox.offer(workers(1, 1));
+
+        remote.waitForMessages(1);
+
+        assertTrue(remote.getMessage(0).contains("workersWithNewTargets"));
+        assertEquals(0, outbox.getResyncs());
+    }
+
+    @Test
+    public void testChangesOfferedWhileSendingAreMergedIntoOneMessage() throws Exception {
+        SlowRemote remote = new SlowRemote();
+        SessionOutbox outbox = new SessionOutbox(remote.getSession(), null, NO_LIMIT, Integer.MAX_VALUE, NO_LIMIT);
+
+        outbox.offer(workers(1, 1));
+
+        remote.waitForMessages(1);
+
+        /* The first message is still on its way */
+        outbox.offer(workers(2, 1));
+        outbox.offer(workers(3, 1));
+
+        remote.completeSend(0);
+
+        remote.waitForMessages(2);
+
+        assertEquals(1, outbox.getCoalescedDeltas());
+        assertEquals(2, remote.getNumberOfMessages());
+    }
+
+    @Test
+    public void testTooManyPendingChangesRequireResync() throws Exception {
+        SlowRemote remote = new SlowRemote();
+        SessionOutbox outbox = new SessionOutbox(remote.getSession(), null, NO_LIMIT, 10, NO_LIMIT);
+
+        outbox.offer(workers(1, 1));
+
+        remote.waitForMessages(1);
+
+        /* More changes pile up than the client can be behind with while the first message is on its way */
+        outbox.offer(workers(2, 11));
+
+        assertEquals(1, outbox.getResyncs());
+
+        /* Later changes are not needed since the client fetches its view */
+        outbox.offer(workers(3, 1));
+
+        remote.completeSend(0);
+
+        remote.waitForMessages(2);
+
+        assertEquals(RESYNC_REQUIRED_MESSAGE, remote.getMessage(1));
+
+        /* The changes start over after the marker */
+        remote.completeSend(1);
+
+        outbox.offer(workers(4, 1));
+
+        remote.waitForMessages(3);
+
+        assertTrue(remote.getMessage(2).contains("workersWithNewTargets"));
+    }
+
+    @Test
+    public void testMessageOnItsWayForTooLongRequiresResync() throws Exception {
+        SlowRemote remote = new SlowRemote();
+        SessionOutbox outbox = new SessionOutbox(remote.getSession(), null, 50, Integer.MAX_VALUE, NO_LIMIT);
+
+        outbox.offer(workers(1, 1));
+
+        remote.waitForMessages(1);
+
+        Thread.sleep(100);
+
+        assertTrue(outbox.getLag() > 50);
+
+        outbox.offer(workers(2, 1));
+
+        assertEquals(1, outbox.getResyncs());
+
+        remote.completeSend(0);
+
+        remote.waitForMessages(2);
+
+        assertEquals(RESYNC_REQUIRED_MESSAGE, remote.getMessage(1));
+    }
+
+    @Test
+    public void testTooLargeMessageIsReplacedWithResync() throws Exception {
+        SlowRemote remote = new SlowRemote();
+        SessionOutbox outbox = new SessionOutbox(remote.getSession(), null, NO_LIMIT, Integer.MAX_VALUE, 100);
+
+        outbox.offer(workers(1, 20));
+
+        remote.waitForMessages(1);
+
+        assertEquals(RESYNC_REQUIRED_MESSAGE, remote.getMessage(0));
+        assertEquals(1, outbox.getResyncs());
+
+        /* The changes start over after the marker */
+        remote.completeSend(0);
+
+        outbox.offer(workers(2, 1));
+
+        remote.waitForMessages(2);
+
+        assertTrue(remote.getMessage(1).contains("workersWithNewTargets"));
+    }
+
+    @Test
+    public void testClosedOutboxSendsNothing() throws Exception {
+        SlowRemote remote = new SlowRemote();
+        SessionOutbox outbox = new SessionOutbox(remote.getSession(), null, NO_LIMIT, Integer.MAX_VALUE, NO_LIMIT);
+
+        outbox.close();
+
+        outbox.offer(workers(1, 1));
+
+        Thread.sleep(200);
+
+        assertEquals(0, remote.getNumberOfMessages());
+    }
+
+    @Test
+    public void testNothingIsSentUntilTheSnapshotOfTheViewportIsAdded() throws Exception {
+        SlowRemote remote = new SlowRemote();
+        SessionOutbox outbox = new SessionOutbox(remote.getSession(), null, NO_LIMIT, Integer.MAX_VALUE, NO_LIMIT);
+
+        outbox.setViewport(new Viewport(0, 0, 20, 20));
+
+        outbox.offer(worker(6, "1", 12));
+
+        Thread.sleep(200);
+
+        assertEquals(0, remote.getNumberOfMessages());
+
+        /* The snapshot is from when the viewport moved so the worker's later change wins */
+        ChangesDelta snapshot = worker(5, "1", 10);
+
+        snapshot.merge(worker(5, "2", 5));
+
+        outbox.addSnapshot(snapshot);
+
+        remote.waitForMessages(1);
+
+        Map<String, Long> positions = workerPositions(remote.getMessage(0));
+
+        assertEquals(12L, (long) positions.get("1"));
+        assertEquals(5L, (long) positions.get("2"));
+    }
+
+    @Test
+    public void testSnapshotGoesAfterChangesFromBeforeTheViewportMoved() throws Exception {
+        SlowRemote remote = new SlowRemote();
+        SessionOutbox outbox = new SessionOutbox(remote.getSession(), null, NO_LIMIT, Integer.MAX_VALUE, NO_LIMIT);
+
+        outbox.offer(workers(1, 1));
+
+        remote.waitForMessages(1);
+
+        /* Pending while the first message is on its way */
+        outbox.offer(worker(4, "1", 8));
+
+        outbox.setViewport(new Viewport(0, 0, 20, 20));
+
+        outbox.addSnapshot(worker(5, "1", 10));
+
+        remote.completeSend(0);
+
+        remote.waitForMessages(2);
+
+        assertEquals(10L, (long) workerPositions(remote.getMessage(1)).get("1"));
+    }
+
+    @Test
+    public void testChangesOutsideTheViewportAreLeftOut() throws Exception {
+        SlowRemote remote = new SlowRemote();
+        SessionOutbox outbox = new SessionOutbox(remote.getSession(), null, NO_LIMIT, Integer.MAX_VALUE, NO_LIMIT);
+
+        outbox.setViewport(new Viewport(0, 0, 20, 20));
+        outbox.addSnapshot(new ChangesDelta(1));
+
+        ChangesDelta delta = worker(2, "1", 10);
+
+        delta.merge(worker(2, "2", 500));
+
+        outbox.offer(delta);
+
+        remote.waitForMessages(1);
+
+        Map<String, Long> positions = workerPositions(remote.getMessage(0));
+
+        assertEquals(1, positions.size());
+        assertTrue(positions.containsKey("1"));
+    }
+
+    @Test
+    public void testRepliesAreSentBeforeWaitingChanges() throws Exception {
+        SlowRemote remote = new SlowRemote();
+        SessionOutbox outbox = new SessionOutbox(remote.getSession(), null, NO_LIMIT, Integer.MAX_VALUE, NO_LIMIT);
+
+        outbox.offer(workers(1, 1));
+
+        remote.waitForMessages(1);
+
+        outbox.offer(workers(2, 1));
+        outbox.offerReply("{\"status\":\"Error\"}");
+
+        remote.completeSend(0);
+
+        remote.waitForMessages(2);
+
+        assertEquals("{\"status\":\"Error\"}", remote.getMessage(1));
+
+        remote.completeSend(1);
+
+        remote.waitForMessages(3);
+
+        assertTrue(remote.getMessage(2).contains("workersWithNewTargets"));
+    }
+
+    @Test
+    public void testWaitingChangesAreSentAfterASendFails() throws Exception {
+        SlowRemote remote = new SlowRemote();
+        SessionOutbox outbox = new SessionOutbox(remote.getSession(), null, NO_LIMIT, Integer.MAX_VALUE, NO_LIMIT);
+
+        outbox.offer(workers(1, 1));
+
+        remote.waitForMessages(1);
+
+        outbox.offer(workers(2, 1));
+        outbox.offerReply("{\"status\":\"Error\"}");
+
+        /* Sending the reply throws, and nothing more is offered */
+        remote.failNextSend();
+        remote.completeSend(0);
+
+        remote.waitForMessages(2);
+
+        assertTrue(remote.getMessage(1).contains("workersWithNewTargets"));
+    }
+
+    @Test
+    public void testNewDiscoveredLandIsSentAsRunsWhenAskedFor() throws Exception {
+        SlowRemote remote = new SlowRemote();
+        SessionOutbox outbox = new SessionOutbox(remote.getSession(), null, NO_LIMIT, Integer.MAX_VALUE, NO_LIMIT);
+
+        /* The map is 10 x 10 so there are 6 columns and 11 rows */
+        outbox.sendNewDiscoveredLandAsRuns(10, 10);
+
+        ChangesDelta delta = new ChangesDelta(1);
+
+        delta.add("newDiscoveredLand", point(2, 2));
+        delta.add("newDiscoveredLand", point(4, 2));
+        delta.add("newDiscoveredLand", point(3, 3));
+
+        outbox.offer(delta);
+
+        remote.waitForMessages(1);
+
+        JSONObject jsonChanges = (JSONObject) new JSONParser().parse(remote.getMessage(0));
+        JSONObject jsonRuns = (JSONObject) ((JSONArray) jsonChanges.get("newDiscoveredLandRuns")).get(0);
+
+        assertFalse(jsonChanges.containsKey("newDiscoveredLand"));
+        assertEquals(6L, jsonRuns.get("columns"));
+        assertEquals(11L, jsonRuns.get("rows"));
+
+        /* Bits 13 and 14 on the second row, then bit 19 on the third */
+        assertEquals(Arrays.asList(13L, 2L, 4L, 1L), jsonRuns.get("runs"));
+    }
+
+    private static JSONObject point(long x, long y) {
+        JSONObject jsonPoint = new JSONObject();
+
+        jsonPoint.put("x", x);
+        jsonPoint.put("y", y);
+
+        return jsonPoint;
+    }
+
+    private static Map<String, Long> workerPositions(String message) throws Exception {
+        JSONObject jsonChanges = (JSONObject) new JSONParser().parse(message);
+        Map<String, Long> positions = new HashMap<>();
+
+        for (Object element : (JSONArray) jsonChanges.get("workersWithNewTargets")) {
+            JSONObject jsonWorker = (JSONObject) element;
+
+            positions.put((String) jsonWorker.get("id"), (Long) jsonWorker.get("x"));
+        }
+
+        return positions;
+    }
+
+    /* A delta with one worker that has a new target */
+    private static ChangesDelta worker(long time, String id, long x) {
+        ChangesDelta delta = new ChangesDelta(time);
+        JSONObject jsonWorker = new JSONObject();
+
+        jsonWorker.put("id", id);
+        jsonWorker.put("x", x);
+        jsonWorker.put("y", x);
+
+        delta.add("workersWithNewTargets", jsonWorker);
+
+        return delta;
+    }
+
+    /* A delta with the given number of workers that have new targets */
+    private static ChangesDelta workers(long time, int numberWorkers) {
+        ChangesDelta delta = new ChangesDelta(time);
+
+        for (int i = 0; i < numberWorkers; i++) {
+            JSONObject jsonWorker = new JSONObject();
+
+            jsonWorker.put("id", time + "-" + i);
+            jsonWorker.put("x", (long) i);
+            jsonWorker.put("y", (long) i);
+
+            delta.add("workersWithNewTargets", jsonWorker);
+        }
+
+        return delta;
+    }
+}
@@ -0,0 +1,138 @@
+package org.appland.settlers.rest.resource;
+
+import org.appland.settlers.maps.InvalidMapException;
+import org.appland.settlers.model.GameMap;
+import org.appland.settlers.model.Player;
+import org.appland.settlers.rest.BenchmarkGames;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionRegistryTest {
+
+    private final SessionRegistry sessionRegistry = SessionRegistry.sessionRegistry;
+
+    private GameMap map;
+    private List<Player> players;
+
+    @Before
+    public void startGame() throws Exception, InvalidMapException {
+        BenchmarkGames game = BenchmarkGames.startGame(2);
+
+        map = game.getMap();
+        players = game.getPlayers();
+    }
+
+    @After
+    public void releaseGame() {
+        GameResource.releaseGame(map);
+    }
+
+    @Test
+    public void testSessionsAreKeptByPlayer() {
+        SessionOutbox first = register("first", players.get(0));
+        SessionOutbox second = register("second", players.get(0));
+        SessionOutbox third = register("third", players.get(1));
+
+        assertEquals(3, sessionRegistry.getNumberOfSessions(map));
+        assertEquals(new HashSet<>(Arrays.asList(first, second)), sessionRegistry.getOutboxes(map, players.get(0)));
+        assertEquals(Collections.singleton(third), sessionRegistry.getOutboxes(map, players.get(1)));
+        assertTrue(sessionRegistry.getSpectators(map).isEmpty());
+    }
+
+    @Test
+    public void testUnregisteredSessionIsClosedAndForgotten() {
+        SlowRemote remote = new SlowRemote("first");
+        SessionOutbox first = new SessionOutbox(remote.getSession(), null);
+
+        sessionRegistry.register(remote.getSession(), map, players.get(0), first);
+
+        SessionOutbox second = register("second", players.get(0));
+
+        sessionRegistry.unregister(remote.getSession());
+
+        assertTrue(first.isClosed());
+        assertFalse(second.isClosed());
+        assertEquals(1, sessionRegistry.getNumberOfSessions(map));
+        assertEquals(Collections.singleton(second), sessionRegistry.getOutboxes(map, players.get(0)));
+
+        /* Unregistering again does nothing */
+        sessionRegistry.unregister(remote.getSession());
+
+        assertEquals(1, sessionRegistry.getNumberOfSessions(map));
+    }
+
+    @Test
+    public void testRegisteringTheSameSessionAgainReplacesIt() {
+        SessionOutbox first = register("first", players.get(0));
+        SessionOutbox again = register("first", players.get(1));
+
+        assertTrue(first.isClosed());
+        assertEquals(1, sessionRegistry.getNumberOfSessions(map));
+        assertTrue(sessionRegistry.getOutboxes(map, players.get(0)).isEmpty());
+        assertEquals(Collections.singleton(again), sessionRegistry.getOutboxes(map, players.get(1)));
+    }
+
+    @Test
+    public void testSpectatorsAreNotKeptByPlayer() {
+        SessionOutbox spectator = register("spectator", null);
+
+        assertEquals(Collections.singleton(spectator), sessionRegistry.getSpectators(map));
+        assertTrue(sessionRegistry.getOutboxes(map, players.get(0)).isEmpty());
+        assertTrue(sessionRegistry.getOutboxes(map, players.get(1)).isEmpty());
+    }
+
+    @Test
+    public void testAllSessionsAreClosedWhenTheGameGoesAway() {
+        SessionOutbox first = register("first", players.get(0));
+        SessionOutbox spectator = register("spectator", null);
+
+        sessionRegistry.unregisterGame(map);
+
+        assertTrue(first.isClosed());
+        assertTrue(spectator.isClosed());
+        assertEquals(0, sessionRegistry.getNumberOfSessions(map));
+        assertTrue(sessionRegistry.getOutboxes(map, players.get(0)).isEmpty());
+        assertTrue(sessionRegistry.getSpectators(map).isEmpty());
+    }
+
+    @Test
+    public void testNothingIsKeptForSessionsThatOpenAfterTheGameWentAway() {
+        GameResource.releaseGame(map);
+
+        SlowRemote remote = new SlowRemote("late");
+        SessionOutbox outbox = new SessionOutbox(remote.getSession(), null);
+
+        assertFalse(sessionRegistry.register(remote.getSession(), map, players.get(0), outbox));
+
+        assertTrue(outbox.isClosed());
+        assertEquals(0, sessionRegistry.getNumberOfSessions(map));
+        assertNull(sessionRegistry.getMap(remote.getSession()));
+        assertTrue(sessionRegistry.getOutboxes(map, players.get(0)).isEmpty());
+
+        /* Neither the fan-out nor the compression metrics of the game are created again */
+        assertNotSame(GameChangesFanOut.getFanOut(map), GameChangesFanOut.getFanOut(map));
+        assertNull(DeflateMetrics.getMetrics(map));
+    }
+
+    /* The player is null for spectators */
+    private SessionOutbox register(String sessionId, Player player) {
+        SlowRemote remote = new SlowRemote(sessionId);
+        SessionOutbox outbox = new SessionOutbox(remote.getSession(), null);
+
+        sessionRegistry.register(remote.getSession(), map, player, outbox);
+
+        return outbox;
+    }
+}
@@ -0,0 +1,124 @@
+package org.appland.settlers.rest.resource;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * A websocket session whose messages are only sent when the test says so.
+ */
+class SlowRemote {
+    private final List<String> messages;
+    private final List<SendHandler> handlers;
+    private final Session session;
+
+    private boolean failNextSend;
+
+    SlowRemote() {
+        this("session");
+    }
+
+    SlowRemote(String sessionId) {
+        messages = new ArrayList<>();
+        handlers = new ArrayList<>();
+
+        RemoteEndpoint.Async async = (RemoteEndpoint.Async) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] {RemoteEndpoint.Async.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("sendText") && args.length == 2) {
+                        if (takeFailNextSend()) {
+                            throw new IllegalStateException("Failed to send");
+                        }
+
+                        record((String) args[0], (SendHandler) args[1]);
+                    }
+
+                    return null;
+                });
+
+        session = (Session) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] {Session.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isOpen":
+                            return true;
+                        case "getAsyncRemote":
+                            return async;
+                        case "getId":
+                            return sessionId;
+                        case "getRequestParameterMap":
+                            return Collections.emptyMap();
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    Session getSession() {
+        return session;
+    }
+
+    /* The next message is not sent, and sending it throws */
+    synchronized void failNextSend() {
+        failNextSend = true;
+    }
+
+    private synchronized boolean takeFailNextSend() {
+        boolean fail = failNextSend;
+
+        failNextSend = false;
+
+        return fail;
+    }
+
+    private synchronized void record(String message, SendHandler handler) {
+        messages.add(message);
+        handlers.add(handler);
+
+        notifyAll();
+    }
+
+    synchronized int getNumberOfMessages() {
+        return messages.size();
+    }
+
+    synchronized String getMessage(int index) {
+        return messages.get(index);
+    }
+
+    void completeSend(int index) {
+        SendHandler handler;
+
+        synchronized (this) {
+            handler = handlers.get(index);
+        }
+
+        handler.onResult(new SendResult());
+    }
+
+    synchronized void waitForMessages(int numberMessages) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        while (messages.size() < numberMessages) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+            if (remaining <= 0) {
+                break;
+            }
+
+            wait(remaining);
+        }
+
+        assertEquals(numberMessages, messages.size());
+    }
+}
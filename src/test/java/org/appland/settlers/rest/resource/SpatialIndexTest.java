@@ -0,0 +1,226 @@
+package org.appland.settlers.rest.resource;
+
+import org.appland.settlers.maps.InvalidMapException;
+import org.appland.settlers.model.Building;
+import org.appland.settlers.model.Flag;
+import org.appland.settlers.model.GameMap;
+import org.appland.settlers.model.Player;
+import org.appland.settlers.model.Point;
+import org.appland.settlers.model.Road;
+import org.appland.settlers.rest.BenchmarkGames;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpatialIndexTest {
+
+    private GameMap map;
+    private Player player;
+    private Flag headquarterFlag;
+    private SpatialIndex index;
+
+    @Before
+    public void startGame() throws Exception, InvalidMapException {
+        BenchmarkGames game = BenchmarkGames.startGame(2);
+
+        map = game.getMap();
+        player = game.getPlayers().get(0);
+
+        Building headquarter = player.getBuildings().get(0);
+
+        headquarterFlag = map.getFlagAtPoint(headquarter.getPosition().downRight());
+        index = SpatialIndex.getIndex(map);
+    }
+
+    @After
+    public void releaseGame() {
+        GameResource.releaseGame(map);
+    }
+
+    @Test
+    public void testObjectsAreFoundInTheirChunk() {
+        Building headquarter = player.getBuildings().get(0);
+        Point position = headquarter.getPosition();
+
+        assertTrue(index.getBuildings(chunks(position)).contains(headquarter));
+        assertTrue(index.getFlags(chunks(headquarterFlag.getPosition())).contains(headquarterFlag));
+
+        /* Nothing is found in a chunk on the other side of the map */
+        Point farAway = new Point((position.x + map.getWidth() / 2) % map.getWidth(), position.y);
+
+        assertFalse(index.getBuildings(chunks(farAway)).contains(headquarter));
+    }
+
+    @Test
+    public void testNewFlagInAnotherChunkIsAdded() throws Exception {
+        Point point = availableFlagPointInOtherChunk(headquarterFlag.getPosition(), false);
+
+        Flag flag = map.placeFlag(player, point);
+
+        stepTime();
+
+        assertTrue(index.getFlags(chunks(point)).contains(flag));
+        assertFalse(index.getFlags(chunks(headquarterFlag.getPosition())).contains(flag));
+    }
+
+    @Test
+    public void testRoadAcrossChunkBorderIsFoundFromBothChunksOnce() throws Exception {
+        Point point = availableFlagPointInOtherChunk(headquarterFlag.getPosition(), true);
+
+        map.placeFlag(player, point);
+
+        Road road = map.placeAutoSelectedRoad(player, headquarterFlag.getPosition(), point);
+
+        stepTime();
+
+        assertTrue(index.getRoads(chunks(headquarterFlag.getPosition())).contains(road));
+        assertTrue(index.getRoads(chunks(point)).contains(road));
+
+        Collection<Road> roads = index.getRoads(chunks(headquarterFlag.getPosition(), point));
+        int timesFound = 0;
+
+        for (Road roadInChunks : roads) {
+            if (roadInChunks == road) {
+                timesFound++;
+            }
+        }
+
+        assertEquals(1, timesFound);
+    }
+
+    @Test
+    public void testRemovedRoadIsGoneFromAllChunks() throws Exception {
+        Point point = availableFlagPointInOtherChunk(headquarterFlag.getPosition(), true);
+
+        map.placeFlag(player, point);
+
+        Road road = map.placeAutoSelectedRoad(player, headquarterFlag.getPosition(), point);
+
+        stepTime();
+
+        map.removeRoad(road);
+
+        stepTime();
+
+        for (Point wayPoint : road.getWayPoints()) {
+            assertFalse(index.getRoads(chunks(wayPoint)).contains(road));
+        }
+    }
+
+    @Test
+    public void testFlagMovedToAnotherChunkIsOnlyFoundInTheNewChunk() throws Exception {
+        Point first = availableFlagPointInOtherChunk(headquarterFlag.getPosition(), false);
+        Flag flag = map.placeFlag(player, first);
+
+        stepTime();
+
+        Point second = availableFlagPointInOtherChunk(first, false);
+
+        map.removeFlag(flag);
+
+        Flag movedFlag = map.placeFlag(player, second);
+
+        stepTime();
+
+        assertFalse(index.getFlags(chunks(first)).contains(flag));
+        assertTrue(index.getFlags(chunks(second)).contains(movedFlag));
+    }
+
+    @Test
+    public void testVerifyFindsMissedChangesEvenWhenTheNumbersMatch() throws Exception {
+        Point first = availableFlagPointInOtherChunk(headquarterFlag.getPosition(), false);
+        Flag flag = map.placeFlag(player, first);
+
+        stepTime();
+
+        /* The index doesn't get these changes since time doesn't pass, and there are as many flags as before */
+        Point second = availableFlagPointInOtherChunk(first, false);
+
+        map.removeFlag(flag);
+
+        Flag movedFlag = map.placeFlag(player, second);
+
+        assertFalse(index.getFlags(chunks(second)).contains(movedFlag));
+
+        synchronized (map) {
+            index.verify();
+        }
+
+        assertFalse(index.getFlags(chunks(first)).contains(flag));
+        assertTrue(index.getFlags(chunks(second)).contains(movedFlag));
+    }
+
+    @Test
+    public void testCheckRebuildsInTheBackgroundWhenTheNumbersDiffer() throws Exception {
+        Point point = availableFlagPointInOtherChunk(headquarterFlag.getPosition(), false);
+
+        /* The index doesn't get this change since time doesn't pass */
+        Flag flag = map.placeFlag(player, point);
+
+        synchronized (map) {
+            index.check();
+
+            /* The view is not held up by the rebuild */
+            assertFalse(index.getFlags(chunks(point)).contains(flag));
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (!index.getFlags(chunks(point)).contains(flag) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertTrue(index.getFlags(chunks(point)).contains(flag));
+    }
+
+    private void stepTime() throws Exception {
+        synchronized (map) {
+            map.stepTime();
+        }
+    }
+
+    private static Set<Long> chunks(Point... points) {
+        return SpatialIndex.chunksOf(Arrays.asList(points));
+    }
+
+    /* Returns the closest point where the player can place a flag that is in another chunk than the given point */
+    private Point availableFlagPointInOtherChunk(Point from, boolean reachableByRoad) {
+        Point closest = null;
+        int closestDistance = Integer.MAX_VALUE;
+
+        for (Point point : new HashSet<>(map.getAvailableFlagPoints(player))) {
+            if (SpatialIndex.chunkOf(point) == SpatialIndex.chunkOf(from)) {
+                continue;
+            }
+
+            int distance = Math.abs(point.x - from.x) + Math.abs(point.y - from.y);
+
+            if (distance >= closestDistance) {
+                continue;
+            }
+
+            if (reachableByRoad && map.findAutoSelectedRoad(player, from, point, null) == null) {
+                continue;
+            }
+
+            closest = point;
+            closestDistance = distance;
+        }
+
+        assertNotNull(closest);
+        assertNotEquals(SpatialIndex.chunkOf(from), SpatialIndex.chunkOf(closest));
+
+        return closest;
+    }
+}
@@ -0,0 +1,115 @@
+package org.appland.settlers.rest.resource;
+
+import org.appland.settlers.maps.InvalidMapException;
+import org.appland.settlers.model.Building;
+import org.appland.settlers.model.GameMap;
+import org.appland.settlers.model.Player;
+import org.appland.settlers.model.Point;
+import org.appland.settlers.model.Woodcutter;
+import org.appland.settlers.rest.BenchmarkGames;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.core.EntityTag;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TerrainCacheTest {
+
+    private GameMap map;
+    private Player player;
+    private Utils utils;
+
+    @Before
+    public void startGame() throws Exception, InvalidMapException {
+        BenchmarkGames game = BenchmarkGames.startGame(1);
+
+        map = game.getMap();
+        player = game.getPlayers().get(0);
+        utils = new Utils(IdManager.idManager);
+    }
+
+    @After
+    public void releaseGame() {
+        GameResource.releaseGame(map);
+    }
+
+    @Test
+    public void testTagChangesWhenConstructionLevelsTheGround() throws Exception {
+        TerrainCache terrainCache = TerrainCache.getTerrainCache(map);
+        Point site = unevenHousePoint();
+        List<Integer> heightsBefore = heightsAround(site);
+
+        Building headquarter = player.getBuildings().get(0);
+        Building woodcutter = map.placeBuilding(new Woodcutter(player), site);
+
+        map.placeAutoSelectedRoad(player, headquarter.getPosition().downRight(), site.downRight());
+
+        stepTime();
+
+        /* The tag from when the building was placed, before the ground is leveled */
+        EntityTag placed = terrainCache.getTerrain(utils).getEntityTag();
+
+        for (int i = 0; i < 20000 && !woodcutter.isReady(); i++) {
+            stepTime();
+        }
+
+        assertTrue(woodcutter.isReady());
+        assertNotEquals(heightsBefore, heightsAround(site));
+
+        assertNotEquals(placed, terrainCache.getTerrain(utils).getEntityTag());
+    }
+
+    private void stepTime() throws Exception {
+        synchronized (map) {
+            map.stepTime();
+        }
+    }
+
+    private List<Integer> heightsAround(Point point) {
+        List<Integer> heights = new ArrayList<>();
+
+        for (Point neighbor : Arrays.asList(point, point.left(), point.right(), point.upLeft(), point.upRight(), point.downLeft(), point.downRight())) {
+            heights.add(map.getHeightAtPoint(neighbor));
+        }
+
+        return heights;
+    }
+
+    /* Returns a point close to the headquarter where a house can be built and the ground is not level */
+    private Point unevenHousePoint() {
+        Point headquarterPosition = player.getBuildings().get(0).getPosition();
+        Point closest = null;
+        int closestDistance = Integer.MAX_VALUE;
+
+        for (Point point : map.getAvailableHousePoints(player).keySet()) {
+            if (new HashSet<>(heightsAround(point)).size() < 2) {
+                continue;
+            }
+
+            int distance = Math.abs(point.x - headquarterPosition.x) + Math.abs(point.y - headquarterPosition.y);
+
+            if (distance < 4 || distance >= closestDistance) {
+                continue;
+            }
+
+            if (map.findAutoSelectedRoad(player, headquarterPosition.downRight(), point.downRight(), null) == null) {
+                continue;
+            }
+
+            closest = point;
+            closestDistance = distance;
+        }
+
+        assertNotNull(closest);
+
+        return closest;
+    }
+}
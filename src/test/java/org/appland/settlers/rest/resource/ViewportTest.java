@@ -0,0 +1,98 @@
+package org.appland.settlers.rest.resource;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ViewportTest {
+
+    @Test
+    public void testViewportFromJson() {
+        Viewport viewport = Viewport.fromJson(bounds(10L, 20L, 60L, 50L));
+
+        assertNotNull(viewport);
+        assertTrue(viewport.contains(10, 20));
+        assertTrue(viewport.contains(60, 50));
+        assertFalse(viewport.contains(61, 50));
+        assertFalse(viewport.contains(10, 19));
+    }
+
+    @Test
+    public void testBoundsCanBeGivenInAnyOrder() {
+        Viewport viewport = Viewport.fromJson(bounds(60L, 50L, 10L, 20L));
+
+        assertTrue(viewport.contains(30, 30));
+    }
+
+    @Test
+    public void testViewportWithSomeBoundsMissingIsNotCreated() {
+        JSONObject jsonViewport = bounds(10L, 20L, 60L, 50L);
+
+        jsonViewport.remove("maxY");
+
+        assertTrue(Viewport.hasAnyBounds(jsonViewport));
+        assertNull(Viewport.fromJson(jsonViewport));
+    }
+
+    @Test
+    public void testViewportWithBoundsThatAreNotNumbersIsNotCreated() {
+        assertNull(Viewport.fromJson(bounds(10L, 20L, "60", 50L)));
+    }
+
+    @Test
+    public void testMessageWithoutBounds() {
+        JSONObject jsonMessage = new JSONObject();
+
+        jsonMessage.put("command", "setViewport");
+
+        assertFalse(Viewport.hasAnyBounds(jsonMessage));
+    }
+
+    @Test
+    public void testViewportOutsideTheMap() {
+        assertTrue(new Viewport(-10, -10, 0, 0).overlapsMap(100, 100));
+        assertTrue(new Viewport(90, 90, 120, 120).overlapsMap(100, 100));
+        assertFalse(new Viewport(-10, -10, -1, 50).overlapsMap(100, 100));
+        assertFalse(new Viewport(100, 0, 120, 50).overlapsMap(100, 100));
+    }
+
+    @Test
+    public void testWorkerOnItsWayThroughTheViewportIsInside() {
+        Viewport viewport = new Viewport(10, 10, 20, 20);
+        JSONObject jsonWorker = point(0, 0);
+        JSONArray jsonPath = new JSONArray();
+
+        jsonPath.add(point(15, 15));
+        jsonPath.add(point(30, 30));
+
+        jsonWorker.put("path", jsonPath);
+
+        assertTrue(viewport.containsElement(jsonWorker));
+        assertFalse(viewport.containsElement(point(30, 30)));
+    }
+
+    private static JSONObject bounds(Object minX, Object minY, Object maxX, Object maxY) {
+        JSONObject jsonViewport = new JSONObject();
+
+        jsonViewport.put("minX", minX);
+        jsonViewport.put("minY", minY);
+        jsonViewport.put("maxX", maxX);
+        jsonViewport.put("maxY", maxY);
+
+        return jsonViewport;
+    }
+
+    private static JSONObject point(long x, long y) {
+        JSONObject jsonPoint = new JSONObject();
+
+        jsonPoint.put("x", x);
+        jsonPoint.put("y", y);
+
+        return jsonPoint;
+    }
+}
@@ -0,0 +1,105 @@
+package org.appland.settlers.rest.resource;
+
+import org.appland.settlers.maps.InvalidMapException;
+import org.appland.settlers.model.GameMap;
+import org.appland.settlers.model.Player;
+import org.appland.settlers.rest.BenchmarkGames;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WebsocketMonitorTest {
+
+    private GameMap map;
+    private Player player;
+    private SlowRemote remote;
+    private WebsocketMonitor monitor;
+
+    @Before
+    public void openSession() throws Exception, InvalidMapException {
+        BenchmarkGames game = BenchmarkGames.startGame(2);
+
+        map = game.getMap();
+        player = game.getPlayers().get(0);
+
+        remote = new SlowRemote();
+        monitor = new WebsocketMonitor();
+
+        monitor.onOpen(remote.getSession(), IdManager.idManager.getId(map), IdManager.idManager.getId(player), null);
+    }
+
+    @After
+    public void releaseGame() {
+        GameResource.releaseGame(map);
+    }
+
+    @Test
+    public void testViewportWithMissingBoundsGetsAnErrorReply() throws Exception {
+        monitor.onMessage(remote.getSession(), "{\"command\":\"setViewport\",\"minX\":0,\"minY\":0,\"maxX\":10}");
+
+        remote.waitForMessages(1);
+
+        JSONObject jsonReply = (JSONObject) new JSONParser().parse(remote.getMessage(0));
+
+        assertEquals("Error", jsonReply.get("status"));
+    }
+
+    @Test
+    public void testViewportOutsideTheMapGetsAnErrorReply() throws Exception {
+        monitor.onMessage(remote.getSession(), "{\"command\":\"setViewport\",\"minX\":-20,\"minY\":-20,\"maxX\":-10,\"maxY\":-10}");
+
+        remote.waitForMessages(1);
+
+        JSONObject jsonReply = (JSONObject) new JSONParser().parse(remote.getMessage(0));
+
+        assertEquals("Error", jsonReply.get("status"));
+        assertTrue(((String) jsonReply.get("message")).contains("outside the map"));
+    }
+
+    @Test
+    public void testOnlyChangesInsideTheViewportAreSent() throws Exception {
+
+        /* The player hasn't discovered the corner of the map so the snapshot is empty */
+        monitor.onMessage(remote.getSession(), "{\"command\":\"setViewport\",\"minX\":0,\"minY\":0,\"maxX\":4,\"maxY\":4}");
+
+        ChangesDelta delta = new ChangesDelta(map.getCurrentTime() + 1);
+
+        delta.add("workersWithNewTargets", worker("inside", 2, 2));
+        delta.add("workersWithNewTargets", worker("outside", 60, 60));
+
+        for (SessionOutbox outbox : SessionRegistry.sessionRegistry.getOutboxes(map, player)) {
+            outbox.offer(delta);
+        }
+
+        remote.waitForMessages(1);
+
+        JSONObject jsonChanges = (JSONObject) new JSONParser().parse(remote.getMessage(0));
+        List<String> ids = new ArrayList<>();
+
+        for (Object element : (JSONArray) jsonChanges.get("workersWithNewTargets")) {
+            ids.add((String) ((JSONObject) element).get("id"));
+        }
+
+        assertEquals(Arrays.asList("inside"), ids);
+    }
+
+    private static JSONObject worker(String id, long x, long y) {
+        JSONObject jsonWorker = new JSONObject();
+
+        jsonWorker.put("id", id);
+        jsonWorker.put("x", x);
+        jsonWorker.put("y", y);
+
+        return jsonWorker;
+    }
+}